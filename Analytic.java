@@ -18,6 +18,8 @@ package org.debatetool.core;
 import org.debatetool.core.html.HtmlEncoder;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class Analytic extends SpeechComponent {
     private String content;
@@ -51,6 +53,11 @@ public class Analytic extends SpeechComponent {
         // nothing to do
     }
 
+    @Override
+    public CompletableFuture<Void> loadAsync(Executor executor) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public String getLabel() {
         return content;
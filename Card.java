@@ -15,44 +15,89 @@
 
 package org.debatetool.core;
 
+import org.debatetool.core.compress.CardTextCodec;
+import org.debatetool.core.compress.CompressionDictionary;
+import org.debatetool.core.index.TagIndex;
+import org.debatetool.core.metrics.Metrics;
+import org.debatetool.core.metrics.Span;
+import org.debatetool.core.render.RenderedCardPool;
+import org.debatetool.core.storage.StorageContext;
 import org.debatetool.io.IOUtil;
-import org.debatetool.io.iocontrollers.IOController;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * A single piece of evidence, identified by the hash of its text and cite.
+ * <p>
+ * Cards may be shared between threads once loaded: the text is published last by {@link #load()} so that any thread
+ * observing {@link #isLoaded()} also sees the cite, tags and timestamp, and the lazily fetched overlays are published
+ * as a unit. Mutators are individually safe but not atomic with respect to each other; callers that need a card which
+ * can never change underneath them (for example a shared cache) should hand out a {@link #snapshot()}.
+ */
 public class Card extends HashIdentifiedSpeechComponent implements StateRecoverableComponent {
+    /**
+     * Set in the timestamp of compressed records. Real timestamps are never negative, so this tells the layouts
+     * apart without changing the plain one.
+     */
+    private static final long COMPRESSED_RECORD_FLAG = Long.MIN_VALUE;
+    private static final byte COMPRESSED_RECORD_VERSION = 1;
+
     /**
      * "tags" here used in the debate sense
      */
-    protected List<String> tags = new ArrayList<>();
-    protected int tagIndex = 0;
-    protected Cite cite;
-    protected String text;
-    private int preferredHighlightIndex = 0;
-    private int preferredUnderlineIndex = 0;
-    private CardOverlay loadedOverlay = null;
+    protected volatile List<String> tags = new CopyOnWriteArrayList<>();
+    protected volatile int tagIndex = 0;
+    protected volatile Cite cite;
+    protected volatile String text;
+    private volatile int preferredHighlightIndex = 0;
+    private volatile int preferredUnderlineIndex = 0;
+    private volatile CardOverlay loadedOverlay = null;
+    private volatile OverlayIndex overlayIndex = null;
+
+    private volatile List<CardOverlay> underlining;
+    private volatile List<CardOverlay> highlighting;
+    /**
+     * Every overlay list fetched for the card, by layer name
+     */
+    private volatile Map<String, List<CardOverlay>> layerOverlays;
+    /**
+     * Selected overlay index of each layer shown besides underlining and highlighting, sorted by layer name. Never
+     * modified, only replaced.
+     */
+    private volatile SortedMap<String, Integer> layerSelections = Collections.emptySortedMap();
 
-    private List<CardOverlay> underlining;
-    private List<CardOverlay> highlighting;
+    /**
+     * Set on snapshots, which reject every mutator. Final so that a snapshot handed to another thread never looks
+     * mutable there.
+     */
+    private final boolean immutable;
 
     public List<CardOverlay> getUnderlining() {
+        List<CardOverlay> underlining = this.underlining;
         if (underlining==null){
             loadOverlay();
+            underlining = this.underlining;
         }
         return underlining;
     }
 
     public List<CardOverlay> getHighlighting() {
+        List<CardOverlay> highlighting = this.highlighting;
         if (highlighting==null){
             loadOverlay();
+            highlighting = this.highlighting;
         }
         return highlighting;
     }
@@ -64,13 +109,19 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
     /**
      * The time the card text was last modified.
      */
-    protected long timeStamp;
+    protected volatile long timeStamp;
 
     public Card(byte[] hash){
+        this(hash, false);
+    }
+
+    private Card(byte[] hash, boolean immutable){
         super(hash);
+        this.immutable = immutable;
     }
 
     public Card(Cite cite, String text) {
+        this.immutable = false;
         setCite(cite);
         setText(text);
     }
@@ -80,12 +131,12 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
     }
 
     private void setCite(Cite cite) {
-        this.cite = cite;
+        this.cite = CitePool.getDefault().intern(cite);
         setModified(true);
     }
 
     private void setCite(String author, String date, String additionalInfo){
-        this.cite = new Cite(author, date, additionalInfo);
+        this.cite = CitePool.getDefault().intern(author, date, additionalInfo);
         setModified(true);
     }
 
@@ -109,27 +160,78 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
         out.writeByte(0);
     }
 
+    /**
+     * Writes the card with its cite and text deflated together, primed with the given dictionary. The record is
+     * read back by {@link #loadFromInput(DataInput, boolean)} like a plain one, provided the dictionary has been
+     * registered.
+     * @param dictionary shared dictionary to compress against, or null for none
+     */
+    public void writeCompressedToOutput(DataOutput out, CompressionDictionary dictionary) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(text.length() + 64);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        cite.writeToOutput(bodyOut);
+        IOUtil.writeSerializeString(text, bodyOut);
+        byte[] uncompressed = body.toByteArray();
+        byte[] compressed = CardTextCodec.compress(uncompressed, dictionary);
+
+        out.write(getHash());
+        out.writeLong(timeStamp | COMPRESSED_RECORD_FLAG);
+        out.writeByte(COMPRESSED_RECORD_VERSION);
+        out.writeInt(dictionary == null ? 0 : dictionary.getId());
+        out.writeInt(uncompressed.length);
+        out.writeInt(compressed.length);
+        out.write(compressed);
+        // write null terminating byte
+        out.writeByte(0);
+    }
+
     public static Card loadFromInput(DataInput in, boolean checkHash) throws IOException{
         byte[] hash = new byte[16];
         in.readFully(hash);
         long timeStamp = in.readLong();
-        Cite cite = new Cite(in);
-        String text = IOUtil.readDeserializeString(in);
+        DataInput body = in;
+        if ((timeStamp & COMPRESSED_RECORD_FLAG) != 0){
+            timeStamp &= ~COMPRESSED_RECORD_FLAG;
+            body = readCompressedBody(in);
+        }
+        Cite cite = CitePool.getDefault().intern(new Cite(body));
+        String text = IOUtil.readDeserializeString(body);
         byte nullTerm = in.readByte();
         if (nullTerm!=0){
             throw new IllegalStateException("Card missing null terminator");
         }
-        Card card = new Card(cite,text);
+        // keep the stored hash, which may have been computed under another scheme than the current default
+        Card card = new Card(hash);
+        card.cite = cite;
         card.timeStamp = timeStamp;
+        card.text = text;
         if (checkHash){
-            byte[] validHash = card.getHash();
-            if (!Arrays.equals(hash,validHash)){
+            if (card.identifyHashScheme() == null){
                 throw new IllegalStateException("Hash validation failed for card load");
             }
         }
         return card;
     }
 
+    private static DataInput readCompressedBody(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != COMPRESSED_RECORD_VERSION){
+            throw new IllegalStateException("Unsupported compressed card record version: " + version);
+        }
+        int dictionaryId = in.readInt();
+        CompressionDictionary dictionary = null;
+        if (dictionaryId != 0){
+            dictionary = CompressionDictionary.forId(dictionaryId);
+            if (dictionary == null){
+                throw new IllegalStateException("Compression dictionary " + dictionaryId + " is not registered");
+            }
+        }
+        int uncompressedLength = in.readInt();
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+        return new DataInputStream(new ByteArrayInputStream(CardTextCodec.decompress(compressed, uncompressedLength, dictionary)));
+    }
+
     @Override
     public String getLabel() {
         return getActiveTag()+"\n"+getCite().author+" "+getCite().getDate();
@@ -176,23 +278,50 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
             e.printStackTrace();
         }
         setCite(author,date,info);
-        // update text without changing timestamp
-        this.text = text;
         // now the rest should be tags
-        for (int i = 5; i < values.size(); i++){
-            tags.add(values.get(i));
-        }
+        tags.addAll(values.subList(5, values.size()));
+        // update text without changing timestamp, last so that it publishes the rest
+        this.text = text;
+        updateTagIndex();
     }
 
     @Override
     protected byte[] generateHash() {
-        MessageDigest dg = null;
-        try {
-            dg = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        return HashScheme.getDefault().hash(getHashedContent());
+    }
+
+    private byte[] getHashedContent() {
+        String text = this.text;
+        if (!text.isEmpty() && Character.isHighSurrogate(text.charAt(text.length()-1))){
+            // the cite could complete the pair, which encodes differently than the two halves apart
+            return (text+cite.toString()).getBytes(StandardCharsets.UTF_8);
         }
-        return dg.digest((text+cite.toString()).getBytes(StandardCharsets.UTF_8));
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] citeBytes = cite.getHashBytes();
+        byte[] content = Arrays.copyOf(textBytes, textBytes.length + citeBytes.length);
+        System.arraycopy(citeBytes, 0, content, textBytes.length, citeBytes.length);
+        return content;
+    }
+
+    /**
+     * Hashes the card's current text and cite, which differs from {@link #getHash()} if the card was loaded under a
+     * hash its content no longer produces, or one computed with another scheme
+     */
+    public byte[] computeContentHash(HashScheme scheme) {
+        if (!isLoaded()){
+            throw new IllegalStateException("Attempted to hash card before loading");
+        }
+        return scheme.hash(getHashedContent());
+    }
+
+    /**
+     * @return the scheme under which the card's content produces its hash, or null if none does
+     */
+    public HashScheme identifyHashScheme() {
+        if (!isLoaded()){
+            throw new IllegalStateException("Attempted to hash card before loading");
+        }
+        return HashScheme.identify(getHash(), getHashedContent());
     }
 
     public int getTagIndex(){
@@ -200,10 +329,13 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
     }
 
     public void setTagIndex(int i){
+        checkMutable();
         tagIndex = i;
+        fireChange(ChangeType.TAGS);
     }
 
     public String getActiveTag(){
+        List<String> tags = this.tags;
         if (tags.isEmpty()){
             return "<empty>";
         }
@@ -219,9 +351,12 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
     }
 
     public void setTags(List<String> tags){
-        this.tags.clear();
-        this.tags.addAll(tags);
+        checkMutable();
+        // swap in a new list so readers never see it half cleared
+        this.tags = new CopyOnWriteArrayList<>(tags);
         setModified(true);
+        updateTagIndex();
+        fireChange(ChangeType.TAGS);
     }
 
     /**
@@ -229,10 +364,23 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
      * @param tag
      */
     public void addTag(String tag){
-        if (!tags.contains(tag)){
+        checkMutable();
+        List<String> tags = this.tags;
+        if (tags instanceof CopyOnWriteArrayList){
+            ((CopyOnWriteArrayList<String>) tags).addIfAbsent(tag);
+        }else if (!tags.contains(tag)){
             tags.add(tag);
         }
         setModified(true);
+        updateTagIndex();
+        fireChange(ChangeType.TAGS);
+    }
+
+    private void updateTagIndex(){
+        TagIndex index = TagIndex.getLibraryIndex();
+        if (index != null){
+            index.update(this);
+        }
     }
 
     @Override
@@ -240,36 +388,191 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
         if (text == null){
             throw new IllegalStateException("Attempted to display card before loading");
         }
-        if (loadedOverlay==null){
-            loadOverlay();
-        }
+        RenderedCardPool pool = RenderedCardPool.getDefault();
+        String body = pool == null ? renderBody() : pool.get(new OverlaySelectionKey(this), this::renderBody);
+        return getCite().getDisplayContent()+"<br>"+body;
+    }
+
+    private String renderBody(){
+        CardOverlay overlay = getCombinedOverlay();
+        long start = Metrics.startTimer();
         // the overlay sanitizes the text, so don't encode it a second time
-        return getCite().getDisplayContent()+"<br>"+loadedOverlay.generateHTML(getText());
+        String html = overlay.generateHTML(getText());
+        Metrics.stopTimer(Metrics.CARD_RENDER, start);
+        return html;
     }
 
-    private void loadOverlay(){
-        HashMap<String, List<CardOverlay>> overlayMap = IOController.getIoController().getOverlayIOManager().getOverlays(getHash());
-        assignOverlaysFromMap(overlayMap);
+    /**
+     * @return the preferred underlining and highlighting combined into one overlay, fetching them if necessary
+     */
+    public CardOverlay getCombinedOverlay(){
+        CardOverlay overlay = loadedOverlay;
+        if (overlay==null){
+            overlay = loadOverlay();
+        }
+        return overlay;
     }
 
+    /**
+     * @return an index over the combined overlay and the text, rebuilt only when either has changed
+     */
+    public OverlayIndex getOverlayIndex(){
+        String text = this.text;
+        if (text == null){
+            throw new IllegalStateException("Attempted to index card before loading");
+        }
+        CardOverlay overlay = getCombinedOverlay();
+        OverlayIndex index = overlayIndex;
+        if (index == null || index.getOverlay() != overlay || index.getText() != text){
+            index = new OverlayIndex(overlay, text);
+            overlayIndex = index;
+        }
+        return index;
+    }
+
+    private CardOverlay loadOverlay(){
+        try (Span span = Metrics.startSpan(Metrics.CARD_LOAD_OVERLAY)) {
+            long start = Metrics.startTimer();
+            HashMap<String, List<CardOverlay>> overlayMap = StorageContext.getStorageContext().getOverlays(getHash());
+            Metrics.stopTimer(Metrics.STORAGE_GET_OVERLAYS, start);
+            return assignOverlays(overlayMap);
+        }
+    }
+
+    /**
+     * Replaces the card's overlays, dropping anything rendered from the old ones
+     */
     public void assignOverlaysFromMap(HashMap<String, List<CardOverlay>> overlayMap){
-        underlining = overlayMap.get("Underline");
-        highlighting = overlayMap.get("Highlight");
+        checkMutable();
+        assignOverlays(overlayMap);
+        // after the new overlays are published, so a render of the old ones running meanwhile can't be pooled again
+        RenderedCardPool pool = RenderedCardPool.getDefault();
+        if (pool != null){
+            pool.invalidate(getHash());
+        }
+        fireChange(ChangeType.OVERLAYS);
+    }
+
+    /**
+     * Builds the combined overlay from the given map and publishes it together with the lists it was built from
+     * @return the combined overlay
+     */
+    private synchronized CardOverlay assignOverlays(HashMap<String, List<CardOverlay>> overlayMap){
+        List<CardOverlay> underlining = overlayMap.get(OverlayLayer.UNDERLINE.getName());
+        List<CardOverlay> highlighting = overlayMap.get(OverlayLayer.HIGHLIGHT.getName());
         if (underlining == null){
             underlining = new ArrayList<>();
         }
         if (highlighting == null){
             highlighting = new ArrayList<>();
         }
-        CardOverlay underline = null;
-        CardOverlay highlight = null;
+        SortedMap<String, Integer> selections = layerSelections;
+        CardOverlay[] selected = new CardOverlay[2+selections.size()];
+        byte[] layerBits = new byte[selected.length];
         if (!underlining.isEmpty()){
-            underline = underlining.get(getPreferredUnderlineIndex());
+            selected[0] = underlining.get(getPreferredUnderlineIndex());
         }
         if (!highlighting.isEmpty()){
-            highlight = highlighting.get(getPreferredHighlightIndex());
+            selected[1] = highlighting.get(getPreferredHighlightIndex());
         }
-        loadedOverlay = CardOverlay.combineOverlays(underline, highlight);
+        int i = 2;
+        for (Map.Entry<String, Integer> selection:selections.entrySet()){
+            List<CardOverlay> overlays = overlayMap.get(selection.getKey());
+            OverlayLayer layer = OverlayLayer.forName(selection.getKey());
+            if (overlays != null && layer != null && selection.getValue() < overlays.size()){
+                selected[i] = overlays.get(selection.getValue());
+                layerBits[i] = layer.getBit();
+            }
+            i++;
+        }
+        long start = Metrics.startTimer();
+        CardOverlay combined = CardOverlay.composeOverlays(selected, layerBits);
+        Metrics.stopTimer(Metrics.OVERLAY_COMBINE, start);
+        this.underlining = underlining;
+        this.highlighting = highlighting;
+        this.layerOverlays = overlayMap;
+        loadedOverlay = combined;
+        return combined;
+    }
+
+    /**
+     * @return the overlays saved for the card under the layer's name, fetching them if necessary
+     */
+    public List<CardOverlay> getLayerOverlays(String layer) {
+        Map<String, List<CardOverlay>> layerOverlays = this.layerOverlays;
+        if (layerOverlays==null){
+            loadOverlay();
+            layerOverlays = this.layerOverlays;
+        }
+        List<CardOverlay> overlays = layerOverlays.get(layer);
+        return overlays == null ? Collections.emptyList() : overlays;
+    }
+
+    /**
+     * Shows the overlay with the given index from the named layer. Underline and Highlight set the preferred indices.
+     */
+    public void setLayerSelection(String layer, int index) {
+        checkMutable();
+        if (OverlayLayer.forName(layer) == null){
+            throw new IllegalArgumentException("Unregistered overlay layer: " + layer);
+        }
+        if (layer.equals(OverlayLayer.UNDERLINE.getName())){
+            setPreferredUnderlineIndex(index);
+            return;
+        }
+        if (layer.equals(OverlayLayer.HIGHLIGHT.getName())){
+            setPreferredHighlightIndex(index);
+            return;
+        }
+        synchronized (this){
+            SortedMap<String, Integer> selections = new TreeMap<>(layerSelections);
+            selections.put(layer, index);
+            layerSelections = Collections.unmodifiableSortedMap(selections);
+            loadedOverlay = null;
+        }
+        fireChange(ChangeType.SELECTION);
+    }
+
+    /**
+     * Stops showing the named layer
+     */
+    public void clearLayerSelection(String layer) {
+        checkMutable();
+        synchronized (this){
+            if (!layerSelections.containsKey(layer)){
+                return;
+            }
+            SortedMap<String, Integer> selections = new TreeMap<>(layerSelections);
+            selections.remove(layer);
+            layerSelections = Collections.unmodifiableSortedMap(selections);
+            loadedOverlay = null;
+        }
+        fireChange(ChangeType.SELECTION);
+    }
+
+    /**
+     * @return the selected index of each layer shown besides underlining and highlighting, sorted by layer name
+     */
+    public SortedMap<String, Integer> getLayerSelections() {
+        return layerSelections;
+    }
+
+    /**
+     * @return the layer selections in the form used by the state string, IE "Shrink=0,Read=1"
+     */
+    public String getLayerSelectionString() {
+        SortedMap<String, Integer> selections = layerSelections;
+        if (selections.isEmpty()){
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Integer> selection:selections.entrySet()){
+            if (builder.length() > 0){
+                builder.append(',');
+            }
+            builder.append(selection.getKey()).append('=').append(selection.getValue());
+        }
+        return builder.toString();
     }
 
     @Override
@@ -282,9 +585,73 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
         clone.timeStamp = timeStamp;
         clone.preferredHighlightIndex = preferredHighlightIndex;
         clone.preferredUnderlineIndex = preferredUnderlineIndex;
+        clone.layerSelections = layerSelections;
         return clone;
     }
 
+    /**
+     * Creates a loaded copy of this card which shares its hash and rejects all mutation, suitable for handing to
+     * several threads at once.
+     * @return an immutable copy of this card
+     */
+    public Card snapshot() {
+        if (!isLoaded()){
+            throw new IllegalStateException("Attempted to snapshot card before loading");
+        }
+        Card snapshot = new Card(getHash(), true);
+        snapshot.cite = cite;
+        snapshot.timeStamp = timeStamp;
+        snapshot.tags = new CopyOnWriteArrayList<>(tags);
+        snapshot.tagIndex = tagIndex;
+        snapshot.preferredHighlightIndex = preferredHighlightIndex;
+        snapshot.preferredUnderlineIndex = preferredUnderlineIndex;
+        // overlays can be edited in place, so the snapshot gets its own copies
+        synchronized (this){
+            snapshot.underlining = copyOverlays(underlining);
+            snapshot.highlighting = copyOverlays(highlighting);
+            Map<String, List<CardOverlay>> layerOverlays = this.layerOverlays;
+            if (layerOverlays != null){
+                Map<String, List<CardOverlay>> copy = new HashMap<>();
+                for (Map.Entry<String, List<CardOverlay>> entry:layerOverlays.entrySet()){
+                    copy.put(entry.getKey(), copyOverlays(entry.getValue()));
+                }
+                snapshot.layerOverlays = Collections.unmodifiableMap(copy);
+            }
+            CardOverlay loadedOverlay = this.loadedOverlay;
+            if (loadedOverlay != null){
+                snapshot.loadedOverlay = copyOverlay(loadedOverlay);
+            }
+        }
+        snapshot.layerSelections = layerSelections;
+        snapshot.text = text;
+        return snapshot;
+    }
+
+    private static List<CardOverlay> copyOverlays(List<CardOverlay> overlays){
+        if (overlays == null){
+            return null;
+        }
+        List<CardOverlay> copy = new ArrayList<>(overlays.size());
+        for (CardOverlay overlay:overlays){
+            copy.add(copyOverlay(overlay));
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    private static CardOverlay copyOverlay(CardOverlay overlay){
+        return new CardOverlay(overlay.getName(), overlay.getOverlayPositionBytes(), overlay.getOverlayTypeBytes());
+    }
+
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private void checkMutable() {
+        if (immutable){
+            throw new UnsupportedOperationException("Attempted to modify a card snapshot");
+        }
+    }
+
     @Override
     public String getStorageString() {
         return IOUtil.encodeString(getHash());
@@ -292,30 +659,80 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
 
     @Override
     public String getStateString() {
-        return getTagIndex() + ":" + getPreferredUnderlineIndex() + ":" + getPreferredHighlightIndex();
+        String state = getTagIndex() + ":" + getPreferredUnderlineIndex() + ":" + getPreferredHighlightIndex();
+        String layers = getLayerSelectionString();
+        // only appended when used, so that older states stay as they were
+        return layers.isEmpty() ? state : state + ":" + layers;
     }
 
     @Override
     public void restoreState(String stateString){
+        checkMutable();
         String[] states = stateString.split(":");
-        tagIndex = Integer.parseInt(states[0]);
-        preferredUnderlineIndex = Integer.parseInt(states[1]);
-        preferredHighlightIndex = Integer.parseInt(states[2]);
+        SortedMap<String, Integer> selections = new TreeMap<>();
+        if (states.length > 3){
+            for (String selection:states[3].split(",")){
+                int separator = selection.indexOf('=');
+                selections.put(selection.substring(0, separator), Integer.parseInt(selection.substring(separator+1)));
+            }
+        }
+        int tag = Integer.parseInt(states[0]);
+        int underline = Integer.parseInt(states[1]);
+        int highlight = Integer.parseInt(states[2]);
+        // only what actually differs is reported, since stubs are restored in bulk whenever a container loads
+        int changes = 0;
+        synchronized (this){
+            if (tagIndex != tag){
+                tagIndex = tag;
+                changes |= ChangeType.TAGS.getMask();
+            }
+            if (preferredUnderlineIndex != underline || preferredHighlightIndex != highlight
+                    || !layerSelections.equals(selections)){
+                preferredUnderlineIndex = underline;
+                preferredHighlightIndex = highlight;
+                layerSelections = Collections.unmodifiableSortedMap(selections);
+                loadedOverlay = null;
+                changes |= ChangeType.SELECTION.getMask();
+            }
+        }
+        if (changes != 0){
+            fireChanges(changes);
+        }
     }
 
     @Override
     public void load() throws IOException {
-        Card self = (Card) IOController.getIoController().getComponentIOManager().retrieveSpeechComponent(getHash());
-        // TODO maybe a better way to import this information
-        setTo(self);
+        try (Span span = Metrics.startSpan(Metrics.CARD_LOAD)) {
+            long start = Metrics.startTimer();
+            Card self = (Card) StorageContext.getStorageContext().retrieveSpeechComponent(getHash());
+            Metrics.stopTimer(Metrics.STORAGE_RETRIEVE, start);
+            // TODO maybe a better way to import this information
+            setTo(self);
+        }
+    }
+
+    /**
+     * Fetches the card body and, unless they have been fetched already, its overlays concurrently on the given executor
+     */
+    @Override
+    public CompletableFuture<Void> loadAsync(Executor executor) {
+        CompletableFuture<Void> body = super.loadAsync(executor);
+        if (layerOverlays != null){
+            return body;
+        }
+        CompletableFuture<Void> overlay = CompletableFuture.runAsync(this::loadOverlay, executor);
+        return CompletableFuture.allOf(body, overlay);
     }
 
     public void setTo(Card card){
-        this.text = card.text;
+        checkMutable();
         this.cite = card.cite;
         this.timeStamp = card.timeStamp;
         this.tags = card.tags;
-
+        // text is written last, so a reader that sees the card as loaded sees everything above
+        this.text = card.text;
+        updateTagIndex();
+        fireChange(ChangeType.CONTENT);
     }
 
     @Override
@@ -347,8 +764,14 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
     }
 
     public void setPreferredUnderlineIndex(int preferredUnderlineIndex) {
-        this.preferredUnderlineIndex = preferredUnderlineIndex;
-        loadedOverlay = null;
+        checkMutable();
+        // under the monitor assignOverlays holds, so an overlay combined from the old index can't be published after
+        // this invalidation
+        synchronized (this){
+            this.preferredUnderlineIndex = preferredUnderlineIndex;
+            loadedOverlay = null;
+        }
+        fireChange(ChangeType.SELECTION);
     }
 
     public int getPreferredHighlightIndex() {
@@ -356,8 +779,13 @@ public class Card extends HashIdentifiedSpeechComponent implements StateRecovera
     }
 
     public void setPreferredHighlightIndex(int preferredHighlightIndex) {
-        this.preferredHighlightIndex = preferredHighlightIndex;
-        loadedOverlay = null;
+        checkMutable();
+        // see setPreferredUnderlineIndex
+        synchronized (this){
+            this.preferredHighlightIndex = preferredHighlightIndex;
+            loadedOverlay = null;
+        }
+        fireChange(ChangeType.SELECTION);
     }
 
     @Override
@@ -30,11 +30,14 @@ public class CardOverlay implements Serializable {
     private String name;
     private TShortArrayList overlayPositions;
     private TByteArrayList overlayTypes;
+    // transient, so that the serialized form is unchanged
+    private transient boolean strayPositionByte = false;
 
     public CardOverlay(String name, byte[] overlayPositions, byte[] overlayTypes){
         this.name = name;
         this.overlayPositions = new TShortArrayList(fromBytes(overlayPositions));
         this.overlayTypes = new TByteArrayList(overlayTypes);
+        this.strayPositionByte = overlayPositions.length % 2 != 0;
     }
 
     public CardOverlay(String name){
@@ -51,25 +54,30 @@ public class CardOverlay implements Serializable {
         return overlayTypes;
     }
 
+    /**
+     * @return whether the position bytes the overlay was read from ended in an odd byte, which parsing drops
+     */
+    public boolean hasStrayPositionByte(){
+        return strayPositionByte;
+    }
+
     public String generateHTML(String plainText){
+        OverlayLayer[] layers = OverlayLayer.getLayersByBit();
         StringBuilder htmlBuilder = new StringBuilder();
         int position = 0;
         for (int i = 0; i < overlayPositions.size(); i++){
             byte type = overlayTypes.get(i);
-            boolean highlight = (type&HIGHLIGHT)!=0;
-            boolean underline = (type&UNDERLINE)!=0;
-            if (highlight){
-                htmlBuilder.append("<h>");
-            }
-            if (underline){
-                htmlBuilder.append("<u>");
+            // layers open in bit order and close in reverse, so highlighting encloses underlining
+            for (int bit = 0; type != 0 && bit < layers.length; bit++){
+                if ((type & (1<<bit)) != 0 && layers[bit] != null){
+                    htmlBuilder.append(layers[bit].getOpenTag());
+                }
             }
             htmlBuilder.append(sanitizeHTML(plainText.substring(position,position+overlayPositions.get(i))));
-            if (underline){
-                htmlBuilder.append("</u>");
-            }
-            if (highlight){
-                htmlBuilder.append("</h>");
+            for (int bit = layers.length-1; type != 0 && bit >= 0; bit--){
+                if ((type & (1<<bit)) != 0 && layers[bit] != null){
+                    htmlBuilder.append(layers[bit].getCloseTag());
+                }
             }
             position+=overlayPositions.get(i);
         }
@@ -158,21 +166,78 @@ public class CardOverlay implements Serializable {
     }
 
     public static CardOverlay combineOverlays(CardOverlay... overlays){
-        // TODO do a better job of this
-        CardOverlay combinedOverlay = new CardOverlay("");
-        for (CardOverlay overlay:overlays){
-            if (overlay == null){
-                continue;
+        return composeOverlays(overlays, null);
+    }
+
+    /**
+     * Merges the overlays into one in a single pass over all of their runs, ORing together the types that overlap.
+     * Every run boundary of every overlay is kept, as combining by replaying runs did, so neighbouring runs can share
+     * a type and the rendered HTML is unchanged.
+     * @param overlays the overlays to merge, any of which may be null
+     * @param layerBits if not null, the type each overlay contributes wherever its own type is not 0, so that an
+     *                  overlay can be drawn as a different layer than it was saved with. 0 keeps the overlay's types.
+     */
+    public static CardOverlay composeOverlays(CardOverlay[] overlays, byte[] layerBits){
+        int count = overlays.length;
+        int[] run = new int[count];
+        int[] remaining = new int[count];
+        int active = 0;
+        for (int k = 0; k < count; k++){
+            run[k] = -1;
+            if (overlays[k] != null && advance(overlays[k], run, remaining, k)){
+                active++;
             }
-            int position = 0;
-            for (int i = 0; i < overlay.overlayPositions.size(); i++){
-                short overlayPosition = overlay.overlayPositions.get(i);
-                byte overlayType = overlay.overlayTypes.get(i);
-                combinedOverlay.updateOverlay(position,position+overlayPosition,overlayType);
-                position+=overlayPosition;
+        }
+        CardOverlay composed = new CardOverlay("");
+        while (active > 0){
+            int step = Integer.MAX_VALUE;
+            byte type = 0x0;
+            for (int k = 0; k < count; k++){
+                if (remaining[k] > 0){
+                    step = Math.min(step, remaining[k]);
+                    byte runType = overlays[k].overlayTypes.get(run[k]);
+                    if (layerBits != null && layerBits[k] != 0 && runType != 0){
+                        runType = layerBits[k];
+                    }
+                    type |= runType;
+                }
             }
+            // every step ends at the boundary of at least one overlay
+            composed.addRun(step, type);
+            for (int k = 0; k < count; k++){
+                if (remaining[k] > 0){
+                    remaining[k] -= step;
+                    if (remaining[k] == 0 && !advance(overlays[k], run, remaining, k)){
+                        active--;
+                    }
+                }
+            }
+        }
+        return composed;
+    }
+
+    // moves the cursor to the overlay's next non-empty run, returning false at the end
+    private static boolean advance(CardOverlay overlay, int[] run, int[] remaining, int k){
+        while (++run[k] < overlay.overlayPositions.size()){
+            remaining[k] = Short.toUnsignedInt(overlay.overlayPositions.get(run[k]));
+            if (remaining[k] > 0){
+                return true;
+            }
+        }
+        remaining[k] = 0;
+        return false;
+    }
+
+    /**
+     * Appends a run of the given length and type after the existing ones. Positions are stored as shorts, so a run
+     * longer than {@link Short#MAX_VALUE} is added in pieces.
+     */
+    public void addRun(int length, byte type){
+        while (length > 0){
+            int piece = Math.min(length, Short.MAX_VALUE);
+            addOverlay((short) piece, type);
+            length -= piece;
         }
-        return combinedOverlay;
     }
 
     private void splitOverlay(int index, int position){
@@ -0,0 +1,105 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Holds back the change events fired on the current thread until the batch is closed, then delivers one event per
+ * component with everything that changed in it, in the order the components first changed. Batches nest; events are
+ * delivered when the outermost one is closed.
+ * <pre>
+ * try (ChangeBatch batch = ChangeBatch.begin()) {
+ *     card.setTags(tags);
+ *     card.setPreferredHighlightIndex(1);
+ * }
+ * </pre>
+ */
+public final class ChangeBatch implements AutoCloseable {
+    private static final ThreadLocal<ChangeBatch> CURRENT = new ThreadLocal<>();
+
+    private final Thread owner = Thread.currentThread();
+    private int depth = 0;
+    // components by first change, with their accumulated masks at the same positions
+    private final IdentityHashMap<HashIdentifiedSpeechComponent, Integer> positions = new IdentityHashMap<>();
+    private final List<HashIdentifiedSpeechComponent> components = new ArrayList<>();
+    private final TIntArrayList changes = new TIntArrayList();
+
+    private ChangeBatch() {
+    }
+
+    /**
+     * Starts a batch on the current thread, or joins the one already open
+     */
+    public static ChangeBatch begin(){
+        ChangeBatch batch = CURRENT.get();
+        if (batch == null){
+            batch = new ChangeBatch();
+            CURRENT.set(batch);
+        }
+        batch.depth++;
+        return batch;
+    }
+
+    /**
+     * @return whether a batch is open on the current thread
+     */
+    public static boolean isActive(){
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * @return whether the change was held back by a batch open on the current thread
+     */
+    static boolean defer(HashIdentifiedSpeechComponent component, int mask){
+        ChangeBatch batch = CURRENT.get();
+        if (batch == null){
+            return false;
+        }
+        Integer position = batch.positions.get(component);
+        if (position == null){
+            batch.positions.put(component, batch.components.size());
+            batch.components.add(component);
+            batch.changes.add(mask);
+        }else{
+            batch.changes.setQuick(position, batch.changes.getQuick(position) | mask);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (Thread.currentThread() != owner){
+            throw new IllegalStateException("Change batches must be closed on the thread that began them");
+        }
+        if (depth == 0){
+            throw new IllegalStateException("Change batch already closed");
+        }
+        if (--depth > 0){
+            return;
+        }
+        // changes made by listeners from here on are delivered straight away
+        CURRENT.remove();
+        for (int i = 0; i < components.size(); i++){
+            HashIdentifiedSpeechComponent component = components.get(i);
+            component.dispatchChange(new ChangeEvent(component, changes.getQuick(i)));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.util.EnumSet;
+
+/**
+ * Reports that a component changed. Only what changed is recorded, not how; listeners read the new state from the
+ * component.
+ */
+public final class ChangeEvent {
+    private final HashIdentifiedSpeechComponent source;
+    private final int changes;
+
+    ChangeEvent(HashIdentifiedSpeechComponent source, int changes) {
+        this.source = source;
+        this.changes = changes;
+    }
+
+    public HashIdentifiedSpeechComponent getSource() {
+        return source;
+    }
+
+    /**
+     * @return the {@link ChangeType#getMask() masks} of everything that changed
+     */
+    public int getChanges() {
+        return changes;
+    }
+
+    public boolean contains(ChangeType type){
+        return (changes & type.getMask()) != 0;
+    }
+
+    public EnumSet<ChangeType> getTypes(){
+        EnumSet<ChangeType> types = EnumSet.noneOf(ChangeType.class);
+        for (ChangeType type:ChangeType.values()){
+            if (contains(type)){
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    @Override
+    public String toString(){
+        return "ChangeEvent{" + source.getClass().getSimpleName() + " " + getTypes() + "}";
+    }
+}
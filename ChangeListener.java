@@ -0,0 +1,25 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+/**
+ * Receives {@link ChangeEvent}s from components, on the thread that made the change and possibly while the
+ * component's monitor is held, so listeners should hand anything slow off to another thread.
+ */
+@FunctionalInterface
+public interface ChangeListener {
+    void componentChanged(ChangeEvent event);
+}
@@ -0,0 +1,53 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+/**
+ * What about a component changed. Events carry a set of these as a bit mask, so that changes coalesced in a
+ * {@link ChangeBatch} can be reported together.
+ */
+public enum ChangeType {
+    /**
+     * The text or cite of a card, including when it is loaded
+     */
+    CONTENT,
+    /**
+     * The tags of a card or which of them is active
+     */
+    TAGS,
+    /**
+     * The overlays saved for a card
+     */
+    OVERLAYS,
+    /**
+     * Which overlays a card shows
+     */
+    SELECTION,
+    /**
+     * The name of a container
+     */
+    NAME,
+    /**
+     * The components of a container: added, removed, moved or replaced
+     */
+    CHILDREN;
+
+    private final int mask = 1 << ordinal();
+
+    public int getMask() {
+        return mask;
+    }
+}
@@ -22,12 +22,22 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 public class Cite implements Serializable {
     protected String author;
     protected String date;
     protected String additionalInfo;
 
+    /**
+     * Set on the shared instances handed out by {@link CitePool}, which may never change
+     */
+    private transient boolean canonical = false;
+    // derived from the fields above and dropped whenever they change
+    private transient volatile String joined;
+    private transient volatile byte[] hashBytes;
+    private transient volatile String displayContent;
+
     public Cite(String author, String date, String additionalInfo) {
         this.author = author;
         this.date = date;
@@ -60,17 +70,58 @@ public class Cite implements Serializable {
     }
 
     public void loadFromInput(DataInput in) throws IOException{
+        if (canonical){
+            throw new UnsupportedOperationException("Attempted to modify a shared cite");
+        }
+        joined = null;
+        hashBytes = null;
+        displayContent = null;
         author = IOUtil.readDeserializeString(in);
         date = IOUtil.readDeserializeString(in);
         additionalInfo = IOUtil.readDeserializeString(in);
     }
 
     public String toString(){
-        return getAuthor()+getDate()+getAdditionalInfo();
+        String joined = this.joined;
+        if (joined == null){
+            joined = getAuthor()+getDate()+getAdditionalInfo();
+            this.joined = joined;
+        }
+        return joined;
+    }
+
+    /**
+     * @return {@link #toString()} in UTF-8, as hashed into the identity of cards. The array must not be modified.
+     */
+    public byte[] getHashBytes(){
+        byte[] hashBytes = this.hashBytes;
+        if (hashBytes == null){
+            hashBytes = toString().getBytes(StandardCharsets.UTF_8);
+            this.hashBytes = hashBytes;
+        }
+        return hashBytes;
     }
 
     public String getDisplayContent(){
-        return "<c>"+ HtmlEncoder.encode(getAuthor() + " " + getDate()) + "</c> ("+HtmlEncoder.encode(getAdditionalInfo())+")";
+        String displayContent = this.displayContent;
+        if (displayContent == null){
+            displayContent = "<c>"+ HtmlEncoder.encode(getAuthor() + " " + getDate()) + "</c> ("+HtmlEncoder.encode(getAdditionalInfo())+")";
+            this.displayContent = displayContent;
+        }
+        return displayContent;
+    }
+
+    /**
+     * @return an unshared copy that {@link CitePool} may hand out
+     */
+    Cite canonicalCopy(){
+        Cite copy = new Cite(author, date, additionalInfo);
+        copy.canonical = true;
+        return copy;
+    }
+
+    boolean isCanonical(){
+        return canonical;
     }
 
     @Override
@@ -81,4 +132,9 @@ public class Cite implements Serializable {
         Cite oc = (Cite) o;
         return (oc.author.equals(author)) && (oc.additionalInfo.equals(additionalInfo)) && (oc.date.equals(date));
     }
+
+    @Override
+    public int hashCode(){
+        return (author.hashCode() * 31 + date.hashCode()) * 31 + additionalInfo.hashCode();
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Canonicalizes cites, so that the many cards sharing an author, date and source also share one {@link Cite}, along
+ * with its cached display HTML and hash input.
+ * <p>
+ * Entries are weak and disappear once no card refers to their cite, so the pool never holds on to a library that has
+ * been closed. The pool is split into stripes by hash, each with its own lock, so that parallel loads rarely wait on
+ * each other.
+ */
+public final class CitePool {
+    private static final int STRIPES = 16;
+    private static final CitePool defaultPool = new CitePool();
+
+    private final WeakHashMap<Cite, WeakReference<Cite>>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    public CitePool() {
+        stripes = new WeakHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++){
+            stripes[i] = new WeakHashMap<>();
+        }
+    }
+
+    /**
+     * @return the pool cards intern their cites in
+     */
+    public static CitePool getDefault() {
+        return defaultPool;
+    }
+
+    /**
+     * @return the shared cite equal to the given one, which rejects modification. The given cite is not changed.
+     */
+    public Cite intern(Cite cite){
+        if (cite.isCanonical()){
+            return cite;
+        }
+        int hash = cite.hashCode();
+        WeakHashMap<Cite, WeakReference<Cite>> stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe){
+            WeakReference<Cite> reference = stripe.get(cite);
+            Cite canonical = reference == null ? null : reference.get();
+            if (canonical == null){
+                canonical = cite.canonicalCopy();
+                // the value must not hold the key strongly, or the entry could never be collected
+                stripe.put(canonical, new WeakReference<>(canonical));
+            }
+            return canonical;
+        }
+    }
+
+    public Cite intern(String author, String date, String additionalInfo){
+        return intern(new Cite(author, date, additionalInfo));
+    }
+
+    /**
+     * @return the number of distinct cites currently pooled
+     */
+    public int size(){
+        int size = 0;
+        for (WeakHashMap<Cite, WeakReference<Cite>> stripe:stripes){
+            synchronized (stripe){
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merkle tree over the contents of a {@link SpeechElementContainer}, with one leaf per component.
+ * <p>
+ * A leaf digests what identifies the component in storage: a card's hash and state string, an analytic's text, or
+ * a nested container's own content digest. Inner nodes digest their two children, and a node without a right
+ * sibling is carried up unchanged. Leaves are kept in step with the container as components are added and removed,
+ * and only the nodes above the first changed leaf are recomputed, so appending costs O(log n) digests.
+ * <p>
+ * Cards changed in place are picked up through their {@link ChangeEvent}s rather than by rereading every leaf, so a
+ * read with nothing changed costs one digest comparison per nested container. The tree listens to its cards until
+ * {@link #dispose()} is called.
+ * <p>
+ * Two trees can be compared top down with {@link #differingLeaves(ContentDigestTree)}, which only descends into
+ * subtrees whose digests differ.
+ */
+public class ContentDigestTree {
+    private static final byte CARD_LEAF = 1;
+    private static final byte ANALYTIC_LEAF = 2;
+    private static final byte CONTAINER_LEAF = 3;
+
+    private final List<SpeechComponent> components = new ArrayList<>();
+    // how many leaves each component has, so that components in several places are listened to once
+    private final IdentityHashMap<SpeechComponent, Integer> occurrences = new IdentityHashMap<>();
+    // the digest each nested container's leaves were computed from
+    private final IdentityHashMap<SpeechElementContainer, byte[]> nestedDigests = new IdentityHashMap<>();
+    // components whose leaves are out of date
+    private final Set<SpeechComponent> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ChangeListener listener = this::componentChanged;
+    // levels.get(0) holds the leaves, the last level holds the root
+    private final List<List<byte[]>> levels = new ArrayList<>();
+    private int dirtyFrom = 0;
+
+    public ContentDigestTree(List<SpeechComponent> contents) {
+        levels.add(new ArrayList<>());
+        for (SpeechComponent component:contents){
+            insert(components.size(), component);
+        }
+    }
+
+    public synchronized void insert(int index, SpeechComponent component){
+        components.add(index, component);
+        if (occurrences.merge(component, 1, Integer::sum) == 1){
+            track(component);
+        }else if (component instanceof SpeechElementContainer){
+            // the other leaves of the container must agree with the digest this one is computed from
+            refreshNested((SpeechElementContainer) component);
+        }
+        levels.get(0).add(index, leafDigest(component));
+        markDirty(index);
+    }
+
+    public synchronized void remove(int index){
+        release(components.remove(index));
+        levels.get(0).remove(index);
+        markDirty(index);
+    }
+
+    public synchronized void clear(){
+        for (SpeechComponent component:occurrences.keySet()){
+            untrack(component);
+        }
+        occurrences.clear();
+        changed.clear();
+        components.clear();
+        levels.get(0).clear();
+        markDirty(0);
+    }
+
+    /**
+     * Stops listening to the cards in the tree, for when the tree is no longer used
+     */
+    public synchronized void dispose(){
+        clear();
+    }
+
+    private void track(SpeechComponent component){
+        if (component instanceof SpeechElementContainer){
+            SpeechElementContainer container = (SpeechElementContainer) component;
+            nestedDigests.put(container, container.getContentDigest());
+        }else if (component instanceof HashIdentifiedSpeechComponent){
+            ((HashIdentifiedSpeechComponent) component).addChangeListener(listener);
+        }
+    }
+
+    private void untrack(SpeechComponent component){
+        if (component instanceof SpeechElementContainer){
+            nestedDigests.remove(component);
+        }else if (component instanceof HashIdentifiedSpeechComponent){
+            ((HashIdentifiedSpeechComponent) component).removeChangeListener(listener);
+        }
+    }
+
+    private void release(SpeechComponent component){
+        if (occurrences.merge(component, -1, Integer::sum) == 0){
+            occurrences.remove(component);
+            changed.remove(component);
+            untrack(component);
+        }
+    }
+
+    private synchronized void componentChanged(ChangeEvent event){
+        // the state string is all of a card a leaf covers besides its hash
+        if (event.contains(ChangeType.TAGS) || event.contains(ChangeType.SELECTION)){
+            if (occurrences.containsKey(event.getSource())){
+                changed.add(event.getSource());
+            }
+        }
+    }
+
+    private void refreshNested(SpeechElementContainer container){
+        byte[] digest = container.getContentDigest();
+        if (!Arrays.equals(digest, nestedDigests.put(container, digest))){
+            changed.add(container);
+        }
+    }
+
+    private void markDirty(int index){
+        dirtyFrom = Math.min(dirtyFrom, index);
+    }
+
+    /**
+     * Recomputes the leaves of components that changed in place, then the inner nodes above the first changed leaf
+     * @return the root digest
+     */
+    public synchronized byte[] getRoot(){
+        refresh();
+        List<byte[]> top = levels.get(levels.size() - 1);
+        if (top.isEmpty()){
+            return digest(new byte[0]);
+        }
+        return top.get(0);
+    }
+
+    public synchronized int getLeafCount(){
+        return levels.get(0).size();
+    }
+
+    public synchronized int getLevelCount(){
+        refresh();
+        return levels.size();
+    }
+
+    /**
+     * @param level 0 for leaves
+     * @return the node covering leaves [index << level, (index + 1) << level), or null if there is none
+     */
+    public synchronized byte[] getNode(int level, int index){
+        refresh();
+        if (level >= levels.size() || index >= levels.get(level).size()){
+            return null;
+        }
+        return levels.get(level).get(index);
+    }
+
+    /**
+     * @return indices of leaves that differ between the two trees, including leaves only present in one of them
+     */
+    public List<Integer> differingLeaves(ContentDigestTree other){
+        List<Integer> differing = new ArrayList<>();
+        int top = Math.max(getLevelCount(), other.getLevelCount()) - 1;
+        collectDifferences(other, top, 0, differing);
+        return differing;
+    }
+
+    private void collectDifferences(ContentDigestTree other, int level, int index, List<Integer> differing){
+        byte[] node = getNode(level, index);
+        byte[] otherNode = other.getNode(level, index);
+        if (node == null && otherNode == null){
+            return;
+        }
+        if (node != null && otherNode != null && MessageDigest.isEqual(node, otherNode)){
+            return;
+        }
+        if (level == 0){
+            differing.add(index);
+            return;
+        }
+        collectDifferences(other, level - 1, index * 2, differing);
+        collectDifferences(other, level - 1, index * 2 + 1, differing);
+    }
+
+    private void refresh(){
+        // nested containers don't report changes deeper down, so compare their digests, which are cheap when clean
+        for (SpeechElementContainer container:new ArrayList<>(nestedDigests.keySet())){
+            refreshNested(container);
+        }
+        if (!changed.isEmpty()){
+            List<byte[]> leaves = levels.get(0);
+            for (int i = 0; i < components.size(); i++){
+                SpeechComponent component = components.get(i);
+                if (changed.contains(component)){
+                    leaves.set(i, leafDigest(component));
+                    markDirty(i);
+                }
+            }
+            changed.clear();
+        }
+        if (dirtyFrom == Integer.MAX_VALUE){
+            return;
+        }
+        int level = 0;
+        int start = dirtyFrom;
+        while (levels.get(level).size() > 1){
+            List<byte[]> below = levels.get(level);
+            if (levels.size() == level + 1){
+                levels.add(new ArrayList<>());
+            }
+            List<byte[]> above = levels.get(level + 1);
+            int size = (below.size() + 1) / 2;
+            start /= 2;
+            while (above.size() > size){
+                above.remove(above.size() - 1);
+            }
+            for (int i = start; i < size; i++){
+                byte[] node;
+                if (2 * i + 1 < below.size()){
+                    node = digest(below.get(2 * i), below.get(2 * i + 1));
+                }else{
+                    node = below.get(2 * i);
+                }
+                if (i < above.size()){
+                    above.set(i, node);
+                }else{
+                    above.add(node);
+                }
+            }
+            level++;
+        }
+        // drop levels left over from when the tree was taller
+        while (levels.size() > level + 1){
+            levels.remove(levels.size() - 1);
+        }
+        dirtyFrom = Integer.MAX_VALUE;
+    }
+
+    private byte[] leafDigest(SpeechComponent component){
+        MessageDigest digest = newDigest();
+        if (component instanceof SpeechElementContainer){
+            digest.update(CONTAINER_LEAF);
+            digest.update(nestedDigests.get(component));
+        }else if (component instanceof Card){
+            String state = component.getStateString();
+            digest.update(CARD_LEAF);
+            digest.update(((Card) component).getHash());
+            digest.update((state == null ? "" : state).getBytes(StandardCharsets.UTF_8));
+        }else{
+            digest.update(ANALYTIC_LEAF);
+            digest.update(component.getClass().getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(String.valueOf(component.getStorageString()).getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    static byte[] digest(byte[]... parts){
+        MessageDigest digest = newDigest();
+        for (byte[] part:parts){
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest(){
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
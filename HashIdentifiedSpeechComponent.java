@@ -15,17 +15,22 @@
 
 package org.debatetool.core;
 
+import org.debatetool.core.metrics.Metrics;
 import org.debatetool.io.iocontrollers.IOController;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class HashIdentifiedSpeechComponent extends SpeechComponent {
-    private boolean modified = false;
-    private byte[] hash;
+    private static final ChangeListener[] NO_LISTENERS = new ChangeListener[0];
+    private static final CopyOnWriteArrayList<ChangeListener> globalChangeListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean modified = false;
+    private volatile byte[] hash;
+    // copied on write; components without listeners share the empty array
+    private volatile ChangeListener[] changeListeners = NO_LISTENERS;
 
     protected HashIdentifiedSpeechComponent(byte[] hash) {
         this.hash = hash;
@@ -40,6 +45,94 @@ public abstract class HashIdentifiedSpeechComponent extends SpeechComponent {
         this.modified = modified;
     }
 
+    /**
+     * Clears the modified flag, for storage code taking responsibility for writing the component. Changes made after
+     * this call set the flag again.
+     */
+    public void markSaved() {
+        setModified(false);
+    }
+
+    /**
+     * Sets the modified flag again, for storage code whose write after {@link #markSaved()} failed
+     */
+    public void markUnsaved() {
+        setModified(true);
+    }
+
+    /**
+     * Registers a listener for changes to this component only
+     */
+    public synchronized void addChangeListener(ChangeListener listener) {
+        ChangeListener[] listeners = changeListeners;
+        ChangeListener[] added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        changeListeners = added;
+    }
+
+    public synchronized void removeChangeListener(ChangeListener listener) {
+        ChangeListener[] listeners = changeListeners;
+        for (int i = 0; i < listeners.length; i++){
+            if (listeners[i] == listener){
+                ChangeListener[] removed = new ChangeListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i, removed.length - i);
+                changeListeners = removed.length == 0 ? NO_LISTENERS : removed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers a listener for changes to every component, for indexes and caches covering the whole library
+     */
+    public static void addGlobalChangeListener(ChangeListener listener) {
+        globalChangeListeners.add(listener);
+    }
+
+    public static void removeGlobalChangeListener(ChangeListener listener) {
+        globalChangeListeners.remove(listener);
+    }
+
+    /**
+     * Notifies listeners of a change, or adds it to the {@link ChangeBatch} open on the current thread. Nothing is
+     * allocated when no one is listening.
+     */
+    protected void fireChange(ChangeType type) {
+        fireChanges(type.getMask());
+    }
+
+    /**
+     * Reports several kinds of change as one event
+     * @param changes the {@link ChangeType#getMask() masks} of what changed
+     */
+    protected void fireChanges(int changes) {
+        if (changeListeners.length == 0 && globalChangeListeners.isEmpty()){
+            return;
+        }
+        if (!ChangeBatch.defer(this, changes)){
+            dispatchChange(new ChangeEvent(this, changes));
+        }
+    }
+
+    void dispatchChange(ChangeEvent event) {
+        // a failing listener must not keep the change from the others, nor undo it
+        for (ChangeListener listener:changeListeners){
+            try {
+                listener.componentChanged(event);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        for (ChangeListener listener:globalChangeListeners){
+            try {
+                listener.componentChanged(event);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public abstract long getTimeStamp();
 
     /**
@@ -74,20 +167,35 @@ public abstract class HashIdentifiedSpeechComponent extends SpeechComponent {
     protected abstract byte[] generateHash();
 
     public final byte[] getHash() {
+        byte[] hash = this.hash;
         if (hash==null){
-            hash = generateHash();
+            // generated hashes may be random, so two threads must never both generate one
+            synchronized (this){
+                hash = this.hash;
+                if (hash==null){
+                    long start = Metrics.startTimer();
+                    hash = generateHash();
+                    Metrics.stopTimer(Metrics.GENERATE_HASH, start);
+                    this.hash = hash;
+                }
+            }
         }
         return hash;
     }
 
+    /**
+     * Hashes with the default {@link HashScheme}. Identities of existing records computed under another scheme must be
+     * recomputed with {@link #performHash(String, HashScheme)}.
+     */
     public static byte[] performHash(String hashedString){
-        MessageDigest dg = null;
-        try {
-            dg = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return dg.digest(hashedString.getBytes(StandardCharsets.UTF_8));
+        return performHash(hashedString, HashScheme.getDefault());
+    }
+
+    public static byte[] performHash(String hashedString, HashScheme scheme){
+        long start = Metrics.startTimer();
+        byte[] hash = scheme.hash(hashedString);
+        Metrics.stopTimer(Metrics.PERFORM_HASH, start);
+        return hash;
     }
 
     public static String getPositionalHashString(List<String> path, String name){
@@ -0,0 +1,53 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.util.Arrays;
+
+/**
+ * Wraps a component hash so that it can be used as a key in hash based collections
+ */
+public final class HashKey {
+    private final byte[] hash;
+    private final int hashCode;
+
+    public HashKey(byte[] hash) {
+        this.hash = hash;
+        this.hashCode = Arrays.hashCode(hash);
+    }
+
+    public HashKey(HashIdentifiedSpeechComponent component) {
+        this(component.getHash());
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (!(o instanceof HashKey)){
+            return false;
+        }
+        HashKey ok = (HashKey) o;
+        return hashCode == ok.hashCode && Arrays.equals(hash, ok.hash);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The function component identities are computed with. Identities are only compared, never relied on for security,
+ * so a fast non-cryptographic hash serves as well as MD5.
+ * <p>
+ * Every scheme produces 16 bytes, so hashes of any scheme fit the same records and keys. Hashes other than MD5 carry a
+ * marker in their first byte; as MD5 hashes can start with any byte the marker is only a hint, and
+ * {@link #identify(byte[], byte[])} confirms the scheme by recomputing. Existing MD5 identities therefore keep working
+ * after the default changes, and stores can hold both until migrated.
+ */
+public enum HashScheme {
+    MD5 {
+        private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        @Override
+        public byte[] hash(byte[] data) {
+            return digests.get().digest(data);
+        }
+
+        @Override
+        boolean isMarked(byte[] hash) {
+            return false;
+        }
+    },
+    /**
+     * MurmurHash3 x64 128 bit, with its first byte replaced by a marker
+     */
+    MURMUR3_128 {
+        private static final byte MARKER = (byte) 0xA3;
+
+        @Override
+        public byte[] hash(byte[] data) {
+            byte[] hash = murmur3(data, 0);
+            hash[0] = MARKER;
+            return hash;
+        }
+
+        @Override
+        boolean isMarked(byte[] hash) {
+            return hash.length == HASH_LENGTH && hash[0] == MARKER;
+        }
+    };
+
+    public static final int HASH_LENGTH = 16;
+
+    private static volatile HashScheme defaultScheme = MD5;
+
+    /**
+     * @return the scheme new identities are computed with
+     */
+    public static HashScheme getDefault() {
+        return defaultScheme;
+    }
+
+    public static void setDefault(HashScheme scheme) {
+        if (scheme == null){
+            throw new IllegalArgumentException("Hash scheme may not be null");
+        }
+        defaultScheme = scheme;
+    }
+
+    public abstract byte[] hash(byte[] data);
+
+    public byte[] hash(String data) {
+        return hash(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    abstract boolean isMarked(byte[] hash);
+
+    /**
+     * @return the scheme that hashes the data to the given hash, or null if none does
+     */
+    public static HashScheme identify(byte[] hash, byte[] data) {
+        HashScheme[] schemes = values();
+        // try the scheme the marker points to first, which is nearly always right
+        for (HashScheme scheme:schemes){
+            if (scheme.isMarked(hash) && MessageDigest.isEqual(hash, scheme.hash(data))){
+                return scheme;
+            }
+        }
+        for (HashScheme scheme:schemes){
+            if (!scheme.isMarked(hash) && MessageDigest.isEqual(hash, scheme.hash(data))){
+                return scheme;
+            }
+        }
+        return null;
+    }
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    // the tail switch falls through on purpose, as in the reference implementation
+    @SuppressWarnings("fallthrough")
+    static byte[] murmur3(byte[] data, long seed) {
+        long h1 = seed;
+        long h2 = seed;
+        int length = data.length;
+        int blocks = length / 16;
+        // little endian, as in the reference implementation
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < blocks; i++){
+            long k1 = buffer.getLong(i*16);
+            long k2 = buffer.getLong(i*16 + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1*5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2*5 + 0x38495ab5;
+        }
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks*16;
+        switch (length & 15){
+            case 15: k2 ^= (long) (data[tail+14] & 0xff) << 48;
+            case 14: k2 ^= (long) (data[tail+13] & 0xff) << 40;
+            case 13: k2 ^= (long) (data[tail+12] & 0xff) << 32;
+            case 12: k2 ^= (long) (data[tail+11] & 0xff) << 24;
+            case 11: k2 ^= (long) (data[tail+10] & 0xff) << 16;
+            case 10: k2 ^= (long) (data[tail+9] & 0xff) << 8;
+            case 9: k2 ^= (data[tail+8] & 0xff);
+                h2 ^= mixK2(k2);
+            case 8: k1 ^= (long) (data[tail+7] & 0xff) << 56;
+            case 7: k1 ^= (long) (data[tail+6] & 0xff) << 48;
+            case 6: k1 ^= (long) (data[tail+5] & 0xff) << 40;
+            case 5: k1 ^= (long) (data[tail+4] & 0xff) << 32;
+            case 4: k1 ^= (long) (data[tail+3] & 0xff) << 24;
+            case 3: k1 ^= (long) (data[tail+2] & 0xff) << 16;
+            case 2: k1 ^= (long) (data[tail+1] & 0xff) << 8;
+            case 1: k1 ^= (data[tail] & 0xff);
+                h1 ^= mixK1(k1);
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        byte[] hash = new byte[HASH_LENGTH];
+        putLong(hash, 0, h1);
+        putLong(hash, 8, h2);
+        return hash;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++){
+            bytes[offset+i] = (byte) (value >>> (8*i));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.util.ArrayList;
+
+/**
+ * The edit history of one overlay, with undo and redo. Versions are {@link PersistentOverlay}s sharing structure,
+ * so each kept version costs memory in proportion to its edit rather than to the size of the overlay.
+ */
+public class OverlayHistory {
+    private final ArrayList<PersistentOverlay> versions = new ArrayList<>();
+    private int current = 0;
+
+    public OverlayHistory(PersistentOverlay initial) {
+        versions.add(initial);
+    }
+
+    public OverlayHistory(CardOverlay initial) {
+        this(PersistentOverlay.of(initial));
+    }
+
+    public OverlayHistory() {
+        this(PersistentOverlay.empty());
+    }
+
+    /**
+     * Applies the edit to the current version, discarding any versions that could have been redone
+     * @return the new current version
+     */
+    public synchronized PersistentOverlay apply(int start, int end, byte type){
+        PersistentOverlay next = versions.get(current).apply(start, end, type);
+        versions.subList(current + 1, versions.size()).clear();
+        versions.add(next);
+        current++;
+        return next;
+    }
+
+    public synchronized PersistentOverlay getCurrent(){
+        return versions.get(current);
+    }
+
+    /**
+     * @param version the number of edits after the initial version
+     */
+    public synchronized PersistentOverlay getVersion(int version){
+        return versions.get(version);
+    }
+
+    public synchronized int getCurrentVersion(){
+        return current;
+    }
+
+    public synchronized int getVersionCount(){
+        return versions.size();
+    }
+
+    public synchronized boolean canUndo(){
+        return current > 0;
+    }
+
+    public synchronized boolean canRedo(){
+        return current < versions.size() - 1;
+    }
+
+    public synchronized PersistentOverlay undo(){
+        if (!canUndo()){
+            throw new IllegalStateException("Nothing to undo");
+        }
+        current--;
+        return versions.get(current);
+    }
+
+    public synchronized PersistentOverlay redo(){
+        if (!canRedo()){
+            throw new IllegalStateException("Nothing to redo");
+        }
+        current++;
+        return versions.get(current);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TShortArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers position queries against an overlay and the text it covers without walking the runs from the start.
+ * <p>
+ * The start of every run is precomputed, so {@link #typeAt(int)} is a binary search, and character and word counts
+ * are computed once per type mask and then cached. Indexes are immutable and built for one overlay and text; cards
+ * keep one for their combined overlay, see {@link Card#getOverlayIndex()}.
+ */
+public final class OverlayIndex {
+    private final CardOverlay overlay;
+    private final String text;
+    // starts[i] is the offset of run i, and starts[runCount] the end of the last run
+    private final int[] starts;
+    private final byte[] types;
+    private final int runCount;
+
+    // indexed by type mask, -1 until computed
+    private final int[] characterCounts = new int[1<<Byte.SIZE];
+    private final int[] wordCounts = new int[1<<Byte.SIZE];
+
+    public OverlayIndex(CardOverlay overlay, String text) {
+        this.overlay = overlay;
+        this.text = text;
+        TShortArrayList positions = overlay.getOverlayPositions();
+        TByteArrayList overlayTypes = overlay.getOverlayTypes();
+        int size = positions.size();
+        this.starts = new int[size+1];
+        this.types = new byte[size];
+        int position = 0;
+        int run = 0;
+        for (int i = 0; i < size && position < text.length(); i++){
+            int length = Short.toUnsignedInt(positions.get(i));
+            if (length == 0){
+                continue;
+            }
+            starts[run] = position;
+            types[run] = overlayTypes.get(i);
+            // runs past the end of the text are cut off
+            position = Math.min(position + length, text.length());
+            run++;
+        }
+        starts[run] = position;
+        this.runCount = run;
+        Arrays.fill(characterCounts, -1);
+        Arrays.fill(wordCounts, -1);
+    }
+
+    public CardOverlay getOverlay() {
+        return overlay;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * @return the type at the given character offset, or 0 where the overlay does not reach
+     */
+    public byte typeAt(int position){
+        int run = runAt(position);
+        return run < 0 ? 0x0 : types[run];
+    }
+
+    /**
+     * @return the index of the run containing the position, or -1
+     */
+    private int runAt(int position){
+        if (position < 0 || position >= starts[runCount]){
+            return -1;
+        }
+        int low = 0;
+        int high = runCount - 1;
+        while (low < high){
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= position){
+                low = middle;
+            }else{
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the start and end of every maximal range where the type shares a bit with the mask, in order
+     */
+    public List<int[]> getRanges(byte mask){
+        List<int[]> ranges = new ArrayList<>();
+        int rangeStart = -1;
+        for (int run = 0; run < runCount; run++){
+            boolean matches = (types[run] & mask) != 0;
+            if (matches && rangeStart < 0){
+                rangeStart = starts[run];
+            }else if (!matches && rangeStart >= 0){
+                ranges.add(new int[]{rangeStart, starts[run]});
+                rangeStart = -1;
+            }
+        }
+        if (rangeStart >= 0){
+            ranges.add(new int[]{rangeStart, starts[runCount]});
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the number of characters whose type shares a bit with the mask
+     */
+    public int countCharacters(byte mask){
+        int index = mask & 0xFF;
+        int count = characterCounts[index];
+        if (count < 0){
+            count = 0;
+            for (int run = 0; run < runCount; run++){
+                if ((types[run] & mask) != 0){
+                    count += starts[run+1] - starts[run];
+                }
+            }
+            // racing threads compute the same value, so there is no need to lock
+            characterCounts[index] = count;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the words, or pieces of words, covered by the mask. A word only partly covered counts once, as it would
+     * be read aloud, and so does a word covered by two neighbouring runs or by two ranges with a gap inside it.
+     */
+    public int countWords(byte mask){
+        int index = mask & 0xFF;
+        int count = wordCounts[index];
+        if (count < 0){
+            count = 0;
+            int previousEnd = -1;
+            for (int[] range:getRanges(mask)){
+                count += countWords(range[0], range[1]);
+                if (previousEnd > 0 && withinWord(previousEnd - 1, range[0])){
+                    // the range continues the word the previous range ended in
+                    count--;
+                }
+                previousEnd = range[1];
+            }
+            wordCounts[index] = count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of words in the whole text
+     */
+    public int countWords(){
+        return countWords(0, text.length());
+    }
+
+    private int countWords(int start, int end){
+        return countWords(text, start, end);
+    }
+
+    // whether the characters from first to last, inclusive, are all part of one word
+    private boolean withinWord(int first, int last){
+        for (int i = first; i <= last; i++){
+            if (Character.isWhitespace(text.charAt(i))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of whitespace separated words between start and end
+     */
+    public static int countWords(String text, int start, int end){
+        int count = 0;
+        boolean inWord = false;
+        for (int i = start; i < end; i++){
+            boolean whitespace = Character.isWhitespace(text.charAt(i));
+            if (!whitespace && !inWord){
+                count++;
+            }
+            inWord = !whitespace;
+        }
+        return count;
+    }
+}
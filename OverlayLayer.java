@@ -0,0 +1,107 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named kind of overlay, such as underlining or one debater's emphasis, which owns one bit of the overlay type.
+ * <p>
+ * Overlays are stored under their layer's name, and when rendered each run is wrapped in the tags of every layer
+ * whose bit is set in its type. There are only {@link #MAX_LAYERS} bits, so layers are registered once, globally,
+ * with {@link #register(String, String, String)}.
+ */
+public final class OverlayLayer {
+    public static final int MAX_LAYERS = Byte.SIZE;
+
+    private static final ConcurrentHashMap<String, OverlayLayer> byName = new ConcurrentHashMap<>();
+    // indexed by bit, replaced rather than modified so that renderers can read it without locking
+    private static volatile OverlayLayer[] byBit = new OverlayLayer[MAX_LAYERS];
+
+    public static final OverlayLayer HIGHLIGHT = register("Highlight", "<h>", "</h>");
+    public static final OverlayLayer UNDERLINE = register("Underline", "<u>", "</u>");
+
+    private final String name;
+    private final int bitIndex;
+    private final String openTag;
+    private final String closeTag;
+
+    private OverlayLayer(String name, int bitIndex, String openTag, String closeTag) {
+        this.name = name;
+        this.bitIndex = bitIndex;
+        this.openTag = openTag;
+        this.closeTag = closeTag;
+    }
+
+    /**
+     * Registers a layer under the next free bit, or returns the layer already registered under the name
+     * @param name the key its overlays are stored under, which may not contain ':', ',' or '='
+     */
+    public static synchronized OverlayLayer register(String name, String openTag, String closeTag){
+        OverlayLayer existing = byName.get(name);
+        if (existing != null){
+            return existing;
+        }
+        if (name.isEmpty() || name.indexOf(':') >= 0 || name.indexOf(',') >= 0 || name.indexOf('=') >= 0){
+            throw new IllegalArgumentException("Invalid layer name: " + name);
+        }
+        OverlayLayer[] layers = byBit.clone();
+        for (int i = 0; i < layers.length; i++){
+            if (layers[i] == null){
+                OverlayLayer layer = new OverlayLayer(name, i, openTag, closeTag);
+                layers[i] = layer;
+                byName.put(name, layer);
+                byBit = layers;
+                return layer;
+            }
+        }
+        throw new IllegalStateException("All " + MAX_LAYERS + " overlay layers are in use");
+    }
+
+    /**
+     * @return the layer registered under the name, or null
+     */
+    public static OverlayLayer forName(String name){
+        return byName.get(name);
+    }
+
+    /**
+     * @return the registered layers indexed by bit, with null for unused bits. The array must not be modified.
+     */
+    static OverlayLayer[] getLayersByBit(){
+        return byBit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte getBit() {
+        return (byte) (1 << bitIndex);
+    }
+
+    public String getOpenTag() {
+        return openTag;
+    }
+
+    public String getCloseTag() {
+        return closeTag;
+    }
+
+    public String toString(){
+        return getName();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a card together with the overlays selected on it, which is everything its rendered body depends on
+ */
+public final class OverlaySelectionKey {
+    private final byte[] hash;
+    private final int underlineIndex;
+    private final int highlightIndex;
+    private final String layerSelections;
+    private final int hashCode;
+
+    /**
+     * @param layerSelections the other layers shown, as from {@link Card#getLayerSelectionString()}
+     */
+    public OverlaySelectionKey(byte[] hash, int underlineIndex, int highlightIndex, String layerSelections) {
+        this.hash = hash;
+        this.underlineIndex = underlineIndex;
+        this.highlightIndex = highlightIndex;
+        this.layerSelections = layerSelections;
+        this.hashCode = ((Arrays.hashCode(hash) * 31 + underlineIndex) * 31 + highlightIndex) * 31
+                + layerSelections.hashCode();
+    }
+
+    public OverlaySelectionKey(byte[] hash, int underlineIndex, int highlightIndex) {
+        this(hash, underlineIndex, highlightIndex, "");
+    }
+
+    public OverlaySelectionKey(Card card) {
+        this(card.getHash(), card.getPreferredUnderlineIndex(), card.getPreferredHighlightIndex(),
+                card.getLayerSelectionString());
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public int getUnderlineIndex() {
+        return underlineIndex;
+    }
+
+    public int getHighlightIndex() {
+        return highlightIndex;
+    }
+
+    public String getLayerSelections() {
+        return layerSelections;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (!(o instanceof OverlaySelectionKey)){
+            return false;
+        }
+        OverlaySelectionKey ok = (OverlaySelectionKey) o;
+        return hashCode == ok.hashCode && underlineIndex == ok.underlineIndex && highlightIndex == ok.highlightIndex
+                && layerSelections.equals(ok.layerSelections) && Arrays.equals(hash, ok.hash);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TShortArrayList;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An immutable overlay, laid out like {@link CardOverlay} as a sequence of runs each with a length and a type.
+ * <p>
+ * The runs are kept in a treap ordered by position. {@link #apply(int, int, byte)} returns a new version that shares
+ * every node off the edited path with this one, and types are ORed into whole subtrees lazily, so an edit costs
+ * O(log n) time and memory however many runs it covers. Old versions stay valid, which makes keeping every version
+ * for undo cheap; see {@link OverlayHistory}.
+ */
+public final class PersistentOverlay {
+    private static final PersistentOverlay EMPTY = new PersistentOverlay(null);
+
+    private final Node root;
+
+    private PersistentOverlay(Node root) {
+        this.root = root;
+    }
+
+    public static PersistentOverlay empty(){
+        return EMPTY;
+    }
+
+    public static PersistentOverlay of(CardOverlay overlay){
+        TShortArrayList positions = overlay.getOverlayPositions();
+        TByteArrayList types = overlay.getOverlayTypes();
+        Node root = null;
+        for (int i = 0; i < positions.size(); i++){
+            int length = Short.toUnsignedInt(positions.get(i));
+            if (length > 0){
+                root = merge(root, new Node(length, types.get(i)));
+            }
+        }
+        return new PersistentOverlay(root);
+    }
+
+    /**
+     * @return a version with the type ORed into every position from start to end, extended with untyped runs if it
+     * was shorter than end
+     */
+    public PersistentOverlay apply(int start, int end, byte type){
+        if (start < 0 || end < start){
+            throw new IllegalArgumentException("Invalid range " + start + "-" + end);
+        }
+        if (start == end){
+            return this;
+        }
+        Node extended = root;
+        int length = getLength();
+        if (length < end){
+            extended = merge(extended, new Node(end - length, (byte) 0x0));
+        }
+        Node[] beforeStart = split(extended, start);
+        Node[] beforeEnd = split(beforeStart[1], end - start);
+        Node marked = withMask(beforeEnd[0], type);
+        return new PersistentOverlay(merge(merge(beforeStart[0], marked), beforeEnd[1]));
+    }
+
+    /**
+     * @return the type at the given position, or 0 past the end
+     */
+    public byte typeAt(int position){
+        Node node = root;
+        byte mask = 0;
+        while (node != null){
+            mask |= node.mask;
+            int leftLength = total(node.left);
+            if (position < leftLength){
+                node = node.left;
+            }else if (position < leftLength + node.length){
+                return (byte) (node.type | mask);
+            }else{
+                position -= leftLength + node.length;
+                node = node.right;
+            }
+        }
+        return 0x0;
+    }
+
+    public int getLength(){
+        return total(root);
+    }
+
+    public int getRunCount(){
+        return root == null ? 0 : root.count;
+    }
+
+    /**
+     * @return a mutable copy in the {@link CardOverlay} format, with equal neighbouring runs merged
+     */
+    public CardOverlay toCardOverlay(String name){
+        CardOverlay overlay = new CardOverlay(name);
+        RunWriter writer = new RunWriter(overlay);
+        writeRuns(root, (byte) 0x0, writer);
+        writer.finish();
+        return overlay;
+    }
+
+    private static void writeRuns(Node node, byte mask, RunWriter writer){
+        if (node == null){
+            return;
+        }
+        mask |= node.mask;
+        writeRuns(node.left, mask, writer);
+        writer.add(node.length, (byte) (node.type | mask));
+        writeRuns(node.right, mask, writer);
+    }
+
+    private static Node withMask(Node node, byte mask){
+        if (node == null || (node.mask | mask) == node.mask){
+            return node;
+        }
+        return new Node(node.length, node.type, node.priority, node.left, node.right, (byte) (node.mask | mask));
+    }
+
+    // a copy of the node with its mask moved onto its own type and its children
+    private static Node pushDown(Node node){
+        if (node.mask == 0){
+            return node;
+        }
+        return new Node(node.length, (byte) (node.type | node.mask), node.priority, withMask(node.left, node.mask),
+                withMask(node.right, node.mask), (byte) 0x0);
+    }
+
+    /**
+     * @return the runs before the position and the runs from it on, splitting the run the position falls in
+     */
+    private static Node[] split(Node node, int position){
+        if (node == null){
+            return new Node[]{null, null};
+        }
+        if (position <= 0){
+            return new Node[]{null, node};
+        }
+        if (position >= node.total){
+            return new Node[]{node, null};
+        }
+        node = pushDown(node);
+        int leftLength = total(node.left);
+        if (position <= leftLength){
+            Node[] parts = split(node.left, position);
+            return new Node[]{parts[0], node.withChildren(parts[1], node.right)};
+        }
+        if (position >= leftLength + node.length){
+            Node[] parts = split(node.right, position - leftLength - node.length);
+            return new Node[]{node.withChildren(node.left, parts[0]), parts[1]};
+        }
+        int offset = position - leftLength;
+        Node before = new Node(offset, node.type, node.priority, node.left, null, (byte) 0x0);
+        Node after = new Node(node.length - offset, node.type);
+        return new Node[]{before, merge(after, node.right)};
+    }
+
+    private static Node merge(Node left, Node right){
+        if (left == null){
+            return right;
+        }
+        if (right == null){
+            return left;
+        }
+        if (left.priority > right.priority){
+            left = pushDown(left);
+            return left.withChildren(left.left, merge(left.right, right));
+        }
+        right = pushDown(right);
+        return right.withChildren(merge(left, right.left), right.right);
+    }
+
+    private static int total(Node node){
+        return node == null ? 0 : node.total;
+    }
+
+    private static final class Node {
+        private final int length;
+        private final byte type;
+        private final int priority;
+        private final Node left;
+        private final Node right;
+        // ORed into the type of every run in this subtree
+        private final byte mask;
+        private final int total;
+        private final int count;
+
+        private Node(int length, byte type) {
+            this(length, type, ThreadLocalRandom.current().nextInt(), null, null, (byte) 0x0);
+        }
+
+        private Node(int length, byte type, int priority, Node left, Node right, byte mask) {
+            this.length = length;
+            this.type = type;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.mask = mask;
+            this.total = total(left) + length + total(right);
+            this.count = (left == null ? 0 : left.count) + 1 + (right == null ? 0 : right.count);
+        }
+
+        private Node withChildren(Node left, Node right){
+            if (left == this.left && right == this.right){
+                return this;
+            }
+            return new Node(length, type, priority, left, right, mask);
+        }
+    }
+
+    private static final class RunWriter {
+        private final CardOverlay overlay;
+        private int length = 0;
+        private byte type = 0x0;
+
+        private RunWriter(CardOverlay overlay) {
+            this.overlay = overlay;
+        }
+
+        private void add(int length, byte type){
+            if (this.length > 0 && type != this.type){
+                finish();
+            }
+            this.type = type;
+            this.length += length;
+        }
+
+        private void finish(){
+            overlay.addRun(length, type);
+            length = 0;
+        }
+    }
+}
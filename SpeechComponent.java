@@ -15,14 +15,51 @@
 
 package org.debatetool.core;
 
+import org.debatetool.core.metrics.Metrics;
+import org.debatetool.core.storage.StorageContext;
 import org.debatetool.io.IOUtil;
-import org.debatetool.io.iocontrollers.IOController;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public abstract class SpeechComponent implements Serializable {
     public abstract void load() throws IOException;
+
+    /**
+     * Non-blocking counterpart to {@link #load()}. All storage access runs on the given executor, so passing a
+     * virtual thread per task executor lets many loads wait on I/O at once.
+     * @param executor executor to run storage access on
+     * @return a future completing once the component is loaded, or exceptionally with the IOException that stopped it
+     */
+    public CompletableFuture<Void> loadAsync(Executor executor){
+        return runIOAsync(this::load, executor);
+    }
+
+    /**
+     * Loads the component on the {@link StorageContext#getIOExecutor() storage executor}, see
+     * {@link #loadAsync(Executor)}
+     */
+    public CompletableFuture<Void> loadAsync(){
+        return loadAsync(StorageContext.getIOExecutor());
+    }
+
+    protected static CompletableFuture<Void> runIOAsync(IOAction action, Executor executor){
+        return CompletableFuture.runAsync(() -> {
+            try {
+                action.run();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @FunctionalInterface
+    protected interface IOAction {
+        void run() throws IOException;
+    }
     public abstract boolean isLoaded();
     public abstract String getDisplayContent();
     public abstract String getStorageString();
@@ -41,7 +78,10 @@ public abstract class SpeechComponent implements Serializable {
     public static SpeechComponent importFromData(String type, String storageString) throws IOException {
         if (type.equals(Block.class.getName())){
             // empty card with hash used to dynamically load it later
-            return IOController.getIoController().getComponentIOManager().retrieveSpeechComponent(IOUtil.decodeString(storageString));
+            long start = Metrics.startTimer();
+            SpeechComponent block = StorageContext.getStorageContext().retrieveSpeechComponent(IOUtil.decodeString(storageString));
+            Metrics.stopTimer(Metrics.STORAGE_RETRIEVE, start);
+            return block;
         }else if (type.equals(Card.class.getName())){
             // empty card with hash used to dynamically load it later
             return new Card(IOUtil.decodeString(storageString));
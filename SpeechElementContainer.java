@@ -15,37 +15,76 @@
 
 package org.debatetool.core;
 
-import org.debatetool.io.iocontrollers.IOController;
-
+import org.debatetool.core.crdt.ContentsOperation;
+import org.debatetool.core.crdt.ContentsSequence;
+import org.debatetool.core.html.HtmlEncoder;
+import org.debatetool.core.metrics.Metrics;
+import org.debatetool.core.metrics.Span;
+import org.debatetool.core.storage.StorageContext;
+import org.debatetool.io.IOUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * A named, ordered list of speech components.
+ * <p>
+ * The contents are read-mostly: rendering and iteration work on an immutable snapshot of the list and never block,
+ * while structural changes are serialized on the container and copy the list.
+ */
 public abstract class SpeechElementContainer extends HashIdentifiedSpeechComponent {
-    protected String name;
-    private List<SpeechComponent> contents;
-    private boolean loaded = false;
+    /**
+     * Shown in outlines in place of the tags of cards that aren't loaded yet
+     */
+    public static final String OUTLINE_PLACEHOLDER = "&hellip;";
+    // label of the mergeable contents history in the labelled lists
+    private static final String CONTENTS_HISTORY = "CONTENTS_HISTORY";
+
+    protected volatile String name;
+    private volatile List<SpeechComponent> contents;
+    private volatile boolean loaded = false;
+    // only built once a content digest has been asked for
+    private ContentDigestTree digestTree;
+    // only kept once mergeable contents are enabled, mirroring contents
+    private ContentsSequence<SpeechComponent> sequence;
+    // history read from storage, kept until mergeable contents are enabled or the contents are edited without them
+    private List<ContentsOperation> savedHistory;
 
     public String getName() {
         return name;
     }
 
     public void setName(String name) {
-        this.name = name;
-        setModified(true);
+        // serialized with the other changes, so the name and contents are digested consistently
+        synchronized (this){
+            this.name = name;
+            setModified(true);
+        }
+        fireChange(ChangeType.NAME);
     }
     public SpeechElementContainer(byte[] hash, String name){
         super(hash);
         this.name = name;
-        contents = new ArrayList<>();
+        contents = new CopyOnWriteArrayList<>();
     }
 
     public SpeechElementContainer(String name){
         this.name = name;
-        contents = new ArrayList<>();
+        contents = new CopyOnWriteArrayList<>();
     }
 
     public SpeechElementContainer(){
@@ -53,31 +92,50 @@ public abstract class SpeechElementContainer extends HashIdentifiedSpeechCompone
     }
 
     public String getDisplayContent(){
-        StringBuilder contentsBuilder = new StringBuilder();
-        for (int i = 0; i < contents.size(); i++) {
-            contentsBuilder.append("<p><n>"+getEnumeration(i) + ") </n>");
-            SpeechComponent component = contents.get(i);
-            if (component instanceof Card){
-                contentsBuilder.append("<n>"+((Card) component).getActiveTag() + "</n><br>");
+        return getDisplayContent(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Renders only the components in the given range, for showing part of a long speech without rendering the rest
+     * @param from index of the first component to render, clamped to the size of the container
+     * @param to index past the last component to render, clamped to the size of the container
+     */
+    public String getDisplayContent(int from, int to){
+        try (Span span = Metrics.startSpan(Metrics.CONTAINER_DISPLAY)) {
+            StringBuilder contentsBuilder = new StringBuilder();
+            List<SpeechComponent> contents = this.contents;
+            ListIterator<SpeechComponent> iterator = contents.listIterator(checkFrom(from, to, contents.size()));
+            for (int i = from; i < to && iterator.hasNext(); i++) {
+                SpeechComponent component = iterator.next();
+                contentsBuilder.append("<p><n>"+getEnumeration(i) + ") </n>");
+                if (component instanceof Card){
+                    contentsBuilder.append("<n>"+((Card) component).getActiveTag() + "</n><br>");
+                }
+                contentsBuilder.append(component.getDisplayContent() + "</p>");
             }
-            contentsBuilder.append(component.getDisplayContent() + "</p>");
+            return contentsBuilder.toString();
         }
-        return contentsBuilder.toString();
     }
 
-    public String getExportDisplayContent(boolean includeAnalytics){
+    /**
+     * Renders the structure of the container without any card bodies: the enumeration and tag of each card, the text
+     * of each analytic and the outline of each nested container. Nothing is loaded and no overlays are fetched, so
+     * the outline can be shown straight away: cards not loaded yet show {@link #OUTLINE_PLACEHOLDER} in place of
+     * their tag. Render again once {@link #loadAsync(Executor)} completes to fill the tags in.
+     */
+    public String getOutlineDisplayContent() {
         StringBuilder contentsBuilder = new StringBuilder();
-        for (int i = 0; i < contents.size(); i++) {
-            SpeechComponent component = contents.get(i);
-            if (!includeAnalytics && component instanceof Analytic){
-                continue;
-            }
-            contentsBuilder.append("<p><n>"+getEnumeration(i) + ") </n>");
+        int i = 0;
+        for (SpeechComponent component:contents) {
+            contentsBuilder.append("<p><n>"+getEnumeration(i++) + ") </n>");
             if (component instanceof Card){
-                contentsBuilder.append("<n>"+((Card) component).getActiveTag() + "</n><br>");
-            }
-            if (component instanceof SpeechElementContainer){
-                contentsBuilder.append(((SpeechElementContainer) component).getExportDisplayContent(includeAnalytics));
+                String tag = component.isLoaded() ? HtmlEncoder.encode(((Card) component).getActiveTag())
+                        : OUTLINE_PLACEHOLDER;
+                contentsBuilder.append("<n>"+tag + "</n>");
+            }else if (component instanceof SpeechElementContainer){
+                SpeechElementContainer container = (SpeechElementContainer) component;
+                contentsBuilder.append("<n>"+HtmlEncoder.encode(container.getName()) + "</n><br>");
+                contentsBuilder.append(container.getOutlineDisplayContent());
             }else{
                 contentsBuilder.append(component.getDisplayContent());
             }
@@ -86,6 +144,55 @@ public abstract class SpeechElementContainer extends HashIdentifiedSpeechCompone
         return contentsBuilder.toString();
     }
 
+    /**
+     * Loads the components in the given range concurrently, for fetching what is about to scroll into view
+     * @param from index of the first component to load, clamped to the size of the container
+     * @param to index past the last component to load, clamped to the size of the container
+     */
+    public CompletableFuture<Void> loadRangeAsync(int from, int to, Executor executor){
+        List<CompletableFuture<Void>> loading = new ArrayList<>();
+        List<SpeechComponent> contents = this.contents;
+        ListIterator<SpeechComponent> iterator = contents.listIterator(checkFrom(from, to, contents.size()));
+        for (int i = from; i < to && iterator.hasNext(); i++) {
+            SpeechComponent component = iterator.next();
+            if (!component.isLoaded()){
+                loading.add(component.loadAsync(executor));
+            }
+        }
+        return CompletableFuture.allOf(loading.toArray(new CompletableFuture[0]));
+    }
+
+    private static int checkFrom(int from, int to, int size){
+        if (from < 0 || to < from){
+            throw new IllegalArgumentException("Invalid range: " + from + " to " + to);
+        }
+        return Math.min(from, size);
+    }
+
+    public String getExportDisplayContent(boolean includeAnalytics){
+        try (Span span = Metrics.startSpan(Metrics.CONTAINER_EXPORT)) {
+            StringBuilder contentsBuilder = new StringBuilder();
+            int i = -1;
+            for (SpeechComponent component:contents) {
+                i++;
+                if (!includeAnalytics && component instanceof Analytic){
+                    continue;
+                }
+                contentsBuilder.append("<p><n>"+getEnumeration(i) + ") </n>");
+                if (component instanceof Card){
+                    contentsBuilder.append("<n>"+((Card) component).getActiveTag() + "</n><br>");
+                }
+                if (component instanceof SpeechElementContainer){
+                    contentsBuilder.append(((SpeechElementContainer) component).getExportDisplayContent(includeAnalytics));
+                }else{
+                    contentsBuilder.append(component.getDisplayContent());
+                }
+                contentsBuilder.append("</p>");
+            }
+            return contentsBuilder.toString();
+        }
+    }
+
     @Override
     public String getStateString() {
         return null;
@@ -93,39 +200,272 @@ public abstract class SpeechElementContainer extends HashIdentifiedSpeechCompone
 
     public abstract boolean canBeAdded(SpeechComponent component);
 
+    // changes are made under the container's lock and fired after releasing it, so listeners never run holding it
     public void addComponent(SpeechComponent component){
         if (!canBeAdded(component)){
             throw new IllegalArgumentException("Attempted to add component of illegal type: " + component.getClass());
         }
-        contents.add(component);
-        setModified(true);
+        synchronized (this){
+            contents.add(component);
+            if (digestTree != null){
+                digestTree.insert(contents.size()-1, component);
+            }
+            if (sequence != null){
+                recordInsert(contents.size()-1, component);
+            }
+            savedHistory = null;
+            setModified(true);
+        }
+        fireChange(ChangeType.CHILDREN);
     }
 
     public void removeComponent(SpeechComponent component){
-        contents.remove(component);
-        setModified(true);
+        synchronized (this){
+            int index = contents.indexOf(component);
+            if (index>=0){
+                contents.remove(index);
+                if (digestTree != null){
+                    digestTree.remove(index);
+                }
+                if (sequence != null){
+                    sequence.delete(index);
+                }
+                savedHistory = null;
+            }
+            setModified(true);
+        }
+        fireChange(ChangeType.CHILDREN);
     }
 
     public void removeComponent(int index){
-        contents.remove(index);
-        setModified(true);
+        synchronized (this){
+            contents.remove(index);
+            if (digestTree != null){
+                digestTree.remove(index);
+            }
+            if (sequence != null){
+                sequence.delete(index);
+            }
+            savedHistory = null;
+            setModified(true);
+        }
+        fireChange(ChangeType.CHILDREN);
     }
 
     public void insertComponentAbove(SpeechComponent component1, SpeechComponent toInsert){
-        int index = contents.indexOf(component1);
-        if (index>=0){
+        synchronized (this){
+            int index = contents.indexOf(component1);
+            if (index<0){
+                return;
+            }
             contents.add(index, toInsert);
+            if (digestTree != null){
+                digestTree.insert(index, toInsert);
+            }
+            if (sequence != null){
+                recordInsert(index, toInsert);
+            }
+            savedHistory = null;
         }
+        fireChange(ChangeType.CHILDREN);
     }
 
 
+    /**
+     * Replaces the component at the index, for instance with a copy of a card stored under another hash
+     */
+    public void setComponent(int index, SpeechComponent component){
+        if (!canBeAdded(component)){
+            throw new IllegalArgumentException("Attempted to add component of illegal type: " + component.getClass());
+        }
+        synchronized (this){
+            contents.set(index, component);
+            if (digestTree != null){
+                digestTree.remove(index);
+                digestTree.insert(index, component);
+            }
+            if (sequence != null){
+                sequence.delete(index);
+                recordInsert(index, component);
+            }
+            savedHistory = null;
+            setModified(true);
+        }
+        fireChange(ChangeType.CHILDREN);
+    }
+
     public SpeechComponent getComponent(int i){
         return contents.get(i);
     }
 
     public void clearContents(){
-        contents.clear();
+        synchronized (this){
+            if (sequence != null){
+                sequence.deleteAll();
+            }
+            savedHistory = null;
+            contents.clear();
+            if (digestTree != null){
+                digestTree.clear();
+            }
+            setModified(true);
+        }
+        fireChange(ChangeType.CHILDREN);
+    }
+
+    /**
+     * Starts tracking the contents as a sequence CRDT, so that copies of this container edited independently, for
+     * instance by partners prepping the same speech offline, can exchange their edits and merge them without
+     * conflicts. The history is saved with the container, so copies loaded from the same save share it and merge
+     * against it; otherwise the current contents become inserts made by this replica. Use
+     * {@link #enableMergeableContents(int, List)} instead to join a sequence another replica started.
+     * <p>
+     * The whole history, deleted elements included, is saved in every record of the container, so records grow with
+     * every edit made while the contents are mergeable; nothing compacts them. A copy loaded from a save knows nothing
+     * of edits made after it, so it needs a replica id not used since that save, or it may reuse the ids of edits
+     * already sent to other replicas. {@link #reload(int)} takes a new id for the same reason.
+     * @param replicaId an id unique to this copy of the container, greater than 0
+     * @throws IllegalStateException if the saved history doesn't match the contents, for instance because some of them
+     * failed to load. The contents are then left unmergeable rather than forked from the other replicas, and can still
+     * join another replica's sequence with {@link #enableMergeableContents(int, List)}.
+     */
+    public synchronized void enableMergeableContents(int replicaId){
+        if (savedHistory != null){
+            try {
+                sequence = ContentsSequence.restore(replicaId, savedHistory, contents);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalStateException("Saved contents history does not match the contents", e);
+            }
+            savedHistory = null;
+            return;
+        }
+        sequence = new ContentsSequence<>(replicaId);
+        for (int i = 0; i < contents.size(); i++){
+            recordInsert(i, contents.get(i));
+        }
+    }
+
+    /**
+     * Replaces the contents with those built from another replica's history, as returned by
+     * {@link #getContentsOperationsSince(Map)} with an empty version vector
+     */
+    public void enableMergeableContents(int replicaId, List<ContentsOperation> history){
+        synchronized (this){
+            sequence = new ContentsSequence<>(replicaId);
+            savedHistory = null;
+            boolean hadContents = !contents.isEmpty();
+            contents = new CopyOnWriteArrayList<>();
+            if (digestTree != null){
+                digestTree.clear();
+            }
+            if (!applyOperations(history) && !hadContents){
+                return;
+            }
+            setModified(true);
+        }
+        fireChange(ChangeType.CHILDREN);
+    }
+
+    public synchronized boolean isMergeableContentsEnabled(){
+        return sequence != null;
+    }
+
+    /**
+     * Merges edits made to another copy of this container. Components are created from the operations as they would
+     * be when importing the container, so cards and blocks are loaded lazily through the storage context.
+     * @return whether the contents changed
+     */
+    public boolean mergeContentsOperations(List<ContentsOperation> operations){
+        synchronized (this){
+            if (sequence == null){
+                throw new IllegalStateException("Mergeable contents are not enabled");
+            }
+            if (!applyOperations(operations)){
+                return false;
+            }
+        }
+        fireChange(ChangeType.CHILDREN);
+        return true;
+    }
+
+    // the caller fires the change once it has released the lock
+    private boolean applyOperations(List<ContentsOperation> operations){
+        // each operation is applied where it lands, to a private list published with one copy for the whole merge
+        List<SpeechComponent> merged = new ArrayList<>(contents);
+        boolean changed = sequence.merge(operations, SpeechElementContainer::materialize,
+                new ContentsSequence.Listener<SpeechComponent>() {
+                    @Override
+                    public void inserted(int index, SpeechComponent component) {
+                        merged.add(index, component);
+                        if (digestTree != null){
+                            digestTree.insert(index, component);
+                        }
+                    }
+
+                    @Override
+                    public void removed(int index) {
+                        merged.remove(index);
+                        if (digestTree != null){
+                            digestTree.remove(index);
+                        }
+                    }
+                });
+        if (!changed){
+            return false;
+        }
+        this.contents = new CopyOnWriteArrayList<>(merged);
         setModified(true);
+        return true;
+    }
+
+    private static SpeechComponent materialize(ContentsOperation operation){
+        try {
+            SpeechComponent component = SpeechComponent.importFromData(operation.getType(), operation.getStorageString());
+            if (operation.getState() != null){
+                component.restoreState(operation.getState());
+            }
+            return component;
+        } catch (IOException e) {
+            e.printStackTrace();
+            // keeps its place in the sequence without showing up in the contents
+            return null;
+        }
+    }
+
+    private void recordInsert(int index, SpeechComponent component){
+        sequence.insert(index, component, component.getClass().getName(), storageStringOf(component),
+                component.getStateString());
+    }
+
+    private static String storageStringOf(SpeechComponent component){
+        String storageString = component.getStorageString();
+        if (storageString == null && component instanceof HashIdentifiedSpeechComponent){
+            // nested containers are referenced by hash, as importFromData expects
+            storageString = IOUtil.encodeString(((HashIdentifiedSpeechComponent) component).getHash());
+        }
+        return storageString;
+    }
+
+    /**
+     * @return the greatest operation counter seen from each replica, to send to another replica so that it can
+     * answer with {@link #getContentsOperationsSince(Map)}
+     */
+    public synchronized Map<Integer, Long> getContentsVersionVector(){
+        if (sequence == null){
+            throw new IllegalStateException("Mergeable contents are not enabled");
+        }
+        return sequence.getVersionVector();
+    }
+
+    /**
+     * @param versionVector another replica's {@link #getContentsVersionVector()}, or an empty map for the full history
+     * @return the operations that replica has not seen, ready for {@link #mergeContentsOperations(List)}
+     */
+    public synchronized List<ContentsOperation> getContentsOperationsSince(Map<Integer, Long> versionVector){
+        if (sequence == null){
+            throw new IllegalStateException("Mergeable contents are not enabled");
+        }
+        return sequence.getOperationsSince(versionVector);
     }
 
     public int size(){
@@ -139,43 +479,102 @@ public abstract class SpeechElementContainer extends HashIdentifiedSpeechCompone
 
     @Override
     public ArrayList<String>[] toLabelledLists() {
+        List<SpeechComponent> contents;
+        List<ContentsOperation> history;
+        // the history has to match the contents it is saved with
+        synchronized (this){
+            contents = this.contents;
+            history = sequence != null ? sequence.getOperations() : savedHistory;
+        }
         ArrayList<String>[] labelledLists = new ArrayList[2];
         labelledLists[0] = new ArrayList<>(contents.size());
         labelledLists[1] = new ArrayList<>(contents.size());
         labelledLists[1].add(name);
         for (SpeechComponent component:contents){
             labelledLists[0].add(component.getClass().getName());
-            labelledLists[1].add(component.getStorageString());
+            labelledLists[1].add(storageStringOf(component));
             String state = component.getStateString();
             if (state!=null){
                 labelledLists[0].add("STATE");
                 labelledLists[1].add(state);
             }
         }
+        if (history != null){
+            labelledLists[0].add(CONTENTS_HISTORY);
+            labelledLists[1].add(encodeHistory(history));
+        }
         return labelledLists;
     }
 
+    private static String encodeHistory(List<ContentsOperation> history){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ContentsOperation.writeToOutput(history, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // not thrown by an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return IOUtil.encodeString(bytes.toByteArray());
+    }
+
     @Override
-    public void importFromLabelledLists(List<String> labels, List<String> values) {
+    public synchronized void importFromLabelledLists(List<String> labels, List<String> values) {
         this.name = values.get(0);
+        // build the list privately, copying the shared one only once at the end
+        List<SpeechComponent> imported = new ArrayList<>(labels.size());
+        List<ContentsOperation> history = null;
         for (int i = 0; i < labels.size(); i++){
+            if (labels.get(i).equals(CONTENTS_HISTORY)){
+                try {
+                    history = ContentsOperation.loadFromInput(new DataInputStream(
+                            new ByteArrayInputStream(IOUtil.decodeString(values.get(i+1)))));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             try {
-                contents.add(SpeechComponent.importFromData(labels.get(i),values.get(i+1)));
+                imported.add(SpeechComponent.importFromData(labels.get(i),values.get(i+1)));
                 // check for optional state string
                 if (i < labels.size()-1 && labels.get(i+1).equals("STATE")){
-                    contents.get(contents.size()-1).restoreState(values.get(i+2));
+                    imported.get(imported.size()-1).restoreState(values.get(i+2));
                     i++;
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        boolean fresh = contents.isEmpty();
+        contents.addAll(imported);
+        dropDigestTree();
+        // a history only describes the contents it was saved with
+        savedHistory = fresh ? history : null;
+        sequence = null;
     }
 
     @Override
     public void load() throws IOException {
-        IOController.getIoController().getComponentIOManager().loadAll(this);
-        loaded = true;
+        try (Span span = Metrics.startSpan(Metrics.CONTAINER_LOAD)) {
+            long start = Metrics.startTimer();
+            StorageContext.getStorageContext().loadAll(this);
+            Metrics.stopTimer(Metrics.STORAGE_LOAD_ALL, start);
+            loaded = true;
+        }
+    }
+
+    /**
+     * Loads every unloaded child concurrently, recursing into nested containers, instead of going through
+     * the storage backend's blocking loadAll
+     */
+    @Override
+    public CompletableFuture<Void> loadAsync(Executor executor) {
+        List<CompletableFuture<Void>> children = new ArrayList<>();
+        for (SpeechComponent component:contents){
+            if (!component.isLoaded()){
+                children.add(component.loadAsync(executor));
+            }
+        }
+        return CompletableFuture.allOf(children.toArray(new CompletableFuture[0])).thenRun(() -> loaded = true);
     }
 
     @Override
@@ -188,6 +587,33 @@ public abstract class SpeechElementContainer extends HashIdentifiedSpeechCompone
         return 0;
     }
 
+    /**
+     * Unlike the hash, which is random for containers, the content digest is derived from the name and the contents,
+     * so two copies of a container have the same digest exactly when they hold the same components in the same
+     * state. The underlying tree is built on first use and then kept up to date as components are added and removed.
+     * @return the digest of the name and the root of the content tree
+     */
+    public synchronized byte[] getContentDigest() {
+        return ContentDigestTree.digest(name.getBytes(StandardCharsets.UTF_8), getContentDigestTree().getRoot());
+    }
+
+    private void dropDigestTree() {
+        if (digestTree != null){
+            digestTree.dispose();
+            digestTree = null;
+        }
+    }
+
+    /**
+     * @return the tree behind {@link #getContentDigest()}, for finding which components differ between two copies
+     */
+    public synchronized ContentDigestTree getContentDigestTree() {
+        if (digestTree == null){
+            digestTree = new ContentDigestTree(contents);
+        }
+        return digestTree;
+    }
+
     @Override
     protected byte[] generateHash() {
         SecureRandom random = new SecureRandom();
@@ -224,15 +650,78 @@ public abstract class SpeechElementContainer extends HashIdentifiedSpeechCompone
         return null;
     }
 
+    /**
+     * Replaces the contents with the stored ones
+     * @throws IllegalStateException if the contents are mergeable, which need {@link #reload(int)}
+     */
     public void reload() throws IOException {
+        reload(0);
+    }
+
+    /**
+     * Replaces the contents with the stored ones, with mergeable contents carrying on from the stored history as a new
+     * replica. The stored history lacks any edits made since the save, and a new id keeps this copy from reusing their
+     * ids once other replicas have them; merging with those replicas brings the edits back. If the stored record has no
+     * history matching its contents, this throws and nothing is replaced.
+     * @param replicaId an id not used by this container before, greater than 0; ignored unless the contents are
+     *                  mergeable
+     */
+    public void reload(int replicaId) throws IOException {
         // TODO more elegant fix than querying the database?
         setModified(true);
-        SpeechElementContainer container = (SpeechElementContainer) IOController.getIoController().getComponentIOManager().retrieveSpeechComponent(getHash());
-        loaded = false;
-        this.contents = container.contents;
+        replaceContentsFromStorage(replicaId);
         load();
     }
 
+    /**
+     * Non-blocking counterpart to {@link #reload()}
+     */
+    public CompletableFuture<Void> reloadAsync(Executor executor) {
+        return reloadAsync(0, executor);
+    }
+
+    /**
+     * Non-blocking counterpart to {@link #reload(int)}
+     */
+    public CompletableFuture<Void> reloadAsync(int replicaId, Executor executor) {
+        setModified(true);
+        return runIOAsync(() -> replaceContentsFromStorage(replicaId), executor)
+                .thenCompose(v -> loadAsync(executor));
+    }
+
+    // a replica id of 0 if the caller has none, which is only allowed for contents that aren't mergeable
+    private void replaceContentsFromStorage(int replicaId) throws IOException {
+        long start = Metrics.startTimer();
+        SpeechElementContainer container = (SpeechElementContainer) StorageContext.getStorageContext().retrieveSpeechComponent(getHash());
+        Metrics.stopTimer(Metrics.STORAGE_RETRIEVE, start);
+        synchronized (this){
+            ContentsSequence<SpeechComponent> restored = null;
+            if (sequence != null){
+                // checked before changing anything, so that a failed reload leaves the container mergeable as it was
+                if (replicaId == 0){
+                    throw new IllegalStateException("Reloading mergeable contents needs a new replica id");
+                }
+                if (replicaId == sequence.getReplica()){
+                    throw new IllegalArgumentException("Reloaded contents need a replica id other than " + replicaId);
+                }
+                if (container.savedHistory == null){
+                    throw new IOException("Stored container has no contents history to continue merging from");
+                }
+                try {
+                    restored = ContentsSequence.restore(replicaId, container.savedHistory, container.contents);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Stored contents history does not match the stored contents", e);
+                }
+            }
+            loaded = false;
+            this.contents = new CopyOnWriteArrayList<>(container.contents);
+            dropDigestTree();
+            sequence = restored;
+            savedHistory = restored == null ? container.savedHistory : null;
+        }
+        fireChange(ChangeType.CHILDREN);
+    }
+
     @Override
     public boolean equals(Object o){
         if (!(o instanceof SpeechElementContainer)){
@@ -255,6 +744,13 @@ public abstract class SpeechElementContainer extends HashIdentifiedSpeechCompone
 
     protected abstract String getEnumeration(int i);
 
+    /**
+     * @return the label shown before the i-th component, IE "1" in a speech or "A" in a block
+     */
+    public final String getEnumerationLabel(int i){
+        return getEnumeration(i);
+    }
+
     /**
      * convert an integer to an alphabetic index (a,b,...aa,ab,etc)
      * @param i
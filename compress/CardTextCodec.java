@@ -0,0 +1,102 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate with an optional preset dictionary, used for compressed card records. Deflaters and inflaters are
+ * reused through small shared pools, as creating them is far more expensive than compressing a single card. Pools
+ * rather than thread locals, so that many short lived threads don't each hold native memory until collected.
+ */
+public final class CardTextCodec {
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private CardTextCodec(){}
+
+    /**
+     * @param dictionary the dictionary to prime the compressor with, or null for none
+     */
+    public static byte[] compress(byte[] data, CompressionDictionary dictionary){
+        Deflater deflater = deflaters.poll();
+        if (deflater == null){
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            if (dictionary != null){
+                deflater.setDictionary(dictionary.getBytes());
+            }
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[Math.max(64, Math.min(data.length, 8192))];
+            while (!deflater.finished()){
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.reset();
+            // free the native memory of any beyond what the pool keeps
+            if (!deflaters.offer(deflater)){
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * @param uncompressedLength the exact length of the original data
+     * @param dictionary the dictionary the data was compressed with, or null for none
+     */
+    public static byte[] decompress(byte[] data, int uncompressedLength, CompressionDictionary dictionary){
+        Inflater inflater = inflaters.poll();
+        if (inflater == null){
+            inflater = new Inflater(true);
+        }
+        byte[] result = new byte[uncompressedLength];
+        int position = 0;
+        try {
+            if (dictionary != null){
+                inflater.setDictionary(dictionary.getBytes());
+            }
+            inflater.setInput(data);
+            while (position < uncompressedLength){
+                int length = inflater.inflate(result, position, uncompressedLength - position);
+                if (length == 0 && (inflater.finished() || inflater.needsInput())){
+                    break;
+                }
+                position += length;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed card record", e);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)){
+                inflater.end();
+            }
+        }
+        if (position != uncompressedLength){
+            throw new IllegalStateException("Compressed card record shorter than expected");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.compress;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A preset dictionary shared by every compressed card record, holding the phrases that recur across cards (sources,
+ * boilerplate, commonly quoted passages) so that even a short card compresses well.
+ * <p>
+ * Records refer to their dictionary by id, so a dictionary must be {@link #register(CompressionDictionary) registered}
+ * before records using it can be loaded, and must never change once records have been written with it.
+ */
+public final class CompressionDictionary {
+    /**
+     * Largest useful dictionary, as deflate cannot reach back further than this
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private static final int SEGMENT_SIZE = 64;
+    private static final int DMER_SIZE = 8;
+
+    private static final ConcurrentHashMap<Integer, CompressionDictionary> registry = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final byte[] bytes;
+
+    public CompressionDictionary(byte[] bytes) {
+        if (bytes.length > MAX_SIZE){
+            throw new IllegalArgumentException("Dictionary larger than " + MAX_SIZE + " bytes");
+        }
+        this.bytes = bytes;
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        // 0 is reserved for records compressed without a dictionary
+        int id = (int) crc.getValue();
+        this.id = id == 0 ? 1 : id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public void writeToOutput(DataOutput out) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static CompressionDictionary loadFromInput(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new CompressionDictionary(bytes);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a different dictionary with the same id is already registered, as records
+     * written with either could no longer be told apart
+     */
+    public static void register(CompressionDictionary dictionary){
+        CompressionDictionary registered = registry.putIfAbsent(dictionary.getId(), dictionary);
+        if (registered != null && !Arrays.equals(registered.bytes, dictionary.bytes)){
+            throw new IllegalArgumentException("Dictionary id " + dictionary.getId()
+                    + " collides with a registered dictionary");
+        }
+    }
+
+    /**
+     * @return the registered dictionary with the given id, or null if there is none
+     */
+    public static CompressionDictionary forId(int id){
+        return registry.get(id);
+    }
+
+    /**
+     * Builds a dictionary out of the segments of the samples that share the most content with other samples.
+     * <p>
+     * Each sample is cut into overlapping segments, and a segment is scored by how many samples each of its 8 byte
+     * substrings occurs in. Segments are picked greedily by score, with the substrings of picked segments no longer
+     * counting towards others, so the dictionary does not fill up with variants of one phrase. The best segments are
+     * placed last, where matches against them are cheapest to encode.
+     * @param samples representative card texts and cites
+     * @param size the dictionary size in bytes, at most {@link #MAX_SIZE}
+     */
+    public static CompressionDictionary train(Collection<String> samples, int size){
+        size = Math.min(size, MAX_SIZE);
+        List<byte[]> sampleBytes = new ArrayList<>(samples.size());
+        for (String sample:samples){
+            sampleBytes.add(sample.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // the number of samples each dmer appears in
+        HashMap<Long, Integer> frequencies = new HashMap<>();
+        for (int s = 0; s < sampleBytes.size(); s++){
+            byte[] sample = sampleBytes.get(s);
+            HashMap<Long, Boolean> seen = new HashMap<>();
+            for (int i = 0; i + DMER_SIZE <= sample.length; i++){
+                long dmer = dmer(sample, i);
+                if (seen.put(dmer, Boolean.TRUE) == null){
+                    frequencies.merge(dmer, 1, Integer::sum);
+                }
+            }
+        }
+
+        PriorityQueue<Segment> queue = new PriorityQueue<>();
+        for (byte[] sample:sampleBytes){
+            for (int start = 0; start + SEGMENT_SIZE <= sample.length; start += SEGMENT_SIZE / 2){
+                Segment segment = new Segment(sample, start);
+                segment.score = segment.score(frequencies);
+                if (segment.score > 0){
+                    queue.add(segment);
+                }
+            }
+        }
+
+        List<Segment> picked = new ArrayList<>();
+        int total = 0;
+        while (total + SEGMENT_SIZE <= size && !queue.isEmpty()){
+            Segment best = queue.poll();
+            // scores only ever drop, so rescore lazily and put the segment back if it is no longer the best
+            long score = best.score(frequencies);
+            if (score <= 0){
+                continue;
+            }
+            if (!queue.isEmpty() && score < queue.peek().score){
+                best.score = score;
+                queue.add(best);
+                continue;
+            }
+            picked.add(best);
+            total += SEGMENT_SIZE;
+            for (int i = best.start; i + DMER_SIZE <= best.start + SEGMENT_SIZE; i++){
+                frequencies.remove(dmer(best.sample, i));
+            }
+        }
+
+        byte[] bytes = new byte[total];
+        int position = total;
+        for (Segment segment:picked){
+            position -= SEGMENT_SIZE;
+            System.arraycopy(segment.sample, segment.start, bytes, position, SEGMENT_SIZE);
+        }
+        return new CompressionDictionary(bytes);
+    }
+
+    private static long dmer(byte[] bytes, int offset){
+        long dmer = 0;
+        for (int i = 0; i < DMER_SIZE; i++){
+            dmer = (dmer << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return dmer;
+    }
+
+    private static class Segment implements Comparable<Segment> {
+        private final byte[] sample;
+        private final int start;
+        private long score;
+
+        private Segment(byte[] sample, int start) {
+            this.sample = sample;
+            this.start = start;
+        }
+
+        private long score(HashMap<Long, Integer> frequencies){
+            long score = 0;
+            for (int i = start; i + DMER_SIZE <= start + SEGMENT_SIZE; i++){
+                Integer frequency = frequencies.get(dmer(sample, i));
+                // content only found in one sample is not worth sharing
+                if (frequency != null && frequency > 1){
+                    score += frequency;
+                }
+            }
+            return score;
+        }
+
+        @Override
+        public int compareTo(Segment o) {
+            return Long.compare(o.score, score);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.crdt;
+
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.Speech;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One edit to a {@link ContentsSequence}: an insert of a component after another element, or the deletion of an
+ * element. Components are carried the way containers store them, as their type, storage string and state string.
+ */
+public final class ContentsOperation {
+    private static final byte INSERT = 1;
+    private static final byte DELETE = 2;
+    private static final byte INSERT_WITH_STATE = 3;
+
+    // the usual types get a one byte code instead of their class name
+    private static final String[] TYPE_CODES = {null, Card.class.getName(), Block.class.getName(),
+            Analytic.class.getName(), Speech.class.getName()};
+
+    private final ElementId id;
+    // for inserts the element inserted after, for deletes the element deleted
+    private final ElementId target;
+    private final String type;
+    private final String storageString;
+    private final String state;
+
+    private ContentsOperation(ElementId id, ElementId target, String type, String storageString, String state) {
+        this.id = id;
+        this.target = target;
+        this.type = type;
+        this.storageString = storageString;
+        this.state = state;
+    }
+
+    static ContentsOperation insert(ElementId id, ElementId after, String type, String storageString, String state){
+        return new ContentsOperation(id, after, type, storageString, state);
+    }
+
+    static ContentsOperation delete(ElementId id, ElementId deleted){
+        return new ContentsOperation(id, deleted, null, null, null);
+    }
+
+    public boolean isInsert() {
+        return type != null;
+    }
+
+    public ElementId getId() {
+        return id;
+    }
+
+    /**
+     * @return the element an insert goes after, or the element a delete removes
+     */
+    public ElementId getTarget() {
+        return target;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getStorageString() {
+        return storageString;
+    }
+
+    /**
+     * @return the component's state string, or null if it has none
+     */
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * Writes the operations compactly: numbers as variable length integers and common types as a single byte
+     */
+    public static void writeToOutput(List<ContentsOperation> operations, DataOutput out) throws IOException {
+        writeVarLong(out, operations.size());
+        for (ContentsOperation operation:operations){
+            if (!operation.isInsert()){
+                out.writeByte(DELETE);
+                writeId(out, operation.id);
+                writeId(out, operation.target);
+                continue;
+            }
+            out.writeByte(operation.state == null ? INSERT : INSERT_WITH_STATE);
+            writeId(out, operation.id);
+            writeId(out, operation.target);
+            int code = typeCode(operation.type);
+            out.writeByte(code);
+            if (code == 0){
+                writeString(out, operation.type);
+            }
+            writeString(out, operation.storageString);
+            if (operation.state != null){
+                writeString(out, operation.state);
+            }
+        }
+    }
+
+    public static List<ContentsOperation> loadFromInput(DataInput in) throws IOException {
+        long count = readVarLong(in);
+        List<ContentsOperation> operations = new ArrayList<>((int) Math.min(count, 1024));
+        for (long i = 0; i < count; i++){
+            byte kind = in.readByte();
+            ElementId id = readId(in);
+            ElementId target = readId(in);
+            if (kind == DELETE){
+                operations.add(delete(id, target));
+                continue;
+            }
+            if (kind != INSERT && kind != INSERT_WITH_STATE){
+                throw new IOException("Unrecognized contents operation: " + kind);
+            }
+            int code = in.readByte();
+            if (code < 0 || code >= TYPE_CODES.length){
+                throw new IOException("Unrecognized component type code: " + code);
+            }
+            String type = code == 0 ? readString(in) : TYPE_CODES[code];
+            String storageString = readString(in);
+            String state = kind == INSERT_WITH_STATE ? readString(in) : null;
+            operations.add(insert(id, target, type, storageString, state));
+        }
+        return operations;
+    }
+
+    private static int typeCode(String type){
+        for (int i = 1; i < TYPE_CODES.length; i++){
+            if (TYPE_CODES[i].equals(type)){
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static void writeId(DataOutput out, ElementId id) throws IOException {
+        writeVarLong(out, id.getCounter());
+        writeVarLong(out, id.getReplica() & 0xFFFFFFFFL);
+    }
+
+    private static ElementId readId(DataInput in) throws IOException {
+        long counter = readVarLong(in);
+        return new ElementId(counter, (int) readVarLong(in));
+    }
+
+    // writeUTF is limited to 64K, which analytics could exceed
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0){
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7){
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    public String toString(){
+        return isInsert() ? "insert " + id + " after " + target + " " + type + " " + storageString
+                : "delete " + target + " at " + id;
+    }
+}
@@ -0,0 +1,446 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.crdt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * A replicated growable array (RGA): an ordered sequence that several replicas edit independently and then merge by
+ * exchanging operations, all ending up in the same order without coordination.
+ * <p>
+ * Every element keeps the id of the insert that created it, deleted elements stay in place as tombstones, and an
+ * insert goes right after its reference element, past any elements inserted there concurrently with a greater id.
+ * Besides the linked order, the elements form a randomized balanced tree counting the visible elements below each
+ * node, so finding the element at an index and the index of an element take logarithmic time however many tombstones
+ * there are. Merging an operation costs that much apart from the skip, and reports where it landed to a
+ * {@link Listener}, so owners can update their own list in place. Operations whose reference has not arrived yet are
+ * held back until it does.
+ * <p>
+ * Not thread safe; see {@link org.debatetool.core.SpeechElementContainer#enableMergeableContents(int)} for a
+ * synchronized owner.
+ */
+public class ContentsSequence<T> {
+    private static final Object RESTORING = new Object();
+
+    private final int replica;
+    private long clock = 0;
+    private final Node<T> head = new Node<>(ElementId.HEAD, null);
+    // the head is always the first node of the tree
+    private Node<T> root = head;
+    private final HashMap<ElementId, Node<T>> nodes = new HashMap<>();
+    private final HashSet<ElementId> appliedDeletes = new HashSet<>();
+    // every applied operation, per replica in id order
+    private final HashMap<Integer, List<ContentsOperation>> operations = new HashMap<>();
+    private final List<ContentsOperation> pending = new ArrayList<>();
+
+    /**
+     * Told where merged operations changed the visible values
+     */
+    public interface Listener<T> {
+        void inserted(int index, T value);
+
+        void removed(int index);
+    }
+
+    /**
+     * @param replica an id unique to this replica, greater than 0
+     */
+    public ContentsSequence(int replica) {
+        if (replica <= 0){
+            throw new IllegalArgumentException("Replica ids must be positive");
+        }
+        this.replica = replica;
+        nodes.put(ElementId.HEAD, head);
+    }
+
+    /**
+     * Rebuilds a sequence from its saved history, with the values it had when saved rather than ones created from the
+     * operations
+     * @param values the visible values in order, one for each element the history leaves visible
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ContentsSequence<T> restore(int replica, List<ContentsOperation> history, List<T> values){
+        ContentsSequence<T> sequence = new ContentsSequence<>(replica);
+        sequence.merge(history, operation -> (T) RESTORING);
+        if (sequence.getPendingCount() > 0 || sequence.size() != values.size()){
+            throw new IllegalArgumentException("History leaves " + sequence.size() + " elements for "
+                    + values.size() + " values");
+        }
+        int index = 0;
+        for (Node<T> node = sequence.head.next; node != null; node = node.next){
+            if (node.isVisible()){
+                node.value = values.get(index++);
+            }
+        }
+        return sequence;
+    }
+
+    public int getReplica() {
+        return replica;
+    }
+
+    /**
+     * Inserts a value so that it ends up at the given index
+     * @return the operation to send to other replicas
+     */
+    public ContentsOperation insert(int index, T value, String type, String storageString, String state){
+        if (index < 0 || index > size()){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<T> after = index == 0 ? head : visibleNode(index - 1);
+        ContentsOperation operation = ContentsOperation.insert(new ElementId(++clock, replica), after.id, type,
+                storageString, state);
+        integrateInsert(operation, value);
+        return operation;
+    }
+
+    /**
+     * Deletes the value at the given index
+     * @return the operation to send to other replicas
+     */
+    public ContentsOperation delete(int index){
+        Node<T> node = visibleNode(index);
+        ContentsOperation operation = ContentsOperation.delete(new ElementId(++clock, replica), node.id);
+        integrateDelete(operation, node);
+        return operation;
+    }
+
+    /**
+     * Deletes every value in one pass
+     * @return the operations to send to other replicas
+     */
+    public List<ContentsOperation> deleteAll(){
+        List<ContentsOperation> deletes = new ArrayList<>(size());
+        for (Node<T> node = head.next; node != null; node = node.next){
+            if (node.isVisible()){
+                ContentsOperation operation = ContentsOperation.delete(new ElementId(++clock, replica), node.id);
+                node.deleted = true;
+                appliedDeletes.add(operation.getId());
+                record(operation);
+                deletes.add(operation);
+            }
+        }
+        // nothing is visible any more, so every count is 0
+        for (Node<T> node:nodes.values()){
+            node.count = 0;
+        }
+        return deletes;
+    }
+
+    private Node<T> visibleNode(int index){
+        if (index < 0 || index >= size()){
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Node<T> node = root;
+        while (true){
+            int leftCount = count(node.left);
+            if (index < leftCount){
+                node = node.left;
+            }else if (index == leftCount && node.isVisible()){
+                return node;
+            }else{
+                index -= leftCount + node.own();
+                node = node.right;
+            }
+        }
+    }
+
+    // the number of visible elements before the node
+    private int indexOf(Node<T> node){
+        int index = count(node.left);
+        for (; node.parent != null; node = node.parent){
+            if (node == node.parent.right){
+                index += count(node.parent.left) + node.parent.own();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Applies operations from other replicas, ignoring any already applied
+     * @param materializer creates the value of an inserted element, or returns null to leave it out of this replica's
+     *                     values while keeping its place in the sequence
+     * @return whether the values changed
+     */
+    public boolean merge(List<ContentsOperation> operations, Function<ContentsOperation, T> materializer){
+        return merge(operations, materializer, null);
+    }
+
+    /**
+     * @param listener if not null, told of each change to the visible values as it is applied
+     */
+    public boolean merge(List<ContentsOperation> operations, Function<ContentsOperation, T> materializer,
+                         Listener<T> listener){
+        boolean changed = false;
+        for (ContentsOperation operation:operations){
+            int result = apply(operation, materializer, listener);
+            if (result < 0){
+                pending.add(operation);
+            }
+            changed |= result > 0;
+        }
+        // retry held back operations for as long as that lets more of them through
+        boolean progress = !pending.isEmpty();
+        while (progress){
+            progress = false;
+            Iterator<ContentsOperation> iterator = pending.iterator();
+            while (iterator.hasNext()){
+                int result = apply(iterator.next(), materializer, listener);
+                if (result >= 0){
+                    iterator.remove();
+                    progress = true;
+                    changed |= result > 0;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return 1 if applied, 0 if already applied, -1 if its reference is missing
+     */
+    private int apply(ContentsOperation operation, Function<ContentsOperation, T> materializer, Listener<T> listener){
+        if (operation.isInsert()){
+            if (nodes.containsKey(operation.getId())){
+                return 0;
+            }
+            if (!nodes.containsKey(operation.getTarget())){
+                return -1;
+            }
+            Node<T> node = integrateInsert(operation, materializer.apply(operation));
+            if (listener != null && node.isVisible()){
+                listener.inserted(indexOf(node), node.value);
+            }
+            return 1;
+        }
+        if (appliedDeletes.contains(operation.getId())){
+            return 0;
+        }
+        Node<T> node = nodes.get(operation.getTarget());
+        if (node == null){
+            return -1;
+        }
+        if (listener != null && node.isVisible()){
+            listener.removed(indexOf(node));
+        }
+        integrateDelete(operation, node);
+        return 1;
+    }
+
+    private Node<T> integrateInsert(ContentsOperation operation, T value){
+        Node<T> previous = nodes.get(operation.getTarget());
+        // concurrent inserts at the same place with greater ids, and everything inserted after them, go first
+        while (previous.next != null && previous.next.id.compareTo(operation.getId()) > 0){
+            previous = previous.next;
+        }
+        Node<T> node = new Node<>(operation.getId(), value);
+        node.next = previous.next;
+        previous.next = node;
+        insertAfter(previous, node);
+        nodes.put(node.id, node);
+        record(operation);
+        return node;
+    }
+
+    private void integrateDelete(ContentsOperation operation, Node<T> node){
+        if (node.isVisible()){
+            for (Node<T> ancestor = node; ancestor != null; ancestor = ancestor.parent){
+                ancestor.count--;
+            }
+        }
+        node.deleted = true;
+        appliedDeletes.add(operation.getId());
+        record(operation);
+    }
+
+    // places the node right after the previous one in the tree, then rotates it up to restore the heap order
+    private void insertAfter(Node<T> previous, Node<T> node){
+        if (previous.right == null){
+            previous.right = node;
+            node.parent = previous;
+        }else{
+            Node<T> successor = previous.right;
+            while (successor.left != null){
+                successor = successor.left;
+            }
+            successor.left = node;
+            node.parent = successor;
+        }
+        node.count = node.own();
+        for (Node<T> ancestor = node.parent; ancestor != null; ancestor = ancestor.parent){
+            ancestor.count += node.count;
+        }
+        // the head keeps the greatest priority, so it stays first and at the root's far left
+        while (node.parent != null && node.parent != head && node.priority > node.parent.priority){
+            rotateUp(node);
+        }
+    }
+
+    private void rotateUp(Node<T> node){
+        Node<T> parent = node.parent;
+        Node<T> grandparent = parent.parent;
+        if (node == parent.left){
+            parent.left = node.right;
+            if (node.right != null){
+                node.right.parent = parent;
+            }
+            node.right = parent;
+        }else{
+            parent.right = node.left;
+            if (node.left != null){
+                node.left.parent = parent;
+            }
+            node.left = parent;
+        }
+        parent.parent = node;
+        node.parent = grandparent;
+        if (grandparent == null){
+            root = node;
+        }else if (grandparent.left == parent){
+            grandparent.left = node;
+        }else{
+            grandparent.right = node;
+        }
+        parent.count = count(parent.left) + parent.own() + count(parent.right);
+        node.count = count(node.left) + node.own() + count(node.right);
+    }
+
+    private static int count(Node<?> node){
+        return node == null ? 0 : node.count;
+    }
+
+    private void record(ContentsOperation operation){
+        ElementId id = operation.getId();
+        clock = Math.max(clock, id.getCounter());
+        List<ContentsOperation> replicaOperations = operations.computeIfAbsent(id.getReplica(),
+                k -> new ArrayList<>());
+        // nearly always appended, but held back operations can arrive late
+        int index = replicaOperations.size();
+        while (index > 0 && replicaOperations.get(index - 1).getId().getCounter() > id.getCounter()){
+            index--;
+        }
+        replicaOperations.add(index, operation);
+    }
+
+    /**
+     * @return the values of the elements not deleted, in order
+     */
+    public List<T> getValues(){
+        List<T> values = new ArrayList<>(size());
+        for (Node<T> node = head.next; node != null; node = node.next){
+            if (node.isVisible()){
+                values.add(node.value);
+            }
+        }
+        return values;
+    }
+
+    public int size(){
+        return root.count;
+    }
+
+    /**
+     * @return the greatest counter applied from each replica
+     */
+    public Map<Integer, Long> getVersionVector(){
+        Map<Integer, Long> versionVector = new HashMap<>();
+        for (Map.Entry<Integer, List<ContentsOperation>> entry:operations.entrySet()){
+            List<ContentsOperation> replicaOperations = entry.getValue();
+            versionVector.put(entry.getKey(), replicaOperations.get(replicaOperations.size() - 1).getId().getCounter());
+        }
+        return versionVector;
+    }
+
+    /**
+     * @param versionVector another replica's {@link #getVersionVector()}
+     * @return the operations that replica is missing, in an order it can apply them in
+     */
+    public List<ContentsOperation> getOperationsSince(Map<Integer, Long> versionVector){
+        List<ContentsOperation> missing = new ArrayList<>();
+        for (Map.Entry<Integer, List<ContentsOperation>> entry:operations.entrySet()){
+            Long seen = versionVector.get(entry.getKey());
+            List<ContentsOperation> replicaOperations = entry.getValue();
+            int from = seen == null ? 0 : firstAfter(replicaOperations, seen);
+            missing.addAll(replicaOperations.subList(from, replicaOperations.size()));
+        }
+        // Lamport order puts every operation after the ones it refers to
+        missing.sort((o1, o2) -> o1.getId().compareTo(o2.getId()));
+        return missing;
+    }
+
+    /**
+     * @return every operation applied, from which another replica can build the same sequence
+     */
+    public List<ContentsOperation> getOperations(){
+        return getOperationsSince(Collections.emptyMap());
+    }
+
+    private static int firstAfter(List<ContentsOperation> operations, long counter){
+        int low = 0;
+        int high = operations.size();
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (operations.get(middle).getId().getCounter() <= counter){
+                low = middle + 1;
+            }else{
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of operations held back until the elements they refer to arrive
+     */
+    public int getPendingCount(){
+        return pending.size();
+    }
+
+    private static final class Node<T> {
+        private final ElementId id;
+        // only replaced while restoring
+        private T value;
+        private boolean deleted = false;
+        private Node<T> next;
+        // the tree over the same order, counting visible elements
+        private Node<T> left;
+        private Node<T> right;
+        private Node<T> parent;
+        private final int priority;
+        private int count = 0;
+
+        private Node(ElementId id, T value) {
+            this.id = id;
+            this.value = value;
+            this.priority = ThreadLocalRandom.current().nextInt();
+        }
+
+        private boolean isVisible(){
+            return !deleted && value != null;
+        }
+
+        private int own(){
+            return isVisible() ? 1 : 0;
+        }
+    }
+}
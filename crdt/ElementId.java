@@ -0,0 +1,69 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.crdt;
+
+/**
+ * Identifies an operation, and the element an insert created, by the Lamport time and replica it was made at. Ids are
+ * totally ordered, so that replicas agree on the order of concurrent inserts.
+ */
+public final class ElementId implements Comparable<ElementId> {
+    /**
+     * The start of every sequence, which the first element is inserted after
+     */
+    public static final ElementId HEAD = new ElementId(0, 0);
+
+    private final long counter;
+    private final int replica;
+
+    public ElementId(long counter, int replica) {
+        this.counter = counter;
+        this.replica = replica;
+    }
+
+    public long getCounter() {
+        return counter;
+    }
+
+    public int getReplica() {
+        return replica;
+    }
+
+    @Override
+    public int compareTo(ElementId o) {
+        if (counter != o.counter){
+            return Long.compare(counter, o.counter);
+        }
+        return Integer.compare(replica, o.replica);
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (!(o instanceof ElementId)){
+            return false;
+        }
+        ElementId oi = (ElementId) o;
+        return counter == oi.counter && replica == oi.replica;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(counter) * 31 + replica;
+    }
+
+    public String toString(){
+        return counter + "@" + replica;
+    }
+}
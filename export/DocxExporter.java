@@ -0,0 +1,221 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.export;
+
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+import org.debatetool.core.storage.StorageContext;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes speeches and blocks straight to a Word (Office Open XML) document, following the same layout as
+ * {@link SpeechElementContainer#getExportDisplayContent(boolean)}: underlined and highlighted runs come from each
+ * card's combined overlay, cites are bolded and nested containers become headings.
+ * <p>
+ * The document is streamed into the zip as it is generated. Cards that are not loaded are fetched into a temporary
+ * copy and dropped once written, so memory use does not grow with the length of the export.
+ */
+public class DocxExporter {
+    private static final String CONTENT_TYPES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+            + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+            + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+            + "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+            + "<Override PartName=\"/word/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.styles+xml\"/>"
+            + "</Types>";
+    private static final String PACKAGE_RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>"
+            + "</Relationships>";
+    private static final String DOCUMENT_RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>"
+            + "</Relationships>";
+    private static final String STYLES = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<w:styles xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\">"
+            + headingStyle(1, 32) + headingStyle(2, 28) + headingStyle(3, 26) + headingStyle(4, 24)
+            + "</w:styles>";
+    private static final String DOCUMENT_START = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body>";
+    private static final String DOCUMENT_END = "<w:sectPr/></w:body></w:document>";
+
+    /**
+     * Heading level used for card tags, below any nesting of containers
+     */
+    private static final int TAG_HEADING = 4;
+
+    private final boolean includeAnalytics;
+
+    public DocxExporter(boolean includeAnalytics) {
+        this.includeAnalytics = includeAnalytics;
+    }
+
+    /**
+     * Writes the container as a complete .docx file. The stream is finished but not closed.
+     */
+    public void export(SpeechElementContainer container, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        writeEntry(zip, "[Content_Types].xml", CONTENT_TYPES);
+        writeEntry(zip, "_rels/.rels", PACKAGE_RELATIONSHIPS);
+        writeEntry(zip, "word/_rels/document.xml.rels", DOCUMENT_RELATIONSHIPS);
+        writeEntry(zip, "word/styles.xml", STYLES);
+
+        zip.putNextEntry(new ZipEntry("word/document.xml"));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+        writer.write(DOCUMENT_START);
+        heading(writer, 1, container.getName());
+        writeContents(writer, container, 2);
+        writer.write(DOCUMENT_END);
+        // flush rather than close, closing would close the zip
+        writer.flush();
+        zip.closeEntry();
+        zip.finish();
+    }
+
+    private void writeContents(Writer writer, SpeechElementContainer container, int depth) throws IOException {
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent component = container.getComponent(i);
+            String enumeration = container.getEnumerationLabel(i) + ") ";
+            if (component instanceof Card){
+                writeCard(writer, enumeration, (Card) component);
+            }else if (component instanceof SpeechElementContainer){
+                SpeechElementContainer nested = (SpeechElementContainer) component;
+                heading(writer, Math.min(depth, TAG_HEADING - 1), enumeration + nested.getName());
+                writeContents(writer, nested, depth + 1);
+            }else if (component instanceof Analytic){
+                if (includeAnalytics){
+                    writer.write("<w:p>");
+                    run(writer, enumeration + component.getLabel(), false, false, false);
+                    writer.write("</w:p>");
+                }
+            }else{
+                writer.write("<w:p>");
+                run(writer, enumeration + component.getLabel(), false, false, false);
+                writer.write("</w:p>");
+            }
+        }
+    }
+
+    private void writeCard(Writer writer, String enumeration, Card card) throws IOException {
+        if (!card.isLoaded()){
+            Card loaded = (Card) StorageContext.getStorageContext().retrieveSpeechComponent(card.getHash());
+            loaded.restoreState(card.getStateString());
+            card = loaded;
+        }
+        heading(writer, TAG_HEADING, enumeration + card.getActiveTag());
+
+        Cite cite = card.getCite();
+        writer.write("<w:p>");
+        run(writer, cite.getAuthor() + " " + cite.getDate(), true, false, false);
+        run(writer, " (" + cite.getAdditionalInfo() + ")", false, false, false);
+        writer.write("</w:p>");
+
+        String text = card.getText();
+        CardOverlay overlay = card.getCombinedOverlay();
+        writer.write("<w:p>");
+        int position = 0;
+        for (int i = 0; i < overlay.getOverlayPositions().size() && position < text.length(); i++){
+            int end = Math.min(text.length(), position + Short.toUnsignedInt(overlay.getOverlayPositions().get(i)));
+            byte type = overlay.getOverlayTypes().get(i);
+            run(writer, text.substring(position, end), false, (type & CardOverlay.UNDERLINE) != 0,
+                    (type & CardOverlay.HIGHLIGHT) != 0);
+            position = end;
+        }
+        if (position < text.length()){
+            run(writer, text.substring(position), false, false, false);
+        }
+        writer.write("</w:p>");
+    }
+
+    private static void heading(Writer writer, int level, String text) throws IOException {
+        writer.write("<w:p><w:pPr><w:pStyle w:val=\"Heading" + level + "\"/></w:pPr>");
+        run(writer, text, false, false, false);
+        writer.write("</w:p>");
+    }
+
+    private static void run(Writer writer, String text, boolean bold, boolean underline, boolean highlight) throws IOException {
+        if (text.isEmpty()){
+            return;
+        }
+        writer.write("<w:r>");
+        if (bold || underline || highlight){
+            writer.write("<w:rPr>");
+            if (bold){
+                writer.write("<w:b/>");
+            }
+            if (highlight){
+                writer.write("<w:highlight w:val=\"yellow\"/>");
+            }
+            if (underline){
+                writer.write("<w:u w:val=\"single\"/>");
+            }
+            writer.write("</w:rPr>");
+        }
+        writer.write("<w:t xml:space=\"preserve\">");
+        writeEscaped(writer, text);
+        writer.write("</w:t></w:r>");
+    }
+
+    private static void writeEscaped(Writer writer, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            switch (c){
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    // control characters other than tab are not allowed in XML 1.0
+                    if (c >= 0x20 || c == '\t'){
+                        writer.write(c);
+                    }
+            }
+        }
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static String headingStyle(int level, int halfPoints){
+        return "<w:style w:type=\"paragraph\" w:styleId=\"Heading" + level + "\">"
+                + "<w:name w:val=\"heading " + level + "\"/><w:basedOn w:val=\"Normal\"/><w:qFormat/>"
+                + "<w:pPr><w:keepNext/><w:outlineLvl w:val=\"" + (level - 1) + "\"/></w:pPr>"
+                + "<w:rPr><w:b/><w:sz w:val=\"" + halfPoints + "\"/></w:rPr></w:style>";
+    }
+}
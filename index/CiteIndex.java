@@ -0,0 +1,440 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.index;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.storage.CardStoreListener;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of cards by normalized author and by source, each kept sorted by date, for queries such as "all cards by
+ * this author since 2018" or "the most recent cards from this source".
+ * <p>
+ * Dates are free form in cites, so they are parsed into yyyymmdd int keys where possible, with unknown months and
+ * days left as 0 so that "2018" sorts before "March 2018". Cards whose date cannot be parsed are kept under
+ * {@link #UNKNOWN_DATE} and sort first. Register the index with a {@link org.debatetool.core.storage.CardStore} to
+ * keep it up to date as cards are saved.
+ */
+public class CiteIndex implements CardStoreListener {
+    public static final int UNKNOWN_DATE = 0;
+    /**
+     * Two digit years from 50 on are read as 19xx and the rest as 20xx, as in X.509 UTCTime
+     */
+    public static final int DEFAULT_PIVOT_YEAR = 2049;
+
+    private static final Pattern FOUR_DIGIT_YEAR = Pattern.compile("(?<!\\d)(19|20)(\\d{2})(?!\\d)");
+    private static final Pattern NUMERIC_DATE = Pattern.compile("(?<!\\d)(\\d{1,2})[/.-](\\d{1,2})[/.-](\\d{2}|\\d{4})(?!\\d)");
+    private static final Pattern ISO_DATE = Pattern.compile("(?<!\\d)(\\d{4})-(\\d{1,2})(?:-(\\d{1,2}))?(?!\\d)");
+    // two digits are only a year after an apostrophe or as the last token, since elsewhere they are usually a day
+    private static final Pattern ABBREVIATED_YEAR = Pattern.compile("['\u2019](\\d{2})(?!\\d)");
+    private static final Pattern TRAILING_YEAR = Pattern.compile("(?:^|[\\s,])(\\d{2})[\\s.]*$");
+    private static final Pattern DAY = Pattern.compile("(?<!\\d)(\\d{1,2})(?!\\d)");
+    private static final String[] MONTHS = {"jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"};
+    private static final String[] MONTH_NAMES = {"january", "february", "march", "april", "may", "june", "july",
+            "august", "september", "october", "november", "december"};
+    private static final Pattern WORD = Pattern.compile("\\p{L}+");
+
+    private final TreeMap<String, SortedPostings> authors = new TreeMap<>();
+    private final HashMap<String, SortedPostings> sources = new HashMap<>();
+    private final HashMap<HashKey, Entry> entries = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int pivotYear;
+
+    /**
+     * @param pivotYear the last year a two digit year can stand for, see {@link #parseDate(String, int)}
+     */
+    public CiteIndex(int pivotYear) {
+        this.pivotYear = pivotYear;
+    }
+
+    public CiteIndex() {
+        this(DEFAULT_PIVOT_YEAR);
+    }
+
+    public void add(Card card){
+        Cite cite = card.getCite();
+        Entry entry = new Entry(normalizeAuthor(cite.getAuthor()), normalizeSource(cite.getAdditionalInfo()),
+                parseDate(cite.getDate(), pivotYear));
+        HashKey key = new HashKey(card);
+        lock.writeLock().lock();
+        try {
+            Entry previous = entries.put(key, entry);
+            if (previous != null){
+                unlink(key, previous);
+            }
+            authors.computeIfAbsent(entry.author, k -> new SortedPostings()).insert(entry.date, key);
+            sources.computeIfAbsent(entry.source, k -> new SortedPostings()).insert(entry.date, key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(byte[] hash){
+        HashKey key = new HashKey(hash);
+        lock.writeLock().lock();
+        try {
+            Entry previous = entries.remove(key);
+            if (previous != null){
+                unlink(key, previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unlink(HashKey key, Entry entry){
+        SortedPostings author = authors.get(entry.author);
+        if (author.remove(entry.date, key) && author.size == 0){
+            authors.remove(entry.author);
+        }
+        SortedPostings source = sources.get(entry.source);
+        if (source.remove(entry.date, key) && source.size == 0){
+            sources.remove(entry.source);
+        }
+    }
+
+    @Override
+    public void cardStored(Card card) {
+        add(card);
+    }
+
+    @Override
+    public void cardDeleted(byte[] hash) {
+        remove(hash);
+    }
+
+    /**
+     * @param fromDate inclusive date key, see {@link #dateKey(int, int, int)}
+     * @param toDate inclusive date key
+     * @return hashes of the cards by the author in the date range, oldest first
+     */
+    public List<byte[]> getCardsByAuthor(String author, int fromDate, int toDate){
+        lock.readLock().lock();
+        try {
+            List<byte[]> cards = new ArrayList<>();
+            SortedPostings postings = authors.get(normalizeAuthor(author));
+            if (postings != null){
+                postings.collect(fromDate, toDate, cards);
+            }
+            return cards;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<byte[]> getCardsByAuthorSince(String author, int fromDate){
+        return getCardsByAuthor(author, fromDate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #getCardsByAuthor(String, int, int)}, over every author whose normalized name starts with the prefix
+     */
+    public List<byte[]> getCardsByAuthorPrefix(String prefix, int fromDate, int toDate){
+        String normalized = normalizeAuthor(prefix);
+        lock.readLock().lock();
+        try {
+            List<byte[]> cards = new ArrayList<>();
+            NavigableMap<String, SortedPostings> matching = authors.subMap(normalized, true, normalized + Character.MAX_VALUE, false);
+            for (SortedPostings postings:matching.values()){
+                postings.collect(fromDate, toDate, cards);
+            }
+            return cards;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the normalized names of all authors starting with the prefix, in order
+     */
+    public List<String> getAuthorsByPrefix(String prefix){
+        String normalized = normalizeAuthor(prefix);
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(authors.subMap(normalized, true, normalized + Character.MAX_VALUE, false).keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return hashes of up to limit cards from the source, newest first
+     */
+    public List<byte[]> getMostRecentBySource(String source, int limit){
+        lock.readLock().lock();
+        try {
+            List<byte[]> cards = new ArrayList<>();
+            SortedPostings postings = sources.get(normalizeSource(source));
+            if (postings != null){
+                for (int i = postings.size - 1; i >= 0 && cards.size() < limit; i--){
+                    cards.add(postings.cards[i].getHash());
+                }
+            }
+            return cards;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the newest card of every source, keyed by normalized source
+     */
+    public Map<String, byte[]> getMostRecentPerSource(){
+        lock.readLock().lock();
+        try {
+            Map<String, byte[]> mostRecent = new LinkedHashMap<>();
+            for (Map.Entry<String, SortedPostings> source:sources.entrySet()){
+                SortedPostings postings = source.getValue();
+                mostRecent.put(source.getKey(), postings.cards[postings.size - 1].getHash());
+            }
+            return mostRecent;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static int dateKey(int year, int month, int day){
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Lowercases, strips accents and punctuation, drops "et al" and collapses whitespace
+     */
+    public static String normalizeAuthor(String author){
+        if (author == null){
+            return "";
+        }
+        String normalized = Normalizer.normalize(author, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        normalized = normalized.toLowerCase(Locale.ROOT).replaceAll("\\bet al\\b\\.?", " ");
+        normalized = normalized.replaceAll("[^\\p{L}\\p{N}]+", " ");
+        return normalized.trim();
+    }
+
+    /**
+     * The source is taken to be the first comma separated part of the additional info, which is where the
+     * publication usually goes
+     */
+    public static String normalizeSource(String additionalInfo){
+        if (additionalInfo == null){
+            return "";
+        }
+        int comma = additionalInfo.indexOf(',');
+        String source = comma >= 0 ? additionalInfo.substring(0, comma) : additionalInfo;
+        return normalizeAuthor(source);
+    }
+
+    /**
+     * Parses with the {@link #DEFAULT_PIVOT_YEAR}, see {@link #parseDate(String, int)}
+     */
+    public static int parseDate(String date){
+        return parseDate(date, DEFAULT_PIVOT_YEAR);
+    }
+
+    /**
+     * Parses the common ways dates are written in cites, such as "2018", "'18", "3/14/19", "2019-03-14" and
+     * "March 14, 2019". A lone two digit number only counts as a year after an apostrophe or at the end, and not
+     * right after a month, where it is a day.
+     * @param pivotYear the last year a two digit year can stand for, so that the same cite always parses the same
+     * @return a yyyymmdd key with unknown parts left 0, or {@link #UNKNOWN_DATE} if no year could be found
+     */
+    public static int parseDate(String date, int pivotYear){
+        if (date == null || date.isEmpty()){
+            return UNKNOWN_DATE;
+        }
+        String lower = date.toLowerCase(Locale.ROOT);
+        Matcher matcher = ISO_DATE.matcher(lower);
+        if (matcher.find()){
+            int day = matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3));
+            return checkedKey(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), day);
+        }
+        matcher = NUMERIC_DATE.matcher(lower);
+        if (matcher.find()){
+            return checkedKey(fullYear(matcher.group(3), pivotYear), Integer.parseInt(matcher.group(1)),
+                    Integer.parseInt(matcher.group(2)));
+        }
+        int year;
+        String rest;
+        matcher = FOUR_DIGIT_YEAR.matcher(lower);
+        if (matcher.find()){
+            year = Integer.parseInt(matcher.group(1) + matcher.group(2));
+            rest = lower.substring(0, matcher.start()) + " " + lower.substring(matcher.end());
+        }else{
+            matcher = ABBREVIATED_YEAR.matcher(lower);
+            if (!matcher.find()){
+                matcher = TRAILING_YEAR.matcher(lower);
+                if (!matcher.find() || followsMonth(lower, matcher.start(1))){
+                    return UNKNOWN_DATE;
+                }
+            }
+            year = fullYear(matcher.group(1), pivotYear);
+            rest = lower.substring(0, matcher.start(1)) + " " + lower.substring(matcher.end(1));
+        }
+        int month = 0;
+        Matcher word = WORD.matcher(rest);
+        while (month == 0 && word.find()){
+            month = monthOf(word.group());
+        }
+        int day = 0;
+        if (month != 0){
+            Matcher dayMatcher = DAY.matcher(rest);
+            if (dayMatcher.find()){
+                day = Integer.parseInt(dayMatcher.group(1));
+            }
+        }
+        return checkedKey(year, month, day);
+    }
+
+    private static boolean followsMonth(String date, int position){
+        String before = date.substring(0, position).replaceAll("[\\s.,]+$", "");
+        int start = before.length();
+        while (start > 0 && Character.isLetter(before.charAt(start - 1))){
+            start--;
+        }
+        return monthOf(before.substring(start)) != 0;
+    }
+
+    /**
+     * @return the month a whole word names, abbreviated or in full, or 0, so that "mar" in "marshall" isn't a month
+     */
+    private static int monthOf(String word){
+        for (int i = 0; i < MONTHS.length; i++){
+            if (word.startsWith(MONTHS[i]) && MONTH_NAMES[i].startsWith(word)){
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int fullYear(String year, int pivotYear){
+        int value = Integer.parseInt(year);
+        if (year.length() == 4){
+            return value;
+        }
+        // the hundred years ending with the pivot
+        int century = pivotYear / 100 * 100;
+        return century + value > pivotYear ? century - 100 + value : century + value;
+    }
+
+    private static int checkedKey(int year, int month, int day){
+        if (month < 0 || month > 12){
+            month = 0;
+        }
+        if (day < 0 || day > 31){
+            day = 0;
+        }
+        return dateKey(year, month, day);
+    }
+
+    private static class Entry {
+        private final String author;
+        private final String source;
+        private final int date;
+
+        private Entry(String author, String source, int date) {
+            this.author = author;
+            this.source = source;
+            this.date = date;
+        }
+    }
+
+    /**
+     * Card hashes kept in parallel with their date keys, sorted by date
+     */
+    private static class SortedPostings {
+        private int[] dates = new int[4];
+        private HashKey[] cards = new HashKey[4];
+        private int size = 0;
+
+        private void insert(int date, HashKey card){
+            // insert after any equal dates, so cards with the same date stay in insertion order
+            int index = upperBound(date);
+            if (size == dates.length){
+                dates = Arrays.copyOf(dates, size * 2);
+                cards = Arrays.copyOf(cards, size * 2);
+            }
+            System.arraycopy(dates, index, dates, index + 1, size - index);
+            System.arraycopy(cards, index, cards, index + 1, size - index);
+            dates[index] = date;
+            cards[index] = card;
+            size++;
+        }
+
+        private boolean remove(int date, HashKey card){
+            for (int i = lowerBound(date); i < size && dates[i] == date; i++){
+                if (cards[i].equals(card)){
+                    System.arraycopy(dates, i + 1, dates, i, size - i - 1);
+                    System.arraycopy(cards, i + 1, cards, i, size - i - 1);
+                    size--;
+                    cards[size] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void collect(int fromDate, int toDate, List<byte[]> out){
+            for (int i = lowerBound(fromDate); i < size && dates[i] <= toDate; i++){
+                out.add(cards[i].getHash());
+            }
+        }
+
+        // first index with a date >= the given one
+        private int lowerBound(int date){
+            int low = 0;
+            int high = size;
+            while (low < high){
+                int mid = (low + high) >>> 1;
+                if (dates[mid] < date){
+                    low = mid + 1;
+                }else{
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // first index with a date > the given one
+        private int upperBound(int date){
+            int low = 0;
+            int high = size;
+            while (low < high){
+                int mid = (low + high) >>> 1;
+                if (dates[mid] <= date){
+                    low = mid + 1;
+                }else{
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.index;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Interns tag strings to dense int ids, so that tags can be stored and compared as ints across the library
+ */
+public class TagDictionary {
+    public static final int NO_TAG = -1;
+
+    private final TObjectIntHashMap<String> ids = new TObjectIntHashMap<>();
+    private final List<String> tags = new ArrayList<>();
+
+    /**
+     * @return the id of the tag, assigning the next free one if the tag has not been seen before
+     */
+    public synchronized int intern(String tag){
+        if (ids.containsKey(tag)){
+            return ids.get(tag);
+        }
+        int id = tags.size();
+        tags.add(tag);
+        ids.put(tag, id);
+        return id;
+    }
+
+    /**
+     * @return the id of the tag, or {@link #NO_TAG} if it has never been interned
+     */
+    public synchronized int getId(String tag){
+        if (ids.containsKey(tag)){
+            return ids.get(tag);
+        }
+        return NO_TAG;
+    }
+
+    public synchronized String getTag(int id){
+        return tags.get(id);
+    }
+
+    public synchronized int size(){
+        return tags.size();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.index;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.storage.CardStoreListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Library wide index from tags to the cards carrying them.
+ * <p>
+ * Each indexed card keeps a sorted array of interned tag ids, and each tag id keeps a posting set of card hashes, so
+ * finding the cards with a tag is a lookup rather than a scan. Once installed with {@link #setLibraryIndex(TagIndex)},
+ * cards report their own tag changes, and cards report their tags when they are loaded from storage. Cards that are
+ * stored but never loaded need to be added with {@link #update(Card)}, or follow a
+ * {@link org.debatetool.core.storage.CardStore} the index listens to.
+ */
+public class TagIndex implements CardStoreListener {
+    private static volatile TagIndex libraryIndex = null;
+
+    private final TagDictionary dictionary;
+    private final HashMap<HashKey, int[]> cardTags = new HashMap<>();
+    // indexed by tag id
+    private final List<Set<HashKey>> postings = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public TagIndex(TagDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public TagIndex() {
+        this(new TagDictionary());
+    }
+
+    /**
+     * @return the index cards report tag changes to, or null if there is none
+     */
+    public static TagIndex getLibraryIndex() {
+        return libraryIndex;
+    }
+
+    public static void setLibraryIndex(TagIndex index) {
+        libraryIndex = index;
+    }
+
+    public TagDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Replaces whatever tags were indexed for the card with its current tags
+     */
+    public void update(Card card){
+        HashKey key = new HashKey(card);
+        lock.writeLock().lock();
+        try {
+            // read under the lock, so that of two updates racing for one card the later sees the later tags
+            int[] ids = toIds(card.getTags());
+            int[] previous = cardTags.put(key, ids);
+            if (previous != null){
+                for (int id:previous){
+                    if (Arrays.binarySearch(ids, id) < 0){
+                        postings.get(id).remove(key);
+                    }
+                }
+            }
+            for (int id:ids){
+                while (postings.size() <= id){
+                    postings.add(new HashSet<>());
+                }
+                postings.get(id).add(key);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void cardStored(Card card) {
+        update(card);
+    }
+
+    @Override
+    public void cardDeleted(byte[] hash) {
+        remove(hash);
+    }
+
+    public void remove(byte[] hash){
+        HashKey key = new HashKey(hash);
+        lock.writeLock().lock();
+        try {
+            int[] previous = cardTags.remove(key);
+            if (previous != null){
+                for (int id:previous){
+                    postings.get(id).remove(key);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the sorted tag ids indexed for the card, or an empty array if it is not indexed
+     */
+    public int[] getTagIds(byte[] hash){
+        lock.readLock().lock();
+        try {
+            int[] ids = cardTags.get(new HashKey(hash));
+            return ids == null ? new int[0] : ids.clone();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<byte[]> getCardsWithTag(String tag){
+        return getCardsWithAllTags(Collections.singletonList(tag));
+    }
+
+    /**
+     * @return hashes of the cards carrying every one of the given tags
+     */
+    public List<byte[]> getCardsWithAllTags(Collection<String> tags){
+        int[] ids = new int[tags.size()];
+        int i = 0;
+        for (String tag:tags){
+            ids[i] = dictionary.getId(tag);
+            if (ids[i] == TagDictionary.NO_TAG){
+                return new ArrayList<>();
+            }
+            i++;
+        }
+        List<byte[]> cards = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // walk the smallest posting set and probe the others
+            Set<HashKey> smallest = null;
+            for (int id:ids){
+                Set<HashKey> posting = getPosting(id);
+                if (smallest == null || posting.size() < smallest.size()){
+                    smallest = posting;
+                }
+            }
+            if (smallest == null){
+                return cards;
+            }
+            candidates:
+            for (HashKey card:smallest){
+                for (int id:ids){
+                    if (!getPosting(id).contains(card)){
+                        continue candidates;
+                    }
+                }
+                cards.add(card.getHash());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return cards;
+    }
+
+    public int countCardsWithTag(String tag){
+        int id = dictionary.getId(tag);
+        if (id == TagDictionary.NO_TAG){
+            return 0;
+        }
+        lock.readLock().lock();
+        try {
+            return getPosting(id).size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Set<HashKey> getPosting(int id){
+        if (id >= postings.size()){
+            return Collections.emptySet();
+        }
+        return postings.get(id);
+    }
+
+    private int[] toIds(List<String> tags){
+        int[] ids = new int[tags.size()];
+        for (int i = 0; i < ids.length; i++){
+            ids[i] = dictionary.intern(tags.get(i));
+        }
+        Arrays.sort(ids);
+        // tags are unique per card already, but setTags does not enforce it
+        int unique = 0;
+        for (int i = 0; i < ids.length; i++){
+            if (i == 0 || ids[i] != ids[i-1]){
+                ids[unique++] = ids[i];
+            }
+        }
+        return unique == ids.length ? ids : Arrays.copyOf(ids, unique);
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.OverlayLayer;
+import org.debatetool.core.Speech;
+import org.debatetool.core.SpeechElementContainer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Turns the headings and paragraphs found by a parser into cards, blocks and speeches, and hands them to the sink.
+ * <p>
+ * Level 1 headings start a speech, levels 2 and 3 a block and deeper levels a card, whose first paragraph is its cite
+ * and the rest its text. Other paragraphs in a block become analytics. Containers only ever hold stubs of their cards
+ * and blocks, so memory use does not grow with the size of the source.
+ */
+final class DocumentBuilder {
+    static final String OVERLAY_NAME = "Imported";
+
+    private final IngestionSink sink;
+    private final Executor executor;
+    private final int batchSize;
+    private final Semaphore batchesInFlight;
+    private final String defaultBlockName;
+
+    private Speech speech = null;
+    private Block block = null;
+    private boolean inCard = false;
+    private String tag;
+    private String cite;
+    private final ParagraphBuffer body = new ParagraphBuffer();
+
+    private List<Card> batchCards;
+    private List<HashMap<String, List<CardOverlay>>> batchOverlays;
+    private long batchSequence = 0;
+
+    // guarded by this
+    private long completedThrough = -1;
+    private final TreeSet<Long> completedOutOfOrder = new TreeSet<>();
+    private final ArrayDeque<PendingContainer> pendingContainers = new ArrayDeque<>();
+    private int outstanding = 0;
+    private IOException failure = null;
+    // held while handing containers to the sink, so that they arrive one at a time and in order
+    private final Object deliveryLock = new Object();
+
+    private long cards = 0;
+    private long skippedCards = 0;
+    private long analytics = 0;
+    private long blocks = 0;
+    private long speeches = 0;
+
+    DocumentBuilder(IngestionSink sink, Executor executor, int batchSize, int maxBatchesInFlight,
+                    String defaultBlockName) {
+        this.sink = sink;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.batchesInFlight = new Semaphore(maxBatchesInFlight);
+        this.defaultBlockName = defaultBlockName;
+        newBatch();
+    }
+
+    void heading(int level, String text) throws IOException {
+        finishCard();
+        if (level == 1){
+            finishBlock();
+            finishSpeech();
+            speech = new Speech(text);
+        }else if (level <= 3){
+            finishBlock();
+            startBlock(text);
+        }else{
+            inCard = true;
+            tag = text;
+            cite = null;
+            body.clear();
+        }
+    }
+
+    void paragraph(ParagraphBuffer paragraph) throws IOException {
+        if (paragraph.isEmpty()){
+            return;
+        }
+        if (inCard){
+            if (cite == null){
+                cite = paragraph.toString();
+            }else{
+                body.appendParagraph(paragraph);
+            }
+        }else if (block != null){
+            block.addComponent(new Analytic(paragraph.toString()));
+            analytics++;
+        }
+        // anything before the first heading is front matter
+    }
+
+    private void startBlock(String name){
+        block = new Block(name);
+        if (speech != null){
+            speech.addComponent(new Block(block.getHash()));
+        }
+    }
+
+    private void finishCard() throws IOException {
+        if (!inCard){
+            return;
+        }
+        inCard = false;
+        if (cite == null || body.isEmpty()){
+            skippedCards++;
+            return;
+        }
+        Card card = new Card(parseCite(cite), body.toString());
+        if (!tag.isEmpty()){
+            card.addTag(tag);
+        }
+        HashMap<String, List<CardOverlay>> overlays = new HashMap<>();
+        addLayer(overlays, OverlayLayer.UNDERLINE);
+        addLayer(overlays, OverlayLayer.HIGHLIGHT);
+        if (block == null && speech == null){
+            startBlock(defaultBlockName);
+        }
+        SpeechElementContainer parent = block != null ? block : speech;
+        parent.addComponent(new Card(card.getHash()));
+        cards++;
+        batchCards.add(card);
+        batchOverlays.add(overlays);
+        if (batchCards.size() >= batchSize){
+            dispatchBatch();
+        }
+    }
+
+    private void addLayer(HashMap<String, List<CardOverlay>> overlays, OverlayLayer layer){
+        CardOverlay overlay = toOverlay(body.runLengths, body.runTypes, layer.getBit());
+        if (overlay != null){
+            overlays.put(layer.getName(), Collections.singletonList(overlay));
+        }
+    }
+
+    /**
+     * @return the runs carrying the bit as an overlay of that bit alone, or null if no run carries it
+     */
+    static CardOverlay toOverlay(TIntArrayList runLengths, TByteArrayList runTypes, byte bit){
+        CardOverlay overlay = new CardOverlay(OVERLAY_NAME);
+        boolean marked = false;
+        int length = 0;
+        byte type = 0x0;
+        for (int i = 0; i < runLengths.size(); i++){
+            byte runType = (byte) (runTypes.get(i) & bit);
+            if (length > 0 && runType != type){
+                overlay.addRun(length, type);
+                length = 0;
+            }
+            marked |= runType != 0;
+            type = runType;
+            length += runLengths.get(i);
+        }
+        overlay.addRun(length, type);
+        return marked ? overlay : null;
+    }
+
+    /**
+     * Splits a cite line such as "Smith 19 (John Smith, Professor, Journal)" into author, date and the rest
+     */
+    static Cite parseCite(String line){
+        int infoStart = line.length();
+        for (int i = 0; i < line.length(); i++){
+            char c = line.charAt(i);
+            if (c == '(' || c == '['){
+                infoStart = i;
+                break;
+            }
+        }
+        String head = line.substring(0, infoStart).trim();
+        String info = line.substring(infoStart).trim();
+        if (info.length() >= 2 && (info.charAt(0) == '(' && info.endsWith(")") || info.charAt(0) == '['
+                && info.endsWith("]"))){
+            info = info.substring(1, info.length() - 1).trim();
+        }
+        int lastSpace = head.lastIndexOf(' ');
+        String date = head.substring(lastSpace + 1);
+        if (lastSpace < 0 || !containsDigit(date)){
+            return new Cite(head, "", info);
+        }
+        return new Cite(head.substring(0, lastSpace).trim(), date, info);
+    }
+
+    private static boolean containsDigit(String s){
+        for (int i = 0; i < s.length(); i++){
+            if (Character.isDigit(s.charAt(i))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void finishBlock(){
+        if (block != null){
+            queueContainer(block);
+            blocks++;
+            block = null;
+        }
+    }
+
+    private void finishSpeech(){
+        if (speech != null){
+            queueContainer(speech);
+            speeches++;
+            speech = null;
+        }
+    }
+
+    // the container is handed over once the batch being filled, which holds its last cards, has been accepted
+    private synchronized void queueContainer(SpeechElementContainer container){
+        if (failure != null){
+            return;
+        }
+        pendingContainers.add(new PendingContainer(batchSequence, container));
+    }
+
+    private void newBatch(){
+        batchCards = new ArrayList<>(batchSize);
+        batchOverlays = new ArrayList<>(batchSize);
+    }
+
+    private void dispatchBatch() throws IOException {
+        synchronized (this){
+            if (failure != null){
+                // the sink is failing, so abort the read rather than parse the rest of the document for nothing
+                awaitOutstanding();
+                throw failure;
+            }
+        }
+        IngestBatch batch = new IngestBatch(batchCards, batchOverlays);
+        long sequence = batchSequence++;
+        newBatch();
+        try {
+            batchesInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        synchronized (this){
+            outstanding++;
+        }
+        executor.execute(() -> {
+            try {
+                if (batch.size() > 0){
+                    sink.acceptCards(batch);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            } finally {
+                batchesInFlight.release();
+                batchCompleted(sequence);
+            }
+        });
+    }
+
+    private void batchCompleted(long sequence){
+        synchronized (this){
+            completedOutOfOrder.add(sequence);
+            while (completedOutOfOrder.remove(completedThrough + 1)){
+                completedThrough++;
+            }
+        }
+        synchronized (deliveryLock){
+            while (true){
+                PendingContainer next;
+                synchronized (this){
+                    if (failure != null){
+                        // a container may refer to cards of a batch that failed, so none are delivered after it
+                        pendingContainers.clear();
+                        break;
+                    }
+                    next = pendingContainers.peek();
+                    if (next == null || next.batch > completedThrough){
+                        break;
+                    }
+                    pendingContainers.poll();
+                }
+                try {
+                    sink.acceptContainer(next.container);
+                } catch (IOException | RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }
+        synchronized (this){
+            outstanding--;
+            notifyAll();
+        }
+    }
+
+    private synchronized void fail(Exception e){
+        if (failure == null){
+            failure = e instanceof IOException ? (IOException) e : new IOException(e);
+        }else{
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Finishes whatever is open, then waits until the sink has everything
+     * @throws IOException the first failure of the sink, if any
+     */
+    IngestResult finish() throws IOException {
+        finishCard();
+        finishBlock();
+        finishSpeech();
+        // always dispatched, even empty, as the containers just finished wait on it
+        dispatchBatch();
+        synchronized (this){
+            awaitOutstanding();
+            if (failure != null){
+                throw failure;
+            }
+        }
+        return new IngestResult(cards, skippedCards, analytics, blocks, speeches);
+    }
+
+    private synchronized void awaitOutstanding() throws IOException {
+        try {
+            while (outstanding > 0){
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static final class PendingContainer {
+        private final long batch;
+        private final SpeechElementContainer container;
+
+        private PendingContainer(long batch, SpeechElementContainer container) {
+            this.batch = batch;
+            this.container = container;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+import org.debatetool.core.storage.StorageContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Bulk loads cards, blocks and speeches from HTML or plain text evidence files.
+ * <p>
+ * Sources are read incrementally through a channel and decoded a buffer at a time, and finished cards are handed to
+ * the {@link IngestionSink} in batches on an executor while reading carries on. At most a fixed number of batches are
+ * in flight; reading waits for the sink beyond that, so an import of any size runs in bounded memory. Reading one
+ * source is sequential, but one ingester can read several sources at once.
+ */
+public class EvidenceIngester {
+    public enum Format {
+        HTML, TEXT;
+
+        /**
+         * @return HTML for .htm and .html files, otherwise TEXT
+         */
+        public static Format forPath(Path path){
+            String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".html") || name.endsWith(".htm") ? HTML : TEXT;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final IngestionSink sink;
+    private final Executor executor;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+    private volatile String defaultBlockName = "Imported";
+
+    public EvidenceIngester(IngestionSink sink, Executor executor, int batchSize, int maxBatchesInFlight) {
+        if (batchSize <= 0 || maxBatchesInFlight <= 0){
+            throw new IllegalArgumentException("Batch size and batches in flight must be positive");
+        }
+        this.sink = sink;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    /**
+     * Hands batches to the sink on the {@link StorageContext#getIOExecutor() storage executor}, since sinks write
+     */
+    public EvidenceIngester(IngestionSink sink) {
+        this(sink, StorageContext.getIOExecutor(), 256, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param defaultBlockName the name of the block created for cards found outside any speech or block
+     */
+    public void setDefaultBlockName(String defaultBlockName) {
+        this.defaultBlockName = defaultBlockName;
+    }
+
+    /**
+     * Reads the whole source, returning once the sink has received everything in it
+     * @throws IOException if reading fails, or the first failure of the sink
+     */
+    public IngestResult ingest(ReadableByteChannel channel, Charset charset, Format format) throws IOException {
+        DocumentBuilder builder = new DocumentBuilder(sink, executor, batchSize, maxBatchesInFlight,
+                defaultBlockName);
+        EvidenceParser parser = format == Format.HTML ? new HtmlEvidenceParser(builder)
+                : new TextEvidenceParser(builder);
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        boolean endOfInput = false;
+        while (!endOfInput){
+            endOfInput = channel.read(bytes) < 0;
+            bytes.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                feed(parser, chars);
+            } while (result.isOverflow());
+            bytes.compact();
+        }
+        CoderResult result;
+        do {
+            result = decoder.flush(chars);
+            feed(parser, chars);
+        } while (result.isOverflow());
+        parser.finish();
+        return builder.finish();
+    }
+
+    private static void feed(EvidenceParser parser, CharBuffer chars) throws IOException {
+        chars.flip();
+        parser.feed(chars);
+        chars.clear();
+    }
+
+    /**
+     * Reads a UTF-8 file, as HTML or plain text depending on its extension
+     */
+    public IngestResult ingest(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return ingest(channel, StandardCharsets.UTF_8, Format.forPath(path));
+        }
+    }
+
+    /**
+     * @return a sink that stores everything in the given context
+     */
+    public static IngestionSink storageSink(StorageContext storage){
+        return new IngestionSink() {
+            @Override
+            public void acceptCards(IngestBatch batch) throws IOException {
+                storage.storeSpeechComponents(new ArrayList<HashIdentifiedSpeechComponent>(batch.getCards()));
+                for (int i = 0; i < batch.size(); i++){
+                    byte[] hash = batch.getCard(i).getHash();
+                    for (Map.Entry<String, List<CardOverlay>> overlays:batch.getOverlays(i).entrySet()){
+                        storage.saveOverlays(hash, overlays.getValue(), overlays.getKey());
+                    }
+                }
+            }
+
+            @Override
+            public void acceptContainer(SpeechElementContainer container) throws IOException {
+                storage.storeSpeechComponent(container);
+            }
+        };
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Finds headings and paragraphs in a stream of characters, fed to it a buffer at a time
+ */
+interface EvidenceParser {
+    /**
+     * Consumes every character remaining in the buffer
+     */
+    void feed(CharBuffer chars) throws IOException;
+
+    /**
+     * Called after the last buffer, to emit anything still open
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,364 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import gnu.trove.list.array.TByteArrayList;
+import org.debatetool.core.CardOverlay;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads HTML as exported by word processors. Headings h1 to h6 give the structure, block elements separate paragraphs,
+ * and underlining and highlighting are taken from u, ins, mark and h elements, from the text-decoration,
+ * text-underline, background and mso-highlight declarations of style attributes, and from underline and highlight
+ * class names.
+ * <p>
+ * The parser is a small state machine rather than a DOM parser, so it holds no more than the current paragraph and
+ * tag, and it tolerates the unclosed and misnested tags common in exported documents. Inline formatting does not
+ * carry across headings and block elements, which word processors close and reopen in every paragraph, so an element
+ * left unclosed only affects the rest of its paragraph.
+ */
+final class HtmlEvidenceParser implements EvidenceParser {
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int ENTITY = 2;
+    private static final int COMMENT = 3;
+
+    // longer tags are still skipped, but only this much of them is read
+    private static final int MAX_TAG_LENGTH = 2048;
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    // style and class attributes, with double, single or no quotes
+    private static final Pattern ATTRIBUTE =
+            Pattern.compile("(?i)(?:^|\\s)(style|class)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+    // backgrounds that leave text looking unhighlighted
+    private static final Set<String> UNHIGHLIGHTED = new HashSet<>(Arrays.asList("white", "transparent", "none",
+            "#fff", "#ffffff", "rgb(255,255,255)", "window", "inherit", "initial", "unset"));
+
+    private final DocumentBuilder builder;
+    private final ParagraphBuffer paragraph = new ParagraphBuffer();
+    private final ParagraphBuffer heading = new ParagraphBuffer();
+    private final StringBuilder tag = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder();
+    private int state = TEXT;
+    private int tagLength = 0;
+    private int headingLevel = 0;
+    // script and style elements being skipped
+    private int skipDepth = 0;
+
+    // open inline elements and the overlay type each adds
+    private final ArrayList<String> openElements = new ArrayList<>();
+    private final TByteArrayList openTypes = new TByteArrayList();
+    private byte type = 0x0;
+
+    HtmlEvidenceParser(DocumentBuilder builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public void feed(CharBuffer chars) throws IOException {
+        while (chars.hasRemaining()){
+            char c = chars.get();
+            switch (state){
+                case TEXT:
+                    if (c == '<'){
+                        state = TAG;
+                        tag.setLength(0);
+                        tagLength = 0;
+                    }else if (c == '&'){
+                        state = ENTITY;
+                        entity.setLength(0);
+                    }else{
+                        text(c);
+                    }
+                    break;
+                case TAG:
+                    if (c == '>'){
+                        state = TEXT;
+                        tag(tag.toString());
+                    }else{
+                        if (tagLength < MAX_TAG_LENGTH){
+                            tag.append(c);
+                        }
+                        tagLength++;
+                        if (tagLength == 3 && tag.toString().equals("!--")){
+                            state = COMMENT;
+                            tag.setLength(0);
+                        }
+                    }
+                    break;
+                case ENTITY:
+                    if (c == ';'){
+                        state = TEXT;
+                        entity();
+                    }else if (entity.length() >= MAX_ENTITY_LENGTH || c == '<' || c == '&'
+                            || Character.isWhitespace(c)){
+                        // not an entity, so the ampersand was literal
+                        state = TEXT;
+                        text('&');
+                        for (int i = 0; i < entity.length(); i++){
+                            text(entity.charAt(i));
+                        }
+                        chars.position(chars.position() - 1);
+                    }else{
+                        entity.append(c);
+                    }
+                    break;
+                case COMMENT:
+                    // only the last two characters matter to find the end
+                    if (c == '>' && tag.length() >= 2 && tag.charAt(tag.length() - 1) == '-'
+                            && tag.charAt(tag.length() - 2) == '-'){
+                        state = TEXT;
+                    }
+                    tag.append(c);
+                    if (tag.length() > 2){
+                        tag.delete(0, tag.length() - 2);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void text(char c){
+        if (skipDepth > 0){
+            return;
+        }
+        if (headingLevel > 0){
+            heading.append(c, (byte) 0x0);
+        }else{
+            paragraph.append(c, type);
+        }
+    }
+
+    private void entity(){
+        String name = entity.toString();
+        char c;
+        if (name.startsWith("#x") || name.startsWith("#X")){
+            c = parseCharacter(name.substring(2), 16);
+        }else if (name.startsWith("#")){
+            c = parseCharacter(name.substring(1), 10);
+        }else{
+            switch (name){
+                case "amp": c = '&'; break;
+                case "lt": c = '<'; break;
+                case "gt": c = '>'; break;
+                case "quot": c = '"'; break;
+                case "apos": c = '\''; break;
+                case "nbsp": c = '\u00a0'; break;
+                case "ndash": c = '\u2013'; break;
+                case "mdash": c = '\u2014'; break;
+                case "lsquo": c = '\u2018'; break;
+                case "rsquo": c = '\u2019'; break;
+                case "ldquo": c = '\u201c'; break;
+                case "rdquo": c = '\u201d'; break;
+                case "hellip": c = '\u2026'; break;
+                default: c = '\ufffd';
+            }
+        }
+        text(c);
+    }
+
+    private static char parseCharacter(String digits, int radix){
+        try {
+            int codePoint = Integer.parseInt(digits, radix);
+            // characters outside the basic plane are rare in evidence and are replaced
+            return codePoint >= 0 && codePoint <= Character.MAX_VALUE ? (char) codePoint : '\ufffd';
+        } catch (NumberFormatException e) {
+            return '\ufffd';
+        }
+    }
+
+    private void tag(String tag) throws IOException {
+        if (tag.isEmpty() || tag.charAt(0) == '!' || tag.charAt(0) == '?'){
+            return;
+        }
+        boolean closing = tag.charAt(0) == '/';
+        int nameStart = closing ? 1 : 0;
+        int nameEnd = nameStart;
+        while (nameEnd < tag.length() && !Character.isWhitespace(tag.charAt(nameEnd)) && tag.charAt(nameEnd) != '/'){
+            nameEnd++;
+        }
+        String name = tag.substring(nameStart, nameEnd).toLowerCase(Locale.ROOT);
+        boolean selfClosing = tag.endsWith("/");
+        if (name.equals("script") || name.equals("style")){
+            if (!selfClosing){
+                skipDepth = Math.max(0, skipDepth + (closing ? -1 : 1));
+            }
+            return;
+        }
+        if (name.length() == 2 && name.charAt(0) == 'h' && name.charAt(1) >= '1' && name.charAt(1) <= '6'){
+            resetInline();
+            if (closing){
+                endHeading();
+            }else{
+                endHeading();
+                flushParagraph();
+                headingLevel = name.charAt(1) - '0';
+            }
+            return;
+        }
+        switch (name){
+            case "p": case "div": case "li": case "tr": case "td": case "th": case "table": case "blockquote":
+            case "ul": case "ol": case "body":
+                if (headingLevel > 0){
+                    // a heading left open, as in some exports
+                    endHeading();
+                }
+                flushParagraph();
+                resetInline();
+                return;
+            case "br":
+                text(' ');
+                return;
+            // void elements, which have no closing tag to end their formatting
+            case "img": case "hr": case "meta": case "link": case "input": case "col": case "area": case "wbr":
+            case "base": case "source": case "param": case "embed": case "track":
+                return;
+        }
+        if (closing){
+            close(name);
+        }else if (!selfClosing){
+            open(name, typeOf(name, tag.substring(nameEnd)));
+        }
+    }
+
+    private static byte typeOf(String name, String attributes){
+        byte type = 0x0;
+        switch (name){
+            case "u": case "ins":
+                type |= CardOverlay.UNDERLINE;
+                break;
+            case "mark": case "h":
+                type |= CardOverlay.HIGHLIGHT;
+                break;
+        }
+        if (attributes.isEmpty()){
+            return type;
+        }
+        Matcher matcher = ATTRIBUTE.matcher(attributes);
+        while (matcher.find()){
+            String value = matcher.group(2) != null ? matcher.group(2)
+                    : matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+            value = value.toLowerCase(Locale.ROOT);
+            if (matcher.group(1).equalsIgnoreCase("style")){
+                type |= styleType(value);
+            }else{
+                // word processor character styles such as StyleUnderline
+                if (value.contains("underline")){
+                    type |= CardOverlay.UNDERLINE;
+                }
+                if (value.contains("highlight")){
+                    type |= CardOverlay.HIGHLIGHT;
+                }
+            }
+        }
+        return type;
+    }
+
+    // the overlay type of a lower case style attribute, read declaration by declaration
+    private static byte styleType(String style){
+        byte type = 0x0;
+        for (String declaration:style.split(";")){
+            int colon = declaration.indexOf(':');
+            if (colon < 0){
+                continue;
+            }
+            String property = declaration.substring(0, colon).trim();
+            String value = declaration.substring(colon + 1).replace("!important", "").trim();
+            switch (property){
+                case "text-decoration": case "text-decoration-line":
+                    if (value.contains("underline")){
+                        type |= CardOverlay.UNDERLINE;
+                    }
+                    break;
+                case "text-underline":
+                    if (!value.isEmpty() && !value.equals("none")){
+                        type |= CardOverlay.UNDERLINE;
+                    }
+                    break;
+                case "background": case "background-color":
+                    // the colour is the first part of the shorthand, with spaces inside rgb() dropped
+                    String colour = value.replaceAll("\\s*([(,])\\s*", "$1").replaceAll("\\s+\\)", ")")
+                            .split("\\s+")[0];
+                    if (!colour.isEmpty() && !UNHIGHLIGHTED.contains(colour)){
+                        type |= CardOverlay.HIGHLIGHT;
+                    }
+                    break;
+                case "mso-highlight":
+                    if (!value.isEmpty() && !value.equals("none")){
+                        type |= CardOverlay.HIGHLIGHT;
+                    }
+                    break;
+            }
+        }
+        return type;
+    }
+
+    private void open(String name, byte elementType){
+        openElements.add(name);
+        openTypes.add(elementType);
+        type |= elementType;
+    }
+
+    private void close(String name){
+        int index = openElements.lastIndexOf(name);
+        if (index < 0){
+            return;
+        }
+        // closing an element closes anything left open inside it
+        for (int i = openElements.size() - 1; i >= index; i--){
+            openElements.remove(i);
+            openTypes.removeAt(i);
+        }
+        type = 0x0;
+        for (int i = 0; i < openTypes.size(); i++){
+            type |= openTypes.get(i);
+        }
+    }
+
+    private void resetInline(){
+        openElements.clear();
+        openTypes.clear();
+        type = 0x0;
+    }
+
+    private void endHeading() throws IOException {
+        if (headingLevel > 0){
+            builder.heading(headingLevel, heading.toString());
+            heading.clear();
+            headingLevel = 0;
+        }
+    }
+
+    private void flushParagraph() throws IOException {
+        builder.paragraph(paragraph);
+        paragraph.clear();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        endHeading();
+        flushParagraph();
+    }
+}
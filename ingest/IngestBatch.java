@@ -0,0 +1,54 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Cards read by an {@link EvidenceIngester}, each with the overlays taken from its markup
+ */
+public final class IngestBatch {
+    private final List<Card> cards;
+    private final List<HashMap<String, List<CardOverlay>>> overlays;
+
+    IngestBatch(List<Card> cards, List<HashMap<String, List<CardOverlay>>> overlays) {
+        this.cards = cards;
+        this.overlays = overlays;
+    }
+
+    public int size() {
+        return cards.size();
+    }
+
+    public Card getCard(int i) {
+        return cards.get(i);
+    }
+
+    public List<Card> getCards() {
+        return cards;
+    }
+
+    /**
+     * @return the overlays of the i-th card keyed by type (IE "Underline"), empty if its text had no markup
+     */
+    public HashMap<String, List<CardOverlay>> getOverlays(int i) {
+        return overlays.get(i);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+/**
+ * Counts of what one {@link EvidenceIngester#ingest} call read
+ */
+public final class IngestResult {
+    private final long cards;
+    private final long skippedCards;
+    private final long analytics;
+    private final long blocks;
+    private final long speeches;
+
+    IngestResult(long cards, long skippedCards, long analytics, long blocks, long speeches) {
+        this.cards = cards;
+        this.skippedCards = skippedCards;
+        this.analytics = analytics;
+        this.blocks = blocks;
+        this.speeches = speeches;
+    }
+
+    public long getCards() {
+        return cards;
+    }
+
+    /**
+     * @return the number of tags found without a cite or text after them
+     */
+    public long getSkippedCards() {
+        return skippedCards;
+    }
+
+    public long getAnalytics() {
+        return analytics;
+    }
+
+    public long getBlocks() {
+        return blocks;
+    }
+
+    public long getSpeeches() {
+        return speeches;
+    }
+
+    public String toString(){
+        return cards + " cards (" + skippedCards + " skipped), " + analytics + " analytics, " + blocks + " blocks, "
+                + speeches + " speeches";
+    }
+}
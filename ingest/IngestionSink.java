@@ -0,0 +1,38 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import org.debatetool.core.SpeechElementContainer;
+
+import java.io.IOException;
+
+/**
+ * Receives what an {@link EvidenceIngester} reads
+ */
+public interface IngestionSink {
+    /**
+     * Called with each batch of cards as soon as it is full. Batches are handed over on the ingester's executor and
+     * may arrive concurrently and out of order.
+     */
+    void acceptCards(IngestBatch batch) throws IOException;
+
+    /**
+     * Called with each block and speech once it is complete and every batch holding its cards has been accepted.
+     * Containers arrive one at a time, in document order, blocks before the speech containing them. Their cards and
+     * blocks are stubs holding only a hash.
+     */
+    void acceptContainer(SpeechElementContainer container) throws IOException;
+}
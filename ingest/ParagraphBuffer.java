@@ -0,0 +1,98 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Text of one paragraph with the overlay type of every character, kept as runs. Whitespace is collapsed as in HTML,
+ * and characters cards may not contain are dropped, so offsets into the text stay valid for the finished card.
+ */
+final class ParagraphBuffer {
+    final StringBuilder text = new StringBuilder();
+    final TIntArrayList runLengths = new TIntArrayList();
+    final TByteArrayList runTypes = new TByteArrayList();
+    private boolean pendingSpace = false;
+    private byte spaceType = 0x0;
+
+    void append(char c, byte type){
+        if (c == '\0'){
+            return;
+        }
+        if (Character.isWhitespace(c) || c == '\u00a0'){
+            if (pendingSpace){
+                spaceType &= type;
+            }else if (text.length() > 0){
+                pendingSpace = true;
+                spaceType = type;
+            }
+            return;
+        }
+        if (pendingSpace){
+            // a space between two marked words is marked, one at the edge of a marked span is not
+            appendRun(' ', (byte) (spaceType & type));
+            pendingSpace = false;
+        }
+        appendRun(c, type);
+    }
+
+    private void appendRun(char c, byte type){
+        text.append(c);
+        addRun(1, type);
+    }
+
+    private void addRun(int length, byte type){
+        int last = runTypes.size() - 1;
+        if (last >= 0 && runTypes.get(last) == type){
+            runLengths.set(last, runLengths.get(last) + length);
+        }else{
+            runLengths.add(length);
+            runTypes.add(type);
+        }
+    }
+
+    /**
+     * Appends another paragraph, separated from this one by an unmarked space
+     */
+    void appendParagraph(ParagraphBuffer paragraph){
+        if (paragraph.isEmpty()){
+            return;
+        }
+        if (text.length() > 0){
+            appendRun(' ', (byte) 0x0);
+        }
+        text.append(paragraph.text);
+        for (int i = 0; i < paragraph.runLengths.size(); i++){
+            addRun(paragraph.runLengths.get(i), paragraph.runTypes.get(i));
+        }
+    }
+
+    boolean isEmpty(){
+        return text.length() == 0;
+    }
+
+    void clear(){
+        text.setLength(0);
+        runLengths.resetQuick();
+        runTypes.resetQuick();
+        pendingSpace = false;
+    }
+
+    public String toString(){
+        return text.toString();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.ingest;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * Reads plain text, where lines starting with one to six '#' are headings of that level and blank lines separate
+ * paragraphs. Plain text has no markup, so its cards have no overlays.
+ */
+final class TextEvidenceParser implements EvidenceParser {
+    private static final int MAX_HEADING_LEVEL = 6;
+
+    private final DocumentBuilder builder;
+    private final ParagraphBuffer paragraph = new ParagraphBuffer();
+    private final StringBuilder heading = new StringBuilder();
+    private boolean atLineStart = true;
+    private boolean inHeading = false;
+    private boolean lineHasContent = false;
+
+    TextEvidenceParser(DocumentBuilder builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public void feed(CharBuffer chars) throws IOException {
+        while (chars.hasRemaining()){
+            char c = chars.get();
+            if (c == '\r'){
+                continue;
+            }
+            if (c == '\n'){
+                endLine();
+                continue;
+            }
+            if (atLineStart){
+                atLineStart = false;
+                inHeading = c == '#';
+            }
+            if (inHeading){
+                heading.append(c);
+            }else{
+                lineHasContent |= !Character.isWhitespace(c);
+                paragraph.append(c, (byte) 0x0);
+            }
+        }
+    }
+
+    private void endLine() throws IOException {
+        if (inHeading){
+            int level = 0;
+            while (level < heading.length() && heading.charAt(level) == '#'){
+                level++;
+            }
+            if (level <= MAX_HEADING_LEVEL){
+                flushParagraph();
+                builder.heading(level, heading.substring(level).trim());
+            }else{
+                // not a heading after all
+                for (int i = 0; i < heading.length(); i++){
+                    paragraph.append(heading.charAt(i), (byte) 0x0);
+                }
+                paragraph.append('\n', (byte) 0x0);
+            }
+            heading.setLength(0);
+        }else if (!lineHasContent){
+            flushParagraph();
+        }else{
+            paragraph.append('\n', (byte) 0x0);
+        }
+        atLineStart = true;
+        inHeading = false;
+        lineHasContent = false;
+    }
+
+    private void flushParagraph() throws IOException {
+        builder.paragraph(paragraph);
+        paragraph.clear();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!atLineStart){
+            endLine();
+        }
+        flushParagraph();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.benchmark;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.Speech;
+import org.debatetool.core.storage.InMemoryStorageContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates deterministic, realistic looking cards, overlays and speeches for the benchmarks
+ */
+public final class BenchmarkCorpus {
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "a", "in", "that", "is", "for", "nuclear", "deterrence", "policy", "economic",
+            "collapse", "causes", "extinction", "warming", "China", "U.S.", "hegemony", "federal", "government",
+            "should", "substantially", "increase", "its", "\"unprecedented\"", "risk", "escalation", "&", "<",
+            "d\u00e9j\u00e0", "\u2014", "studies", "prove", "(2019)", "impact", "outweighs", "probability", "magnitude", "timeframe"
+    };
+    private static final String[] AUTHORS = {"Smith", "Mearsheimer", "Kroenig", "Brooks and Wohlforth", "Ord",
+            "Baum et al.", "Krugman", "Kahn"};
+    private static final String[] SOURCES = {"Foreign Affairs", "International Security", "New York Times",
+            "Journal of Strategic Studies", "Bulletin of the Atomic Scientists"};
+
+    private final Random random;
+
+    public BenchmarkCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public String text(int length){
+        StringBuilder builder = new StringBuilder(length + 32);
+        while (builder.length() < length){
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        builder.setLength(length);
+        return builder.toString();
+    }
+
+    public Cite cite(){
+        return new Cite(AUTHORS[random.nextInt(AUTHORS.length)], String.valueOf(2000 + random.nextInt(20)),
+                SOURCES[random.nextInt(SOURCES.length)] + ", " + text(40));
+    }
+
+    public Card card(int textLength){
+        Card card = new Card(cite(), text(textLength));
+        card.addTag(text(60));
+        return card;
+    }
+
+    /**
+     * Generates an overlay of exactly the given number of runs covering the text, alternating between unmarked runs
+     * and runs of the given type
+     */
+    public CardOverlay overlay(String name, int textLength, int runs, byte type){
+        if (runs < 1 || runs > textLength || textLength > 0xFFFF){
+            throw new IllegalArgumentException("Cannot split " + textLength + " characters into " + runs + " runs");
+        }
+        // runs - 1 distinct cut points inside the text, so every run is non-empty and the last one ends the text
+        HashSet<Integer> chosen = new HashSet<>();
+        for (int bound = textLength - runs + 1; bound < textLength; bound++){
+            int cut = 1 + random.nextInt(bound);
+            chosen.add(chosen.contains(cut) ? bound : cut);
+        }
+        int[] cuts = new int[runs];
+        int i = 0;
+        for (int cut:chosen){
+            cuts[i++] = cut;
+        }
+        cuts[runs - 1] = textLength;
+        Arrays.sort(cuts);
+        ByteBuffer positions = ByteBuffer.allocate(runs * 2);
+        byte[] types = new byte[runs];
+        int position = 0;
+        for (i = 0; i < runs; i++){
+            positions.putShort((short) (cuts[i] - position));
+            position = cuts[i];
+            types[i] = (i & 1) == 0 ? 0 : type;
+        }
+        return new CardOverlay(name, positions.array(), types);
+    }
+
+    /**
+     * Stores the given number of cards, with one underline and one highlight overlay each, and returns a speech
+     * referencing them through unloaded stubs, as it would be after being opened from storage
+     */
+    public Speech speech(InMemoryStorageContext storage, int elements, int textLength, int runs) throws IOException {
+        Speech speech = new Speech("Benchmark speech");
+        for (int i = 0; i < elements; i++){
+            Card card = card(textLength);
+            storage.storeSpeechComponent(card);
+            storage.saveOverlays(card.getHash(),
+                    Collections.singletonList(overlay("Underline", textLength, runs, CardOverlay.UNDERLINE)), "Underline");
+            storage.saveOverlays(card.getHash(),
+                    Collections.singletonList(overlay("Highlight", textLength, runs / 2, CardOverlay.HIGHLIGHT)), "Highlight");
+            speech.addComponent(new Card(card.getHash()));
+        }
+        return speech;
+    }
+
+    public static HashMap<String, List<CardOverlay>> overlayMap(CardOverlay underline, CardOverlay highlight){
+        HashMap<String, List<CardOverlay>> overlayMap = new HashMap<>();
+        overlayMap.put("Underline", Collections.singletonList(underline));
+        overlayMap.put("Highlight", Collections.singletonList(highlight));
+        return overlayMap;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.benchmark;
+
+import org.debatetool.core.CardOverlay;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BenchmarkCorpusTest {
+    @Test
+    public void overlayRunsAreNonEmptyAndCoverTheText() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(42);
+        int[][] shapes = {{1, 1}, {10, 10}, {100, 1}, {100, 99}, {2000, 150}, {0xFFFF, 400}};
+        for (int[] shape:shapes){
+            CardOverlay overlay = corpus.overlay("o", shape[0], shape[1], CardOverlay.UNDERLINE);
+            assertEquals(shape[1], overlay.getOverlayPositions().size());
+            int total = 0;
+            for (int i = 0; i < overlay.getOverlayPositions().size(); i++){
+                int run = Short.toUnsignedInt(overlay.getOverlayPositions().get(i));
+                assertTrue(run > 0, "empty run");
+                total += run;
+            }
+            assertEquals(shape[0], total);
+        }
+    }
+
+    @Test
+    public void overlayRejectsImpossibleShapes() {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(42);
+        assertThrows(IllegalArgumentException.class, () -> corpus.overlay("o", 10, 0, CardOverlay.UNDERLINE));
+        assertThrows(IllegalArgumentException.class, () -> corpus.overlay("o", 10, 11, CardOverlay.UNDERLINE));
+        assertThrows(IllegalArgumentException.class, () -> corpus.overlay("o", 0x10000, 2, CardOverlay.UNDERLINE));
+    }
+
+    @Test
+    public void sameSeedGivesSameCorpus() {
+        assertEquals(new BenchmarkCorpus(7).text(200), new BenchmarkCorpus(7).text(200));
+    }
+}
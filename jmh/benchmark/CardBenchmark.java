@@ -0,0 +1,73 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.benchmark;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+@State(Scope.Benchmark)
+public class CardBenchmark {
+    @Param({"5000"})
+    public int textLength;
+
+    @Param({"true", "false"})
+    public boolean checkHash;
+
+    private Cite cite;
+    private String text;
+    private Card card;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus(3);
+        cite = corpus.cite();
+        text = corpus.text(textLength);
+        card = new Card(cite, text);
+        serialized = writeToOutput().toByteArray();
+    }
+
+    /**
+     * Hashes a freshly constructed card, as happens for every card on import
+     */
+    @Benchmark
+    public byte[] generateHash(){
+        return new Card(cite, text).getHash();
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream writeToOutput() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(textLength + 256);
+        card.writeToOutput(new DataOutputStream(bytes));
+        return bytes;
+    }
+
+    @Benchmark
+    public Card loadFromInput() throws IOException {
+        return Card.loadFromInput(new DataInputStream(new ByteArrayInputStream(serialized)), checkHash);
+    }
+}
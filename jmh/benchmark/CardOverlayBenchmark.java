@@ -0,0 +1,66 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.benchmark;
+
+import org.debatetool.core.CardOverlay;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class CardOverlayBenchmark {
+    @Param({"5000"})
+    public int textLength;
+
+    @Param({"500"})
+    public int runs;
+
+    private String text;
+    private CardOverlay underline;
+    private CardOverlay highlight;
+    private CardOverlay combined;
+
+    @Setup
+    public void setup(){
+        BenchmarkCorpus corpus = new BenchmarkCorpus(2);
+        text = corpus.text(textLength);
+        underline = corpus.overlay("Underline", textLength, runs, CardOverlay.UNDERLINE);
+        highlight = corpus.overlay("Highlight", textLength, runs / 2, CardOverlay.HIGHLIGHT);
+        combined = CardOverlay.combineOverlays(underline, highlight);
+    }
+
+    @Benchmark
+    public String generateHTML(){
+        return combined.generateHTML(text);
+    }
+
+    @Benchmark
+    public CardOverlay combineOverlays(){
+        return CardOverlay.combineOverlays(underline, highlight);
+    }
+
+    /**
+     * Marks a range in the middle of a fresh copy of the overlay, so includes the cost of copying it
+     */
+    @Benchmark
+    public CardOverlay updateOverlay(){
+        CardOverlay overlay = new CardOverlay("", underline.getOverlayPositionBytes(), underline.getOverlayTypeBytes());
+        overlay.updateOverlay(textLength / 3, textLength / 2, CardOverlay.HIGHLIGHT);
+        return overlay;
+    }
+}
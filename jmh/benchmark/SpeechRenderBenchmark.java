@@ -0,0 +1,79 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.benchmark;
+
+import org.debatetool.core.Speech;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+
+@State(Scope.Benchmark)
+public class SpeechRenderBenchmark {
+    @Param({"300"})
+    public int elements;
+
+    @Param({"5000"})
+    public int textLength;
+
+    @Param({"500"})
+    public int runs;
+
+    private InMemoryStorageContext storage;
+    private Speech speech;
+
+    @Setup
+    public void setup() throws IOException {
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+        speech = new BenchmarkCorpus(4).speech(storage, elements, textLength, runs);
+        storage.storeSpeechComponent(speech);
+        speech.load();
+        // render once so that the cards have their overlays, leaving only the steady state rendering cost
+        speech.getDisplayContent();
+    }
+
+    @TearDown
+    public void tearDown(){
+        StorageContext.setStorageContext(null);
+    }
+
+    @Benchmark
+    public String getDisplayContent(){
+        return speech.getDisplayContent();
+    }
+
+    @Benchmark
+    public String getExportDisplayContent(){
+        return speech.getExportDisplayContent(true);
+    }
+
+    /**
+     * Opens the speech from storage and renders it, including every card and overlay fetch
+     */
+    @Benchmark
+    public String openAndRender() throws IOException {
+        Speech opened = (Speech) storage.retrieveSpeechComponent(speech.getHash());
+        opened.load();
+        return opened.getDisplayContent();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.metrics;
+
+/**
+ * Entry point for instrumentation. Until a recorder is installed every call here reduces to a volatile read and a
+ * branch, so instrumented code pays next to nothing by default.
+ */
+public final class Metrics {
+    public static final String CARD_LOAD = "card.load";
+    public static final String CARD_LOAD_OVERLAY = "card.loadOverlay";
+    public static final String CARD_RENDER = "card.render";
+    public static final String OVERLAY_COMBINE = "overlay.combine";
+    public static final String CONTAINER_LOAD = "container.load";
+    public static final String CONTAINER_DISPLAY = "container.getDisplayContent";
+    public static final String CONTAINER_EXPORT = "container.getExportDisplayContent";
+    public static final String STORAGE_RETRIEVE = "storage.retrieveSpeechComponent";
+    public static final String STORAGE_GET_OVERLAYS = "storage.getOverlays";
+    public static final String STORAGE_LOAD_ALL = "storage.loadAll";
+    public static final String GENERATE_HASH = "component.generateHash";
+    public static final String PERFORM_HASH = "component.performHash";
+
+    private static volatile MetricsRecorder recorder = NoOpMetricsRecorder.INSTANCE;
+
+    private Metrics(){}
+
+    public static MetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * @param recorder the recorder to send measurements to, or null to stop recording
+     */
+    public static void setRecorder(MetricsRecorder recorder) {
+        Metrics.recorder = recorder == null ? NoOpMetricsRecorder.INSTANCE : recorder;
+    }
+
+    public static boolean isEnabled(){
+        return recorder.isEnabled();
+    }
+
+    /**
+     * @return a start time to pass to {@link #stopTimer(String, long)}, or 0 if nothing is being recorded
+     */
+    public static long startTimer(){
+        return recorder.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    public static void stopTimer(String name, long start){
+        if (start != 0){
+            recorder.recordLatency(name, System.nanoTime() - start);
+        }
+    }
+
+    public static Span startSpan(String name){
+        return recorder.startSpan(name);
+    }
+
+    public static void increment(String name){
+        increment(name, 1);
+    }
+
+    public static void increment(String name, long delta){
+        MetricsRecorder recorder = Metrics.recorder;
+        if (recorder.isEnabled()){
+            recorder.incrementCounter(name, delta);
+        }
+    }
+
+    public static void recordValue(String name, long value){
+        MetricsRecorder recorder = Metrics.recorder;
+        if (recorder.isEnabled()){
+            recorder.recordValue(name, value);
+        }
+    }
+}
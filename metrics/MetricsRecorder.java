@@ -0,0 +1,51 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.metrics;
+
+/**
+ * Receives the measurements taken on the hot paths of the library. Implementations must be thread safe and should
+ * return quickly, as they are called from inside loading and rendering.
+ */
+public interface MetricsRecorder {
+    /**
+     * @return false if measurements would be discarded, in which case callers skip taking them
+     */
+    boolean isEnabled();
+
+    void incrementCounter(String name, long delta);
+
+    /**
+     * Records a value into the histogram with the given name
+     */
+    void recordValue(String name, long value);
+
+    /**
+     * Records the duration of an operation, in nanoseconds
+     */
+    default void recordLatency(String name, long nanos){
+        recordValue(name, nanos);
+    }
+
+    /**
+     * Starts a trace span, which is closed when the operation finishes. By default a span only records its latency and
+     * knows nothing of other spans. The library closes spans on the thread that started them, innermost first, so
+     * recorders that forward to a tracing system can nest them by keeping the current span in a thread local.
+     */
+    default Span startSpan(String name){
+        long start = System.nanoTime();
+        return () -> recordLatency(name, System.nanoTime() - start);
+    }
+}
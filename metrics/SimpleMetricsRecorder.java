@@ -0,0 +1,119 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A self contained recorder keeping counters and power of two bucketed histograms in memory, for when no metrics
+ * system is available or for ad hoc profiling
+ */
+public class SimpleMetricsRecorder implements MetricsRecorder {
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void incrementCounter(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    @Override
+    public void recordValue(String name, long value) {
+        histograms.computeIfAbsent(name, k -> new Histogram()).record(value);
+    }
+
+    public long getCounter(String name){
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    public Histogram getHistogram(String name){
+        return histograms.get(name);
+    }
+
+    public void reset(){
+        counters.clear();
+        histograms.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, LongAdder> entry:new TreeMap<>(counters).entrySet()){
+            builder.append(entry.getKey()).append(": ").append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry:new TreeMap<>(histograms).entrySet()){
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Histogram with one bucket per power of two, so percentiles are accurate to within a factor of two
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long value){
+            value = Math.max(value, 0);
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value) - (value == 0 ? 0 : 1));
+            count.increment();
+            sum.add(value);
+        }
+
+        public long getCount(){
+            return count.sum();
+        }
+
+        public double getMean(){
+            long count = getCount();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the upper bound of the bucket containing the given percentile
+         */
+        public long getPercentile(double percentile){
+            long target = (long) Math.ceil(getCount() * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++){
+                seen += buckets.get(i);
+                if (seen >= target && seen > 0){
+                    return i >= Long.SIZE - 2 ? Long.MAX_VALUE : (2L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + " mean=" + (long) getMean() + " p50<=" + getPercentile(50)
+                    + " p99<=" + getPercentile(99);
+        }
+    }
+}
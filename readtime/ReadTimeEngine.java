@@ -0,0 +1,414 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.readtime;
+
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.ChangeEvent;
+import org.debatetool.core.ChangeListener;
+import org.debatetool.core.ChangeType;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.OverlayIndex;
+import org.debatetool.core.OverlaySelectionKey;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Estimates how long speeches take to read from the highlighted words of their cards, without rendering anything.
+ * <p>
+ * Card counts come from the card's {@link OverlayIndex}. Those of tracked cards are cached by card and overlay
+ * selection until the last container holding the card is untracked; other cards are counted afresh. Containers
+ * passed to {@link #track(SpeechElementContainer)} are mirrored as a tree holding the total of each subtree, so after
+ * {@link #cardChanged(Card)} only the card's ancestors are updated, in time proportional to its depth. Callers are
+ * responsible for reporting changes, either directly or by having the engine {@link #listenForChanges() listen} for
+ * change events; totals of containers changed without either are stale. Events are queued and handled in order on the
+ * engine's own thread, since they are fired by whichever thread made the change and counting may load cards.
+ */
+public class ReadTimeEngine {
+    public static final int DEFAULT_WORDS_PER_MINUTE = 250;
+
+    // by card, then by overlay selection, so that a card's counts are invalidated together
+    private final ConcurrentHashMap<HashKey, ConcurrentHashMap<OverlaySelectionKey, WordCounts>> cardCounts =
+            new ConcurrentHashMap<>();
+    // guarded by this. How many nodes hold a card with each hash; only these cards' counts are cached.
+    private final HashMap<HashKey, Integer> trackedCards = new HashMap<>();
+    // guarded by this. The same component may appear in several places.
+    private final IdentityHashMap<SpeechComponent, List<Node>> nodes = new IdentityHashMap<>();
+    private volatile int wordsPerMinute;
+    private final ChangeListener changeListener = this::queueChange;
+    // written under this; only running while listening for changes
+    private volatile ExecutorService changeExecutor;
+
+    public ReadTimeEngine(int wordsPerMinute) {
+        setWordsPerMinute(wordsPerMinute);
+    }
+
+    public ReadTimeEngine() {
+        this(DEFAULT_WORDS_PER_MINUTE);
+    }
+
+    public int getWordsPerMinute() {
+        return wordsPerMinute;
+    }
+
+    public void setWordsPerMinute(int wordsPerMinute) {
+        if (wordsPerMinute <= 0){
+            throw new IllegalArgumentException("Words per minute must be positive");
+        }
+        this.wordsPerMinute = wordsPerMinute;
+    }
+
+    /**
+     * @return the counts of the card with its current overlay selection, loading it if need be
+     */
+    public WordCounts countCard(Card card) throws IOException {
+        if (!card.isLoaded()){
+            card.load();
+        }
+        OverlaySelectionKey key = new OverlaySelectionKey(card);
+        WordCounts counts = cachedCounts(key);
+        if (counts == null){
+            OverlayIndex index = card.getOverlayIndex();
+            int highlighted = index.countWords(CardOverlay.HIGHLIGHT);
+            counts = new WordCounts(highlighted, highlighted, index.countWords(CardOverlay.UNDERLINE),
+                    index.countWords());
+            HashKey hash = new HashKey(key.getHash());
+            synchronized (this){
+                if (trackedCards.containsKey(hash)){
+                    cardCounts.computeIfAbsent(hash, k -> new ConcurrentHashMap<>()).put(key, counts);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private WordCounts cachedCounts(OverlaySelectionKey key){
+        ConcurrentHashMap<OverlaySelectionKey, WordCounts> selections = cardCounts.get(new HashKey(key.getHash()));
+        return selections == null ? null : selections.get(key);
+    }
+
+    /**
+     * Drops the cached counts of the card with the given hash, for when its overlays have been replaced
+     */
+    public void invalidate(byte[] hash){
+        cardCounts.remove(new HashKey(hash));
+    }
+
+    /**
+     * @return the number of cards with cached counts
+     */
+    public int getCachedCardCount(){
+        return cardCounts.size();
+    }
+
+    /**
+     * @return the counts of the component, from the tracked tree if it is tracked
+     */
+    public WordCounts getCounts(SpeechComponent component) throws IOException {
+        synchronized (this){
+            List<Node> componentNodes = nodes.get(component);
+            if (componentNodes != null){
+                return componentNodes.get(0).total;
+            }
+        }
+        return count(component);
+    }
+
+    /**
+     * @return the time the component takes to read at the configured rate, in seconds
+     */
+    public double getReadTimeSeconds(SpeechComponent component) throws IOException {
+        return getCounts(component).getReadWords() * 60.0 / wordsPerMinute;
+    }
+
+    private WordCounts count(SpeechComponent component) throws IOException {
+        if (component instanceof Card){
+            return countCard((Card) component);
+        }
+        if (component instanceof Analytic){
+            String content = component.getStorageString();
+            int words = OverlayIndex.countWords(content, 0, content.length());
+            return new WordCounts(words, 0, 0, words);
+        }
+        if (component instanceof SpeechElementContainer){
+            SpeechElementContainer container = (SpeechElementContainer) component;
+            WordCounts total = WordCounts.ZERO;
+            for (int i = 0; i < container.size(); i++){
+                total = total.plus(count(container.getComponent(i)));
+            }
+            return total;
+        }
+        return WordCounts.ZERO;
+    }
+
+    /**
+     * Starts keeping running totals for the container and everything in it, loading cards as needed
+     */
+    public void track(SpeechElementContainer root) throws IOException {
+        // loading can block on storage, so it happens before taking the lock
+        loadCards(root);
+        synchronized (this){
+            if (!nodes.containsKey(root)){
+                build(root, null);
+            }
+        }
+    }
+
+    /**
+     * Stops keeping totals for a container passed to {@link #track(SpeechElementContainer)}
+     */
+    public synchronized void untrack(SpeechElementContainer root){
+        List<Node> rootNodes = nodes.get(root);
+        if (rootNodes == null){
+            return;
+        }
+        for (Node node:new ArrayList<>(rootNodes)){
+            if (node.parent == null){
+                forget(node);
+            }
+        }
+    }
+
+    /**
+     * Recounts a tracked card after its text, overlays or overlay selection changed, and updates its ancestors
+     */
+    public void cardChanged(Card card) throws IOException {
+        synchronized (this){
+            if (!nodes.containsKey(card)){
+                return;
+            }
+        }
+        while (true){
+            // counted outside the lock, since the card may have to load
+            WordCounts counts = countCard(card);
+            synchronized (this){
+                List<Node> cardNodes = nodes.get(card);
+                if (cardNodes == null){
+                    return;
+                }
+                if (cachedCounts(new OverlaySelectionKey(card)) != counts){
+                    // the selection changed or the counts were invalidated while counting, so count again
+                    continue;
+                }
+                for (Node node:cardNodes){
+                    propagate(node, counts.minus(node.total));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the tracked subtree of a container after components were added, removed or moved in it
+     */
+    public void containerChanged(SpeechElementContainer container) throws IOException {
+        synchronized (this){
+            if (!nodes.containsKey(container)){
+                return;
+            }
+        }
+        loadCards(container);
+        synchronized (this){
+            rebuild(container);
+        }
+    }
+
+    private void rebuild(SpeechElementContainer container) throws IOException {
+        List<Node> containerNodes = nodes.get(container);
+        if (containerNodes == null){
+            return;
+        }
+        for (Node node:new ArrayList<>(containerNodes)){
+            WordCounts old = node.total;
+            for (Node child:node.children){
+                forget(child);
+            }
+            node.children.clear();
+            node.total = WordCounts.ZERO;
+            for (int i = 0; i < container.size(); i++){
+                Node child = build(container.getComponent(i), node);
+                node.children.add(child);
+                node.total = node.total.plus(child.total);
+            }
+            if (node.parent != null){
+                propagate(node.parent, node.total.minus(old));
+            }
+        }
+    }
+
+    /**
+     * Updates the tracked totals from the change events of every component, until
+     * {@link #stopListeningForChanges()}
+     */
+    public synchronized void listenForChanges(){
+        if (changeExecutor != null){
+            return;
+        }
+        changeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Read time engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        HashIdentifiedSpeechComponent.addGlobalChangeListener(changeListener);
+    }
+
+    /**
+     * Stops listening; events already queued are still handled
+     */
+    public synchronized void stopListeningForChanges(){
+        HashIdentifiedSpeechComponent.removeGlobalChangeListener(changeListener);
+        if (changeExecutor != null){
+            changeExecutor.shutdown();
+            changeExecutor = null;
+        }
+    }
+
+    /**
+     * Blocks until the change events queued so far have been handled, for reading totals that reflect them
+     */
+    public void awaitChanges() throws InterruptedException {
+        ExecutorService executor = changeExecutor;
+        if (executor == null){
+            return;
+        }
+        try {
+            executor.submit(() -> {}).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        } catch (RejectedExecutionException e) {
+            // stopped meanwhile, which still handles what was queued
+        }
+    }
+
+    // runs on the thread that made the change, possibly holding locks of its own, so it only queues the event
+    private void queueChange(ChangeEvent event){
+        ExecutorService executor = changeExecutor;
+        if (executor == null){
+            return;
+        }
+        try {
+            executor.execute(() -> componentChanged(event));
+        } catch (RejectedExecutionException e) {
+            // stopped listening meanwhile
+        }
+    }
+
+    private void componentChanged(ChangeEvent event){
+        HashIdentifiedSpeechComponent source = event.getSource();
+        try {
+            if (source instanceof Card){
+                if (event.contains(ChangeType.OVERLAYS)){
+                    invalidate(source.getHash());
+                }
+                if (event.contains(ChangeType.CONTENT) || event.contains(ChangeType.OVERLAYS)
+                        || event.contains(ChangeType.SELECTION)){
+                    cardChanged((Card) source);
+                }
+            }else if (source instanceof SpeechElementContainer && event.contains(ChangeType.CHILDREN)){
+                containerChanged((SpeechElementContainer) source);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // loads every card below the component and its overlays, so that counting them under the lock does not wait on
+    // storage
+    private static void loadCards(SpeechComponent component) throws IOException {
+        if (component instanceof Card){
+            Card card = (Card) component;
+            if (!card.isLoaded()){
+                card.load();
+            }
+            card.getCombinedOverlay();
+        }else if (component instanceof SpeechElementContainer){
+            SpeechElementContainer container = (SpeechElementContainer) component;
+            for (int i = 0; i < container.size(); i++){
+                loadCards(container.getComponent(i));
+            }
+        }
+    }
+
+    private Node build(SpeechComponent component, Node parent) throws IOException {
+        Node node = new Node(component, parent);
+        if (component instanceof SpeechElementContainer){
+            SpeechElementContainer container = (SpeechElementContainer) component;
+            WordCounts total = WordCounts.ZERO;
+            for (int i = 0; i < container.size(); i++){
+                Node child = build(container.getComponent(i), node);
+                node.children.add(child);
+                total = total.plus(child.total);
+            }
+            node.total = total;
+        }else{
+            if (component instanceof Card){
+                trackedCards.merge(new HashKey(((Card) component).getHash()), 1, Integer::sum);
+            }
+            node.total = count(component);
+        }
+        nodes.computeIfAbsent(component, k -> new ArrayList<>(1)).add(node);
+        return node;
+    }
+
+    private void forget(Node node){
+        for (Node child:node.children){
+            forget(child);
+        }
+        if (node.component instanceof Card){
+            HashKey hash = new HashKey(((Card) node.component).getHash());
+            if (trackedCards.merge(hash, -1, Integer::sum) == 0){
+                trackedCards.remove(hash);
+                cardCounts.remove(hash);
+            }
+        }
+        List<Node> componentNodes = nodes.get(node.component);
+        componentNodes.remove(node);
+        if (componentNodes.isEmpty()){
+            nodes.remove(node.component);
+        }
+    }
+
+    private static void propagate(Node node, WordCounts delta){
+        for (; node != null; node = node.parent){
+            node.total = node.total.plus(delta);
+        }
+    }
+
+    private static final class Node {
+        private final SpeechComponent component;
+        private final Node parent;
+        private final List<Node> children = new ArrayList<>();
+        private WordCounts total = WordCounts.ZERO;
+
+        private Node(SpeechComponent component, Node parent) {
+            this.component = component;
+            this.parent = parent;
+        }
+    }
+}
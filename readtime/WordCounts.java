@@ -0,0 +1,84 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.readtime;
+
+/**
+ * Word counts of a card or of everything in a container
+ */
+public final class WordCounts {
+    public static final WordCounts ZERO = new WordCounts(0, 0, 0, 0);
+
+    private final int readWords;
+    private final int highlightedWords;
+    private final int underlinedWords;
+    private final int totalWords;
+
+    /**
+     * @param readWords the words read aloud: highlighted words of cards and every word of analytics
+     */
+    public WordCounts(int readWords, int highlightedWords, int underlinedWords, int totalWords) {
+        this.readWords = readWords;
+        this.highlightedWords = highlightedWords;
+        this.underlinedWords = underlinedWords;
+        this.totalWords = totalWords;
+    }
+
+    public int getReadWords() {
+        return readWords;
+    }
+
+    public int getHighlightedWords() {
+        return highlightedWords;
+    }
+
+    public int getUnderlinedWords() {
+        return underlinedWords;
+    }
+
+    public int getTotalWords() {
+        return totalWords;
+    }
+
+    public WordCounts plus(WordCounts other){
+        return new WordCounts(readWords + other.readWords, highlightedWords + other.highlightedWords,
+                underlinedWords + other.underlinedWords, totalWords + other.totalWords);
+    }
+
+    public WordCounts minus(WordCounts other){
+        return new WordCounts(readWords - other.readWords, highlightedWords - other.highlightedWords,
+                underlinedWords - other.underlinedWords, totalWords - other.totalWords);
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (!(o instanceof WordCounts)){
+            return false;
+        }
+        WordCounts ow = (WordCounts) o;
+        return readWords == ow.readWords && highlightedWords == ow.highlightedWords
+                && underlinedWords == ow.underlinedWords && totalWords == ow.totalWords;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((readWords * 31 + highlightedWords) * 31 + underlinedWords) * 31 + totalWords;
+    }
+
+    public String toString(){
+        return readWords + " read, " + highlightedWords + " highlighted, " + underlinedWords + " underlined, "
+                + totalWords + " total";
+    }
+}
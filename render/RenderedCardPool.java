@@ -0,0 +1,194 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.render;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.ChangeEvent;
+import org.debatetool.core.ChangeListener;
+import org.debatetool.core.ChangeType;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.OverlaySelectionKey;
+import org.debatetool.core.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Process wide pool of rendered card bodies, keyed by card hash and selected overlays.
+ * <p>
+ * The same card often appears in many blocks, each with its own stub. With the pool the body is combined and encoded
+ * once, and every other stub with the same selection reuses the result. The pool is bounded both by entry count and
+ * by the total length of the rendered HTML, evicting the least recently used entries first, or the oldest if access
+ * order is turned off.
+ * <p>
+ * Pooling is off unless a pool is installed with {@link #setDefault(RenderedCardPool)}. The installed pool listens for
+ * change events and drops a card's bodies when its overlays are replaced or the selection of a loaded card is set,
+ * even to the same index, which is how callers ask for a card to be rendered again after editing an overlay in place.
+ * Unloaded stubs have rendered nothing, so their selection events, such as those of stubs restored while a block
+ * loads, leave the pool alone.
+ */
+public class RenderedCardPool {
+    public static final String POOL_HIT = "renderPool.hit";
+    public static final String POOL_MISS = "renderPool.miss";
+
+    private static volatile RenderedCardPool defaultPool = null;
+    private static final int GENERATION_STRIPES = 64;
+
+    private final int maxEntries;
+    private final long maxCharacters;
+    private final LinkedHashMap<OverlaySelectionKey, String> rendered;
+    // the keys of every card's bodies, so that invalidating a card doesn't scan the pool
+    private final HashMap<HashKey, Set<OverlaySelectionKey>> keysByCard = new HashMap<>();
+    private final ChangeListener changeListener = this::componentChanged;
+    // bumped when a card's bodies are dropped, so a body rendered from before can't be put back; striped by card
+    // rather than kept per card so that the table stays bounded
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private long characters = 0;
+
+    /**
+     * @param maxEntries most bodies held at once
+     * @param maxCharacters most characters of HTML held at once
+     * @param accessOrder true to evict the least recently used body first, false to evict the oldest
+     */
+    public RenderedCardPool(int maxEntries, long maxCharacters, boolean accessOrder) {
+        this.maxEntries = maxEntries;
+        this.maxCharacters = maxCharacters;
+        this.rendered = new LinkedHashMap<>(16, 0.75f, accessOrder);
+    }
+
+    /**
+     * @return the pool cards render through, or null if pooling is off
+     */
+    public static RenderedCardPool getDefault() {
+        return defaultPool;
+    }
+
+    /**
+     * @param pool the pool for cards to render through, or null to turn pooling off
+     */
+    public static synchronized void setDefault(RenderedCardPool pool) {
+        if (defaultPool != null){
+            HashIdentifiedSpeechComponent.removeGlobalChangeListener(defaultPool.changeListener);
+        }
+        defaultPool = pool;
+        if (pool != null){
+            HashIdentifiedSpeechComponent.addGlobalChangeListener(pool.changeListener);
+        }
+    }
+
+    private void componentChanged(ChangeEvent event){
+        if (event.getSource() instanceof Card && (event.contains(ChangeType.OVERLAYS)
+                || event.contains(ChangeType.SELECTION) && event.getSource().isLoaded())){
+            invalidate(event.getSource().getHash());
+        }
+    }
+
+    /**
+     * @param renderer renders the body on a miss, outside of the pool's lock
+     * @return the pooled body for the key
+     */
+    public String get(OverlaySelectionKey key, Supplier<String> renderer){
+        int stripe = stripe(key.getHash());
+        long generation;
+        synchronized (this){
+            String body = rendered.get(key);
+            if (body != null){
+                Metrics.increment(POOL_HIT);
+                return body;
+            }
+            generation = generations[stripe];
+        }
+        Metrics.increment(POOL_MISS);
+        // two threads may render the same body at once, which is cheaper than making one wait on the other
+        String body = renderer.get();
+        put(key, body, stripe, generation);
+        return body;
+    }
+
+    private static int stripe(byte[] hash){
+        return (Arrays.hashCode(hash) & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    private synchronized void put(OverlaySelectionKey key, String body, int stripe, long generation){
+        if (body.length() > maxCharacters || generations[stripe] != generation){
+            // too big, or the card was invalidated while this body was rendering
+            return;
+        }
+        String previous = rendered.put(key, body);
+        if (previous != null){
+            characters -= previous.length();
+        }else{
+            keysByCard.computeIfAbsent(new HashKey(key.getHash()), k -> new HashSet<>(2)).add(key);
+        }
+        characters += body.length();
+        Iterator<Map.Entry<OverlaySelectionKey, String>> eldest = rendered.entrySet().iterator();
+        while ((rendered.size() > maxEntries || characters > maxCharacters) && eldest.hasNext()){
+            Map.Entry<OverlaySelectionKey, String> entry = eldest.next();
+            characters -= entry.getValue().length();
+            eldest.remove();
+            unindex(entry.getKey());
+        }
+    }
+
+    private void unindex(OverlaySelectionKey key){
+        HashKey card = new HashKey(key.getHash());
+        Set<OverlaySelectionKey> keys = keysByCard.get(card);
+        if (keys != null && keys.remove(key) && keys.isEmpty()){
+            keysByCard.remove(card);
+        }
+    }
+
+    /**
+     * Drops every body rendered for the card, for when its overlays have changed
+     */
+    public synchronized void invalidate(byte[] hash){
+        generations[stripe(hash)]++;
+        Set<OverlaySelectionKey> keys = keysByCard.remove(new HashKey(hash));
+        if (keys == null){
+            return;
+        }
+        for (OverlaySelectionKey key:keys){
+            String body = rendered.remove(key);
+            if (body != null){
+                characters -= body.length();
+            }
+        }
+    }
+
+    public synchronized void clear(){
+        for (int i = 0; i < generations.length; i++){
+            generations[i]++;
+        }
+        rendered.clear();
+        keysByCard.clear();
+        characters = 0;
+    }
+
+    public synchronized int size(){
+        return rendered.size();
+    }
+
+    public synchronized long getCharacters(){
+        return characters;
+    }
+}
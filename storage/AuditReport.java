@@ -0,0 +1,124 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.io.IOUtil;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link StorageAuditor} run
+ */
+public final class AuditReport {
+    public enum ProblemType {
+        /**
+         * The card could not be retrieved, or was not a card
+         */
+        UNREADABLE,
+        /**
+         * The card's text and cite no longer hash to the hash it is stored under, under any scheme
+         */
+        HASH_MISMATCH,
+        /**
+         * The card's text would be changed by {@link org.debatetool.core.Card#cleanForCard(String)}
+         */
+        UNCLEAN_TEXT,
+        /**
+         * An overlay's stored positions are not two bytes for each of its types
+         */
+        OVERLAY_LENGTH_MISMATCH,
+        /**
+         * An overlay reaches past the end of the card's text
+         */
+        OVERLAY_OVERRUN
+    }
+
+    public static final class Problem {
+        private final byte[] hash;
+        private final ProblemType type;
+        private final String detail;
+
+        Problem(byte[] hash, ProblemType type, String detail) {
+            this.hash = hash;
+            this.type = type;
+            this.detail = detail;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        public ProblemType getType() {
+            return type;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        public String toString(){
+            return type + " " + IOUtil.encodeString(hash) + ": " + detail;
+        }
+    }
+
+    private final long cardsChecked;
+    private final long overlaysChecked;
+    private final long elapsedMillis;
+    private final List<Problem> problems;
+
+    AuditReport(long cardsChecked, long overlaysChecked, long elapsedMillis, List<Problem> problems) {
+        this.cardsChecked = cardsChecked;
+        this.overlaysChecked = overlaysChecked;
+        this.elapsedMillis = elapsedMillis;
+        this.problems = Collections.unmodifiableList(problems);
+    }
+
+    public long getCardsChecked() {
+        return cardsChecked;
+    }
+
+    public long getOverlaysChecked() {
+        return overlaysChecked;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public List<Problem> getProblems() {
+        return problems;
+    }
+
+    public boolean isClean() {
+        return problems.isEmpty();
+    }
+
+    public Map<ProblemType, Integer> countByType() {
+        Map<ProblemType, Integer> counts = new EnumMap<>(ProblemType.class);
+        for (Problem problem:problems){
+            counts.merge(problem.getType(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    public String toString(){
+        return cardsChecked + " cards and " + overlaysChecked + " overlays checked in " + elapsedMillis + "ms, "
+                + (isClean() ? "no problems" : countByType().toString());
+    }
+}
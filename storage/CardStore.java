@@ -0,0 +1,392 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.debatetool.core.Card;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.HashScheme;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+import org.debatetool.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content addressed layer over a {@link StorageContext} for cards.
+ * <p>
+ * Since a card's hash is derived from its text and cite, storing a card whose hash is already present is skipped
+ * unless its tags differ from the stored record. Every container saved through the store has its card references
+ * counted, and cards whose count drops to zero become candidates for garbage collection. Candidates are only deleted,
+ * together with their overlays, once they have stayed unreferenced for a grace period, so that a card moved between
+ * containers in two saves survives the move.
+ * <p>
+ * Counts are kept in memory and only cover containers saved or registered through this store. On an existing library,
+ * call {@link #registerContainer(SpeechElementContainer)} for every existing container, then
+ * {@link #addUnreferencedCards()} so that cards already orphaned, or stored but never referenced, are collected too.
+ */
+public class CardStore {
+    public static final String CARDS_DEDUPLICATED = "cardStore.deduplicated";
+    public static final String CARDS_COLLECTED = "cardStore.collected";
+    public static final String CROSS_SCHEME_DUPLICATES = "cardStore.crossSchemeDuplicates";
+
+    private final StorageContext storage;
+    private final long gracePeriodMillis;
+
+    private final TObjectIntHashMap<HashKey> referenceCounts = new TObjectIntHashMap<>();
+    // card hashes each container referenced when last saved
+    private final HashMap<HashKey, List<HashKey>> containerReferences = new HashMap<>();
+    // cards of containers being stored, which can't be collected until the containers' references are counted
+    private final TObjectIntHashMap<HashKey> heldCards = new TObjectIntHashMap<>();
+    // unreferenced cards and the time they became unreferenced, oldest first
+    private final LinkedHashMap<HashKey, Long> collectionCandidates = new LinkedHashMap<>();
+
+    private final List<CardStoreListener> listeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService collector;
+
+    public CardStore(StorageContext storage, long gracePeriod, TimeUnit unit) {
+        this.storage = storage;
+        this.gracePeriodMillis = unit.toMillis(gracePeriod);
+    }
+
+    public CardStore() {
+        this(StorageContext.getStorageContext(), 10, TimeUnit.MINUTES);
+    }
+
+    public void addListener(CardStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CardStoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    public StorageContext getStorage() {
+        return storage;
+    }
+
+    /**
+     * Writes the card unless a card with the same content is already stored under the same hash, and either this copy
+     * is unmodified or the stored record has the same tags.
+     * <p>
+     * After the default {@link HashScheme} changes, new cards hash differently from copies stored under an older
+     * scheme. Such a copy is looked up too, but the card is still written, since whatever holds the card refers to
+     * it by its own hash; the copy is counted in {@link #CROSS_SCHEME_DUPLICATES}. Callers that can refer to the
+     * existing copy instead should ask {@link #findStoredHash(Card)} before adding the card.
+     * @return true if the card was written
+     */
+    public boolean storeCard(Card card) throws IOException {
+        byte[] hash = card.getHash();
+        HashKey key = new HashKey(hash);
+        synchronized (this){
+            // storing a card again rescues it from collection
+            collectionCandidates.remove(key);
+        }
+        // cleared before comparing or writing, so edits made meanwhile mark it modified again
+        boolean modified = card.isModified();
+        card.markSaved();
+        try {
+            if (isStored(key)){
+                if (!modified || !card.isLoaded() || storedTagsMatch(card, hash)){
+                    Metrics.increment(CARDS_DEDUPLICATED);
+                    return false;
+                }
+            }else if (card.isLoaded() && findStoredCopy(card, hash) != null){
+                Metrics.increment(CROSS_SCHEME_DUPLICATES);
+            }
+            storage.storeSpeechComponent(card);
+        } catch (IOException | RuntimeException e) {
+            if (modified){
+                card.markUnsaved();
+            }
+            throw e;
+        }
+        for (CardStoreListener listener:listeners){
+            listener.cardStored(card);
+        }
+        return true;
+    }
+
+    /**
+     * @return the hash a card with the same content is stored under, trying every {@link HashScheme}, or null if
+     * there is none
+     */
+    public byte[] findStoredHash(Card card) throws IOException {
+        byte[] hash = card.getHash();
+        if (isStored(new HashKey(hash))){
+            return hash;
+        }
+        return card.isLoaded() ? findStoredCopy(card, hash) : null;
+    }
+
+    // a copy of the card's content stored under another scheme than the one its own hash was computed with
+    private byte[] findStoredCopy(Card card, byte[] hash) throws IOException {
+        for (HashScheme scheme:HashScheme.values()){
+            byte[] schemeHash = card.computeContentHash(scheme);
+            if (!Arrays.equals(schemeHash, hash) && isStored(new HashKey(schemeHash))){
+                return schemeHash;
+            }
+        }
+        return null;
+    }
+
+    // the hash covers only the text and cite, so a stored copy can still carry other tags
+    private boolean storedTagsMatch(Card card, byte[] hash) {
+        try {
+            HashIdentifiedSpeechComponent stored = storage.retrieveSpeechComponent(hash);
+            return stored instanceof Card && ((Card) stored).getTags().equals(card.getTags());
+        } catch (IOException | RuntimeException e) {
+            // rather write the card again than keep a record that can't be read
+            return false;
+        }
+    }
+
+    private boolean isStored(HashKey key) throws IOException {
+        synchronized (this){
+            if (referenceCounts.containsKey(key)){
+                return true;
+            }
+        }
+        return storage.containsSpeechComponent(key.getHash());
+    }
+
+    /**
+     * Stores any loaded cards in the container that are not stored yet, then the container itself, and updates the
+     * reference counts of the cards it now refers to and no longer refers to. Nested containers are stored the same
+     * way first.
+     */
+    public void storeContainer(SpeechElementContainer container) throws IOException {
+        // held until the container's own references are counted, so a card that was deduplicated instead of written
+        // can't be collected before the container referring to it is stored
+        List<HashKey> held = cardReferences(container);
+        synchronized (this){
+            for (HashKey card:held){
+                heldCards.adjustOrPutValue(card, 1, 1);
+            }
+        }
+        try {
+            for (int i = 0; i < container.size(); i++){
+                SpeechComponent component = container.getComponent(i);
+                if (component instanceof SpeechElementContainer){
+                    storeContainer((SpeechElementContainer) component);
+                }else if (component instanceof Card && component.isLoaded()){
+                    storeCard((Card) component);
+                }
+            }
+            storage.storeSpeechComponent(container);
+            registerReferences(container);
+        } finally {
+            synchronized (this){
+                for (HashKey card:held){
+                    if (heldCards.adjustOrPutValue(card, -1, 0) <= 0){
+                        heldCards.remove(card);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<HashKey> cardReferences(SpeechElementContainer container) {
+        List<HashKey> references = new ArrayList<>(container.size());
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent component = container.getComponent(i);
+            if (component instanceof Card){
+                references.add(new HashKey((Card) component));
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Records the card references of an already stored container, and of the containers nested in it, without writing
+     * anything
+     */
+    public synchronized void registerContainer(SpeechElementContainer container) {
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent component = container.getComponent(i);
+            if (component instanceof SpeechElementContainer){
+                registerContainer((SpeechElementContainer) component);
+            }
+        }
+        registerReferences(container);
+    }
+
+    private synchronized void registerReferences(SpeechElementContainer container) {
+        List<HashKey> references = cardReferences(container);
+        // count the new references before releasing the old ones, so cards kept by the container never hit zero
+        for (HashKey reference:references){
+            retain(reference);
+        }
+        List<HashKey> previous = containerReferences.put(new HashKey(container), references);
+        if (previous != null){
+            for (HashKey reference:previous){
+                release(reference);
+            }
+        }
+    }
+
+    /**
+     * Releases the card references of a container that has been deleted
+     */
+    public synchronized void removeContainer(byte[] hash) {
+        List<HashKey> previous = containerReferences.remove(new HashKey(hash));
+        if (previous != null){
+            for (HashKey reference:previous){
+                release(reference);
+            }
+        }
+    }
+
+    /**
+     * Makes every stored card that no registered container refers to a collection candidate, starting its grace period
+     * now. Counts are not persisted, so this is how cards orphaned before this store existed, or stored but never
+     * referenced, get collected.
+     * @return the number of cards that became candidates
+     */
+    public int addUnreferencedCards() throws IOException {
+        int[] added = new int[1];
+        storage.forEachCardHash(hash -> {
+            if (addUnreferencedCard(hash)){
+                added[0]++;
+            }
+        });
+        return added[0];
+    }
+
+    /**
+     * Makes the card a collection candidate, starting its grace period now, unless a registered container refers to it
+     * or it already is one
+     * @return whether the card became a candidate
+     */
+    public synchronized boolean addUnreferencedCard(byte[] hash) {
+        HashKey key = new HashKey(hash);
+        if (referenceCounts.containsKey(key) || collectionCandidates.containsKey(key)){
+            return false;
+        }
+        collectionCandidates.put(key, System.currentTimeMillis());
+        return true;
+    }
+
+    public synchronized int getReferenceCount(byte[] hash) {
+        return referenceCounts.get(new HashKey(hash));
+    }
+
+    private void retain(HashKey card){
+        referenceCounts.adjustOrPutValue(card, 1, 1);
+        collectionCandidates.remove(card);
+    }
+
+    private void release(HashKey card){
+        if (referenceCounts.adjustOrPutValue(card, -1, 0) <= 0){
+            referenceCounts.remove(card);
+            collectionCandidates.put(card, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Deletes every card, and its overlays, that has been unreferenced for longer than the grace period. Does nothing
+     * when the storage context doesn't {@link StorageContext#supportsDeletion() support deletion}.
+     * @return the number of cards deleted
+     */
+    public int collectGarbage() throws IOException {
+        if (!storage.supportsDeletion()){
+            return 0;
+        }
+        List<HashKey> expired = new ArrayList<>();
+        long cutoff = System.currentTimeMillis() - gracePeriodMillis;
+        synchronized (this){
+            for (Map.Entry<HashKey, Long> candidate:collectionCandidates.entrySet()){
+                if (candidate.getValue() > cutoff){
+                    // candidates are in release order, so the rest are younger still
+                    break;
+                }
+                expired.add(candidate.getKey());
+            }
+        }
+        int collected = 0;
+        for (HashKey card:expired){
+            // deleting under the lock keeps a concurrent save from referencing the card halfway through
+            synchronized (this){
+                Long released = collectionCandidates.get(card);
+                if (released == null || released > cutoff || heldCards.containsKey(card)){
+                    // referenced or stored again since, or about to be
+                    continue;
+                }
+                collectionCandidates.remove(card);
+                storage.deleteSpeechComponent(card.getHash());
+                storage.deleteOverlays(card.getHash());
+            }
+            for (CardStoreListener listener:listeners){
+                listener.cardDeleted(card.getHash());
+            }
+            collected++;
+        }
+        Metrics.increment(CARDS_COLLECTED, collected);
+        return collected;
+    }
+
+    /**
+     * Runs {@link #collectGarbage()} periodically on a background thread until {@link #stopCollector()} is called.
+     * The thread first runs {@link #addUnreferencedCards()}, so existing containers must be registered within the grace
+     * period.
+     */
+    public synchronized void startCollector(long period, TimeUnit unit) {
+        if (collector != null){
+            throw new IllegalStateException("Collector already running");
+        }
+        if (!storage.supportsDeletion()){
+            throw new IllegalStateException("Storage context does not support deletion");
+        }
+        collector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CardStore collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        collector.execute(() -> {
+            try {
+                addUnreferencedCards();
+            } catch (IOException | UnsupportedOperationException e) {
+                e.printStackTrace();
+            }
+        });
+        collector.scheduleWithFixedDelay(() -> {
+            try {
+                collectGarbage();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stopCollector() {
+        if (collector != null){
+            collector.shutdown();
+            collector = null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Operations on the stored library that an IOController's component manager may offer besides reading and writing.
+ * The default storage context forwards to them when the current manager implements this interface.
+ */
+public interface ComponentLibrary {
+    void deleteSpeechComponent(byte[] hash) throws IOException;
+
+    /**
+     * Writes a record from the type and lists {@link org.debatetool.core.HashIdentifiedSpeechComponent#toLabelledLists()}
+     * produced, without building the component
+     */
+    void storeLabelledLists(byte[] hash, String type, List<String> labels, List<String> values) throws IOException;
+
+    /**
+     * Passes the hash of every stored card to the consumer
+     */
+    void forEachCardHash(Consumer<byte[]> consumer) throws IOException;
+}
@@ -0,0 +1,235 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.HashScheme;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Moves the cards of a storage context to identities computed with another {@link HashScheme}.
+ * <p>
+ * {@link #migrate(Collection)} runs in three steps. First each card is stored again under its new hash together with
+ * its overlays. Then the given containers, and the containers nested in them, have their cards replaced by the copies
+ * and are stored again. Finally the old cards are retired: deleted with their overlays when the storage context
+ * supports deletion, or left in place when it doesn't. The containers given must therefore be every container
+ * referring to the cards, or the rest are left pointing at deleted records.
+ * <p>
+ * Migrating through a {@link CardStore} writes the copies and containers through it, so its listeners, such as {@link
+ * org.debatetool.core.index.TagIndex} and {@link org.debatetool.core.index.CiteIndex}, index them and the containers'
+ * references move to the copies. The old cards are then not deleted directly but made collection candidates, and the
+ * store's collector deletes them once their grace period passes.
+ * <p>
+ * Hashes are streamed from {@link StorageContext#forEachCardHash(java.util.function.Consumer)} and copied a chunk at
+ * a time, so the context has to accept stores while it streams. Copies it streams too are skipped, since they already
+ * use the target scheme.
+ */
+public class HashSchemeMigration {
+    private static final int CHUNK_SIZE = 1024;
+
+    private final StorageContext storage;
+    private final CardStore cardStore;
+    private final HashScheme target;
+
+    public HashSchemeMigration(StorageContext storage, HashScheme target) {
+        this.storage = storage;
+        this.cardStore = null;
+        this.target = target;
+    }
+
+    public HashSchemeMigration(CardStore cardStore, HashScheme target) {
+        this.storage = cardStore.getStorage();
+        this.cardStore = cardStore;
+        this.target = target;
+    }
+
+    /**
+     * Copies every card not already hashed with the target scheme, points the containers at the copies and retires the
+     * old cards
+     * @param containers every container referring to stored cards; nested containers are found through them
+     * @return each old hash mapped to its new one
+     */
+    public Map<HashKey, HashKey> migrate(Collection<? extends SpeechElementContainer> containers) throws IOException {
+        Map<HashKey, HashKey> migrated = copyCards();
+        if (migrated.isEmpty()){
+            return migrated;
+        }
+        rewriteContainers(containers, migrated);
+        for (HashKey old:migrated.keySet()){
+            if (cardStore != null){
+                cardStore.addUnreferencedCard(old.getHash());
+            }else if (storage.supportsDeletion()){
+                storage.deleteSpeechComponent(old.getHash());
+                storage.deleteOverlays(old.getHash());
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Runs {@link #migrate(Collection)} in the background
+     */
+    public CompletableFuture<Map<HashKey, HashKey>> migrateAsync(Collection<? extends SpeechElementContainer> containers,
+                                                                 Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return migrate(containers);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Only copies every card not already hashed with the target scheme, leaving containers and the old cards as they
+     * are
+     * @return each old hash mapped to its new one
+     */
+    public Map<HashKey, HashKey> copyCards() throws IOException {
+        Map<HashKey, HashKey> migrated = new HashMap<>();
+        List<byte[]> chunk = new ArrayList<>(CHUNK_SIZE);
+        try {
+            storage.forEachCardHash(hash -> {
+                chunk.add(hash);
+                if (chunk.size() == CHUNK_SIZE){
+                    copyChunk(chunk, migrated);
+                    chunk.clear();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        copyChunk(chunk, migrated);
+        return migrated;
+    }
+
+    private void copyChunk(List<byte[]> chunk, Map<HashKey, HashKey> migrated){
+        try {
+            for (byte[] hash:chunk){
+                byte[] newHash = migrateCard(hash);
+                if (newHash != null){
+                    migrated.put(new HashKey(hash), new HashKey(newHash));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies one card and its overlays
+     * @return the card's new hash, or null if it was already hashed with the target scheme
+     */
+    public byte[] migrateCard(byte[] hash) throws IOException {
+        HashIdentifiedSpeechComponent component = storage.retrieveSpeechComponent(hash);
+        if (!(component instanceof Card)){
+            throw new IOException("Not a card: " + component);
+        }
+        Card card = (Card) component;
+        if (card.identifyHashScheme() == target){
+            return null;
+        }
+        byte[] newHash = card.computeContentHash(target);
+        ArrayList<String>[] labelledLists = card.toLabelledLists();
+        Card migrated = (Card) HashIdentifiedSpeechComponent.createFromLabelledLists(Card.class.getName(),
+                labelledLists[0], labelledLists[1], newHash);
+        if (cardStore != null){
+            cardStore.storeCard(migrated);
+        }else{
+            storage.storeSpeechComponent(migrated);
+        }
+        HashMap<String, List<CardOverlay>> overlays = storage.getOverlays(hash);
+        if (overlays != null){
+            for (Map.Entry<String, List<CardOverlay>> entry:overlays.entrySet()){
+                storage.saveOverlays(newHash, entry.getValue(), entry.getKey());
+            }
+        }
+        return newHash;
+    }
+
+    private void rewriteContainers(Collection<? extends SpeechElementContainer> containers,
+                                   Map<HashKey, HashKey> migrated) throws IOException {
+        // a block may be shared, so each container is rewritten once
+        Set<SpeechElementContainer> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        // nested containers come before the containers holding them
+        List<HashIdentifiedSpeechComponent> changed = new ArrayList<>();
+        for (SpeechElementContainer container:containers){
+            boolean subtreeChanged = rewriteContainer(container, migrated, visited, changed);
+            if (cardStore != null && subtreeChanged){
+                // stores the nested containers too, moving every reference to the copies
+                cardStore.storeContainer(container);
+            }
+        }
+        if (cardStore == null){
+            storage.storeSpeechComponents(changed);
+        }
+    }
+
+    /**
+     * @return whether the container or one nested in it was changed
+     */
+    private static boolean rewriteContainer(SpeechElementContainer container, Map<HashKey, HashKey> migrated,
+                                            Set<SpeechElementContainer> visited,
+                                            List<HashIdentifiedSpeechComponent> changed) throws IOException {
+        if (!visited.add(container)){
+            return false;
+        }
+        if (!container.isLoaded()){
+            container.load();
+        }
+        boolean nestedChanged = false;
+        boolean cardsChanged = false;
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent component = container.getComponent(i);
+            if (component instanceof SpeechElementContainer){
+                nestedChanged |= rewriteContainer((SpeechElementContainer) component, migrated, visited, changed);
+            }else if (component instanceof Card){
+                HashKey newHash = migrated.get(new HashKey((Card) component));
+                if (newHash != null){
+                    // loaded lazily like any other card, keeping the container's state for it
+                    Card copy = new Card(newHash.getHash());
+                    String state = component.getStateString();
+                    if (state != null){
+                        copy.restoreState(state);
+                    }
+                    container.setComponent(i, copy);
+                    cardsChanged = true;
+                }
+            }
+        }
+        if (cardsChanged){
+            changed.add(container);
+        }
+        return cardsChanged || nestedChanged;
+    }
+}
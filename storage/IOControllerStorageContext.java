@@ -0,0 +1,114 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+import org.debatetool.io.iocontrollers.ComponentIOManager;
+import org.debatetool.io.iocontrollers.IOController;
+import org.debatetool.io.iocontrollers.OverlayIOManager;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Default context, forwarding to whichever IOController is current at the time of each call. Deletion and card
+ * enumeration are forwarded to managers implementing {@link ComponentLibrary} and {@link OverlayLibrary}.
+ */
+class IOControllerStorageContext extends StorageContext {
+    static final IOControllerStorageContext INSTANCE = new IOControllerStorageContext();
+
+    private IOControllerStorageContext(){}
+
+    @Override
+    public HashIdentifiedSpeechComponent retrieveSpeechComponent(byte[] hash) throws IOException {
+        return IOController.getIoController().getComponentIOManager().retrieveSpeechComponent(hash);
+    }
+
+    @Override
+    public void storeSpeechComponent(HashIdentifiedSpeechComponent component) throws IOException {
+        IOController.getIoController().getComponentIOManager().storeSpeechComponent(component);
+    }
+
+    /**
+     * Forwards to the component manager when it implements {@link ComponentLibrary}, and otherwise rebuilds the
+     * component
+     */
+    @Override
+    public void storeLabelledLists(byte[] hash, String type, List<String> labels, List<String> values)
+            throws IOException {
+        ComponentIOManager manager = IOController.getIoController().getComponentIOManager();
+        if (manager instanceof ComponentLibrary){
+            ((ComponentLibrary) manager).storeLabelledLists(hash, type, labels, values);
+        }else{
+            super.storeLabelledLists(hash, type, labels, values);
+        }
+    }
+
+    @Override
+    public void loadAll(SpeechElementContainer container) throws IOException {
+        IOController.getIoController().getComponentIOManager().loadAll(container);
+    }
+
+    @Override
+    public HashMap<String, List<CardOverlay>> getOverlays(byte[] hash) {
+        return IOController.getIoController().getOverlayIOManager().getOverlays(hash);
+    }
+
+    @Override
+    public void saveOverlays(byte[] hash, List<CardOverlay> overlays, String type) throws IOException {
+        IOController.getIoController().getOverlayIOManager().saveOverlays(hash, overlays, type);
+    }
+
+    @Override
+    public boolean supportsDeletion() {
+        IOController controller = IOController.getIoController();
+        return controller.getComponentIOManager() instanceof ComponentLibrary
+                && controller.getOverlayIOManager() instanceof OverlayLibrary;
+    }
+
+    @Override
+    public void deleteSpeechComponent(byte[] hash) throws IOException {
+        getComponentLibrary().deleteSpeechComponent(hash);
+    }
+
+    @Override
+    public void forEachCardHash(Consumer<byte[]> consumer) throws IOException {
+        getComponentLibrary().forEachCardHash(consumer);
+    }
+
+    @Override
+    public void deleteOverlays(byte[] hash) throws IOException {
+        OverlayIOManager manager = IOController.getIoController().getOverlayIOManager();
+        if (!(manager instanceof OverlayLibrary)){
+            throw new UnsupportedOperationException("Overlay manager " + manager.getClass().getName()
+                    + " does not implement " + OverlayLibrary.class.getSimpleName());
+        }
+        ((OverlayLibrary) manager).deleteOverlays(hash);
+    }
+
+    private static ComponentLibrary getComponentLibrary() {
+        ComponentIOManager manager = IOController.getIoController().getComponentIOManager();
+        if (!(manager instanceof ComponentLibrary)){
+            throw new UnsupportedOperationException("Component manager " + manager.getClass().getName()
+                    + " does not implement " + ComponentLibrary.class.getSimpleName());
+        }
+        return (ComponentLibrary) manager;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A storage context held entirely in memory, for tests and benchmarks.
+ * <p>
+ * Components are kept in their labelled list form and rebuilt on every retrieval, and overlays are copied in both
+ * directions, so callers never share state with the store just as with a real database.
+ */
+public class InMemoryStorageContext extends StorageContext {
+    private final ConcurrentHashMap<HashKey, StoredComponent> components = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<HashKey, Map<String, List<CardOverlay>>> overlays = new ConcurrentHashMap<>();
+
+    @Override
+    public HashIdentifiedSpeechComponent retrieveSpeechComponent(byte[] hash) throws IOException {
+        StoredComponent stored = components.get(new HashKey(hash));
+        if (stored == null){
+            throw new IOException("No component stored with the given hash");
+        }
+        return HashIdentifiedSpeechComponent.createFromLabelledLists(stored.type, stored.labels, stored.values, hash);
+    }
+
+    @Override
+    public void storeSpeechComponent(HashIdentifiedSpeechComponent component) throws IOException {
+        ArrayList<String>[] labelledLists = component.toLabelledLists();
+        components.put(new HashKey(component), new StoredComponent(component.getClass().getName(),
+                new ArrayList<>(labelledLists[0]), new ArrayList<>(labelledLists[1])));
+    }
+
+    @Override
+    public void storeLabelledLists(byte[] hash, String type, List<String> labels, List<String> values) {
+        components.put(new HashKey(hash), new StoredComponent(type, new ArrayList<>(labels), new ArrayList<>(values)));
+    }
+
+    @Override
+    public void loadAll(SpeechElementContainer container) throws IOException {
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent component = container.getComponent(i);
+            if (!component.isLoaded()){
+                component.load();
+            }
+        }
+    }
+
+    @Override
+    public HashMap<String, List<CardOverlay>> getOverlays(byte[] hash) {
+        HashMap<String, List<CardOverlay>> copy = new HashMap<>();
+        Map<String, List<CardOverlay>> stored = overlays.get(new HashKey(hash));
+        if (stored != null){
+            synchronized (stored){
+                for (Map.Entry<String, List<CardOverlay>> entry:stored.entrySet()){
+                    copy.put(entry.getKey(), copyOverlays(entry.getValue()));
+                }
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public void saveOverlays(byte[] hash, List<CardOverlay> overlays, String type) throws IOException {
+        Map<String, List<CardOverlay>> stored = this.overlays.computeIfAbsent(new HashKey(hash), k -> new HashMap<>());
+        synchronized (stored){
+            stored.put(type, copyOverlays(overlays));
+        }
+    }
+
+    @Override
+    public boolean containsSpeechComponent(byte[] hash) {
+        return components.containsKey(new HashKey(hash));
+    }
+
+    @Override
+    public boolean supportsDeletion() {
+        return true;
+    }
+
+    @Override
+    public void deleteSpeechComponent(byte[] hash) {
+        components.remove(new HashKey(hash));
+    }
+
+    @Override
+    public void deleteOverlays(byte[] hash) {
+        overlays.remove(new HashKey(hash));
+    }
+
+    @Override
+    public void forEachCardHash(Consumer<byte[]> consumer) {
+        for (Map.Entry<HashKey, StoredComponent> entry:components.entrySet()){
+            if (entry.getValue().type.equals(Card.class.getName())){
+                consumer.accept(entry.getKey().getHash());
+            }
+        }
+    }
+
+    public int size() {
+        return components.size();
+    }
+
+    public void clear() {
+        components.clear();
+        overlays.clear();
+    }
+
+    static List<CardOverlay> copyOverlays(List<CardOverlay> overlays){
+        List<CardOverlay> copy = new ArrayList<>(overlays.size());
+        for (CardOverlay overlay:overlays){
+            copy.add(new CardOverlay(overlay.getName(), overlay.getOverlayPositionBytes(), overlay.getOverlayTypeBytes()));
+        }
+        return copy;
+    }
+
+    private static class StoredComponent {
+        private final String type;
+        private final List<String> labels;
+        private final List<String> values;
+
+        private StoredComponent(String type, List<String> labels, List<String> values) {
+            this.type = type;
+            this.labels = labels;
+            this.values = values;
+        }
+    }
+}
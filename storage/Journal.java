@@ -0,0 +1,216 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of opaque records, kept in a single file.
+ * <p>
+ * Each record is framed by its length and a CRC32 of its contents, so a record torn by a crash is detected on
+ * {@link #replay(Consumer)} and cut off along with anything after it. Appending only writes; making records durable
+ * is a separate {@link #sync(long)}, and threads syncing at the same time share a single fsync.
+ * <p>
+ * Positions returned by {@link #append(byte[])} only ever grow, including across {@link #truncate()}.
+ */
+public class Journal implements Closeable {
+    public static final String SYNC_LATENCY = "journal.syncLatency";
+    public static final String APPENDED_BYTES = "journal.appendedBytes";
+
+    private static final int HEADER_BYTES = 8;
+
+    private final FileChannel channel;
+
+    private final Object writeLock = new Object();
+    // bytes ever appended, guarded by writeLock
+    private long written = 0;
+
+    private final Object syncLock = new Object();
+    // guarded by syncLock
+    private long durable = 0;
+    private boolean syncing = false;
+
+    public Journal(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    /**
+     * Passes every intact record in the file to the handler, in order, then cuts the file off after the last one so
+     * that new records follow it. Should be called once, before anything is appended.
+     * @return the number of records replayed
+     */
+    public int replay(Consumer<byte[]> handler) throws IOException {
+        synchronized (writeLock){
+            long size = channel.size();
+            long position = 0;
+            int count = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            while (position + HEADER_BYTES <= size){
+                header.clear();
+                readFully(header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 0 || position + HEADER_BYTES + length > size){
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.allocate(length);
+                readFully(record, position + HEADER_BYTES);
+                crc.reset();
+                crc.update(record.array(), 0, length);
+                if ((int) crc.getValue() != checksum){
+                    break;
+                }
+                handler.accept(record.array());
+                position += HEADER_BYTES + length;
+                count++;
+            }
+            if (position < size){
+                // a torn or corrupt tail, left by a crash part way through an append
+                channel.truncate(position);
+                channel.force(false);
+            }
+            channel.position(position);
+            return count;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+            if (read < 0){
+                throw new IOException("Unexpected end of journal");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the record to the end of the file. It is not durable until {@link #sync(long)} has been called with the
+     * returned position or a later one.
+     * @return the position just after the record
+     */
+    public long append(byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + record.length);
+        buffer.putInt(record.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(record);
+        buffer.flip();
+        synchronized (writeLock){
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+            written += buffer.limit();
+            Metrics.increment(APPENDED_BYTES, buffer.limit());
+            return written;
+        }
+    }
+
+    /**
+     * Blocks until every record up to the given position is on disk. If another thread is already syncing, this
+     * waits for it and only syncs again if that did not cover the position.
+     */
+    public void sync(long position) throws IOException {
+        while (true){
+            synchronized (syncLock){
+                while (syncing && durable < position){
+                    try {
+                        syncLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (durable >= position){
+                    return;
+                }
+                syncing = true;
+            }
+            long target;
+            synchronized (writeLock){
+                target = written;
+            }
+            boolean synced = false;
+            long start = Metrics.startTimer();
+            try {
+                channel.force(false);
+                synced = true;
+            } finally {
+                Metrics.stopTimer(SYNC_LATENCY, start);
+                synchronized (syncLock){
+                    syncing = false;
+                    if (synced){
+                        durable = Math.max(durable, target);
+                    }
+                    syncLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Syncs everything appended so far
+     */
+    public void sync() throws IOException {
+        long position;
+        synchronized (writeLock){
+            position = written;
+        }
+        sync(position);
+    }
+
+    /**
+     * Discards every record. Callers must make sure the records are no longer needed, and that nothing is appended
+     * concurrently.
+     */
+    public void truncate() throws IOException {
+        synchronized (writeLock){
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(false);
+            synchronized (syncLock){
+                durable = Math.max(durable, written);
+            }
+        }
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Puts a write-ahead {@link Journal} in front of another storage context.
+ * <p>
+ * Stores, overlay saves and deletes are appended to the journal and kept in memory, and reads see them before the
+ * backing context. {@link #checkpoint()} writes the latest state of everything pending to the backing context and
+ * empties the journal, and opening a context replays whatever a crash left in the journal, so nothing acknowledged is
+ * lost between checkpoints. Repeated saves of the same component or overlay type only reach the backing context once.
+ * Records are kept and checkpointed as the lists {@link HashIdentifiedSpeechComponent#toLabelledLists()} gave, so
+ * the backing context receives exactly what was journaled.
+ * <p>
+ * Only storage calls are journaled, each as the whole record. Edits to a loaded component, such as
+ * {@link Card#setTags(List)}, {@link Card#setTagIndex(int)} or {@link CardOverlay#updateOverlay(int, int, byte)},
+ * are not; they reach the journal when the component is stored again or its overlays are saved.
+ * <p>
+ * With synchronous writes every call returns once its record is on disk, with concurrent callers sharing an fsync.
+ * Otherwise records are only forced by {@link #sync()}, {@link #checkpoint()} and {@link #close()}.
+ */
+public class JournaledStorageContext extends StorageContext implements Closeable {
+    private static final byte STORE_COMPONENT = 1;
+    private static final byte DELETE_COMPONENT = 2;
+    private static final byte SAVE_OVERLAYS = 3;
+    private static final byte DELETE_OVERLAYS = 4;
+
+    private final StorageContext backing;
+    private final Journal journal;
+    private final boolean synchronousWrites;
+
+    // guarded by this, in journal order
+    private final LinkedHashMap<HashKey, PendingComponent> pendingComponents = new LinkedHashMap<>();
+    private final LinkedHashMap<HashKey, PendingOverlays> pendingOverlays = new LinkedHashMap<>();
+
+    private JournaledStorageContext(StorageContext backing, Journal journal, boolean synchronousWrites) {
+        this.backing = backing;
+        this.journal = journal;
+        this.synchronousWrites = synchronousWrites;
+    }
+
+    /**
+     * Opens the journal at the given path, replays anything left in it and checkpoints it into the backing context
+     * @param synchronousWrites whether each write waits for its record to be on disk
+     */
+    public static JournaledStorageContext open(StorageContext backing, Path journalPath, boolean synchronousWrites)
+            throws IOException {
+        Journal journal = new Journal(journalPath);
+        JournaledStorageContext context = new JournaledStorageContext(backing, journal, synchronousWrites);
+        try {
+            journal.replay(record -> {
+                try {
+                    context.apply(record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            context.checkpoint();
+        } catch (UncheckedIOException e) {
+            journal.close();
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        return context;
+    }
+
+    public static JournaledStorageContext open(StorageContext backing, Path journalPath) throws IOException {
+        return open(backing, journalPath, true);
+    }
+
+    @Override
+    public HashIdentifiedSpeechComponent retrieveSpeechComponent(byte[] hash) throws IOException {
+        PendingComponent pending;
+        synchronized (this){
+            pending = pendingComponents.get(new HashKey(hash));
+        }
+        if (pending == null){
+            return backing.retrieveSpeechComponent(hash);
+        }
+        if (pending.type == null){
+            throw new IOException("No component stored with the given hash");
+        }
+        return HashIdentifiedSpeechComponent.createFromLabelledLists(pending.type, pending.labels, pending.values, hash);
+    }
+
+    @Override
+    public boolean containsSpeechComponent(byte[] hash) throws IOException {
+        PendingComponent pending;
+        synchronized (this){
+            pending = pendingComponents.get(new HashKey(hash));
+        }
+        if (pending == null){
+            return backing.containsSpeechComponent(hash);
+        }
+        return pending.type != null;
+    }
+
+    @Override
+    public void storeSpeechComponent(HashIdentifiedSpeechComponent component) throws IOException {
+        long position;
+        synchronized (this){
+            position = appendStore(component);
+        }
+        awaitDurable(position);
+    }
+
+    /**
+     * Appends every component before syncing once
+     */
+    @Override
+    public void storeSpeechComponents(List<HashIdentifiedSpeechComponent> components) throws IOException {
+        long position = 0;
+        synchronized (this){
+            for (HashIdentifiedSpeechComponent component:components){
+                position = appendStore(component);
+            }
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void storeLabelledLists(byte[] hash, String type, List<String> labels, List<String> values)
+            throws IOException {
+        long position;
+        synchronized (this){
+            position = appendStore(hash, type, labels, values);
+        }
+        awaitDurable(position);
+    }
+
+    private long appendStore(HashIdentifiedSpeechComponent component) throws IOException {
+        ArrayList<String>[] labelledLists = component.toLabelledLists();
+        return appendStore(component.getHash(), component.getClass().getName(), labelledLists[0], labelledLists[1]);
+    }
+
+    private long appendStore(byte[] hash, String type, List<String> labels, List<String> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(STORE_COMPONENT);
+        writeBytes(out, hash);
+        writeString(out, type);
+        writeStrings(out, labels);
+        writeStrings(out, values);
+        long position = journal.append(bytes.toByteArray());
+        pendingComponents.remove(new HashKey(hash));
+        pendingComponents.put(new HashKey(hash), new PendingComponent(type, new ArrayList<>(labels),
+                new ArrayList<>(values)));
+        return position;
+    }
+
+    /**
+     * Deletes are journaled here but carried out by the backing context at checkpoints
+     */
+    @Override
+    public boolean supportsDeletion() {
+        return backing.supportsDeletion();
+    }
+
+    @Override
+    public void deleteSpeechComponent(byte[] hash) throws IOException {
+        long position;
+        synchronized (this){
+            position = appendHashRecord(DELETE_COMPONENT, hash);
+            pendingComponents.remove(new HashKey(hash));
+            pendingComponents.put(new HashKey(hash), new PendingComponent(null, null, null));
+        }
+        awaitDurable(position);
+    }
+
+    /**
+     * Passes the backing context's cards, leaving out those changed since the last checkpoint, then the pending
+     * cards
+     */
+    @Override
+    public void forEachCardHash(Consumer<byte[]> consumer) throws IOException {
+        LinkedHashMap<HashKey, PendingComponent> pending;
+        synchronized (this){
+            pending = new LinkedHashMap<>(pendingComponents);
+        }
+        backing.forEachCardHash(hash -> {
+            if (!pending.containsKey(new HashKey(hash))){
+                consumer.accept(hash);
+            }
+        });
+        for (Map.Entry<HashKey, PendingComponent> entry:pending.entrySet()){
+            if (Card.class.getName().equals(entry.getValue().type)){
+                consumer.accept(entry.getKey().getHash());
+            }
+        }
+    }
+
+    @Override
+    public void loadAll(SpeechElementContainer container) throws IOException {
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent component = container.getComponent(i);
+            if (!component.isLoaded()){
+                component.load();
+            }
+        }
+    }
+
+    @Override
+    public HashMap<String, List<CardOverlay>> getOverlays(byte[] hash) {
+        PendingOverlays pending;
+        HashMap<String, List<CardOverlay>> overlays = new HashMap<>();
+        synchronized (this){
+            pending = pendingOverlays.get(new HashKey(hash));
+            if (pending != null){
+                for (Map.Entry<String, List<CardOverlay>> entry:pending.types.entrySet()){
+                    overlays.put(entry.getKey(), InMemoryStorageContext.copyOverlays(entry.getValue()));
+                }
+            }
+        }
+        if (pending == null || !pending.cleared){
+            HashMap<String, List<CardOverlay>> stored = backing.getOverlays(hash);
+            if (stored != null){
+                for (Map.Entry<String, List<CardOverlay>> entry:stored.entrySet()){
+                    overlays.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return overlays;
+    }
+
+    @Override
+    public void saveOverlays(byte[] hash, List<CardOverlay> overlays, String type) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(SAVE_OVERLAYS);
+        writeBytes(out, hash);
+        writeString(out, type);
+        out.writeInt(overlays.size());
+        for (CardOverlay overlay:overlays){
+            writeString(out, overlay.getName());
+            writeBytes(out, overlay.getOverlayPositionBytes());
+            writeBytes(out, overlay.getOverlayTypeBytes());
+        }
+        long position;
+        synchronized (this){
+            position = journal.append(bytes.toByteArray());
+            pendingOverlaysFor(hash).types.put(type, InMemoryStorageContext.copyOverlays(overlays));
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void deleteOverlays(byte[] hash) throws IOException {
+        long position;
+        synchronized (this){
+            position = appendHashRecord(DELETE_OVERLAYS, hash);
+            PendingOverlays pending = pendingOverlaysFor(hash);
+            pending.types.clear();
+            pending.cleared = true;
+        }
+        awaitDurable(position);
+    }
+
+    private PendingOverlays pendingOverlaysFor(byte[] hash){
+        return pendingOverlays.computeIfAbsent(new HashKey(hash), k -> new PendingOverlays());
+    }
+
+    private long appendHashRecord(byte kind, byte[] hash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(kind);
+        writeBytes(out, hash);
+        return journal.append(bytes.toByteArray());
+    }
+
+    private void awaitDurable(long position) throws IOException {
+        if (synchronousWrites){
+            journal.sync(position);
+        }
+    }
+
+    /**
+     * Forces every record appended so far to disk
+     */
+    public void sync() throws IOException {
+        journal.sync();
+    }
+
+    /**
+     * Writes everything pending to the backing context and empties the journal. Writes from other threads wait until
+     * it is done.
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (pendingComponents.isEmpty() && pendingOverlays.isEmpty()){
+            return;
+        }
+        // durable first, so that a failure part way through the backing writes can still be replayed
+        journal.sync();
+        for (Map.Entry<HashKey, PendingComponent> entry:pendingComponents.entrySet()){
+            PendingComponent pending = entry.getValue();
+            byte[] hash = entry.getKey().getHash();
+            if (pending.type == null){
+                backing.deleteSpeechComponent(hash);
+            }else{
+                // rebuilding the component would re-import its blocks through the global context
+                backing.storeLabelledLists(hash, pending.type, pending.labels, pending.values);
+            }
+        }
+        for (Map.Entry<HashKey, PendingOverlays> entry:pendingOverlays.entrySet()){
+            PendingOverlays pending = entry.getValue();
+            byte[] hash = entry.getKey().getHash();
+            if (pending.cleared){
+                backing.deleteOverlays(hash);
+            }
+            for (Map.Entry<String, List<CardOverlay>> type:pending.types.entrySet()){
+                backing.saveOverlays(hash, type.getValue(), type.getKey());
+            }
+        }
+        pendingComponents.clear();
+        pendingOverlays.clear();
+        journal.truncate();
+    }
+
+    /**
+     * @return the number of components and cards with overlays waiting for a checkpoint
+     */
+    public synchronized int getPendingCount() {
+        return pendingComponents.size() + pendingOverlays.size();
+    }
+
+    public StorageContext getBackingContext() {
+        return backing;
+    }
+
+    /**
+     * Checkpoints, then closes the journal
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            checkpoint();
+        } finally {
+            journal.close();
+        }
+    }
+
+    // only called during replay, before the context is shared
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte kind = in.readByte();
+        byte[] hash = readBytes(in);
+        HashKey key = new HashKey(hash);
+        switch (kind){
+            case STORE_COMPONENT:
+                String type = readString(in);
+                List<String> labels = readStrings(in);
+                List<String> values = readStrings(in);
+                pendingComponents.remove(key);
+                pendingComponents.put(key, new PendingComponent(type, labels, values));
+                break;
+            case DELETE_COMPONENT:
+                pendingComponents.remove(key);
+                pendingComponents.put(key, new PendingComponent(null, null, null));
+                break;
+            case SAVE_OVERLAYS:
+                String overlayType = readString(in);
+                int count = in.readInt();
+                List<CardOverlay> overlays = new ArrayList<>(count);
+                for (int i = 0; i < count; i++){
+                    overlays.add(new CardOverlay(readString(in), readBytes(in), readBytes(in)));
+                }
+                pendingOverlaysFor(hash).types.put(overlayType, overlays);
+                break;
+            case DELETE_OVERLAYS:
+                PendingOverlays pending = pendingOverlaysFor(hash);
+                pending.types.clear();
+                pending.cleared = true;
+                break;
+            default:
+                throw new IOException("Unrecognized journal record: " + kind);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // writeUTF is limited to 64K, which card text can exceed
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s:strings){
+            writeString(out, s);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++){
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    private static class PendingComponent {
+        // null for a deleted component
+        private final String type;
+        private final List<String> labels;
+        private final List<String> values;
+
+        private PendingComponent(String type, List<String> labels, List<String> values) {
+            this.type = type;
+            this.labels = labels;
+            this.values = values;
+        }
+    }
+
+    private static class PendingOverlays {
+        private final HashMap<String, List<CardOverlay>> types = new HashMap<>();
+        // whether everything in the backing context is deleted before the types above are saved
+        private boolean cleared = false;
+    }
+}
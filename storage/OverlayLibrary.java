@@ -0,0 +1,29 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import java.io.IOException;
+
+/**
+ * Operations on the stored library that an IOController's overlay manager may offer besides reading and writing. The
+ * default storage context forwards to them when the current manager implements this interface.
+ */
+public interface OverlayLibrary {
+    /**
+     * Deletes every overlay of every type stored for the card with the given hash
+     */
+    void deleteOverlays(byte[] hash) throws IOException;
+}
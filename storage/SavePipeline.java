@@ -0,0 +1,252 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+import org.debatetool.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes modified components in the background, in batches.
+ * <p>
+ * Submitting a component queues it after every modified component below it, and the writer never takes a container
+ * while one of its children is still queued, so a container is never written before the cards and blocks it refers
+ * to. A component that is already queued is not queued twice: it keeps its place in the queue and the write picks up
+ * its latest state. A batch that fails to write goes back to the front of the queue and the failure is thrown from the
+ * next {@link #flush()}, which retries it on the following call. The queue is bounded, and
+ * {@link #submit(HashIdentifiedSpeechComponent)} blocks while it is full, so a fast producer such as an import is held
+ * back to the pace of storage. A producer blocked when a write fails gets the failure rather than waiting for a flush.
+ */
+public class SavePipeline implements AutoCloseable {
+    public static final String FLUSH_LATENCY = "savePipeline.flushLatency";
+    public static final String BATCH_SIZE = "savePipeline.batchSize";
+    public static final String WRITE_ERRORS = "savePipeline.errors";
+
+    private final StorageContext storage;
+    private final int batchSize;
+    // guarded by this: the slots left in the queue, and the queue in submission order
+    private int capacity;
+    private final LinkedHashMap<HashKey, HashIdentifiedSpeechComponent> queued = new LinkedHashMap<>();
+    private int writing = 0;
+    private boolean closed = false;
+    // the last failed write not yet reported by flush; the writer holds off retrying until it is
+    private Exception failure;
+    private final Thread writer;
+
+    /**
+     * @param capacity the most components waiting to be written before submitting blocks
+     * @param batchSize the most components written in one batch
+     */
+    public SavePipeline(StorageContext storage, int capacity, int batchSize) {
+        this.storage = storage;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.writer = new Thread(this::writeLoop, "SavePipeline writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public SavePipeline() {
+        this(StorageContext.getStorageContext(), 1024, 64);
+    }
+
+    /**
+     * Queues the component, and before it every component below it that has been modified
+     * @throws IOException if the queue is full and a write fails while waiting; {@link #flush()} reports it too and
+     * then retries
+     */
+    public void submit(HashIdentifiedSpeechComponent component) throws InterruptedException, IOException {
+        if (component instanceof SpeechElementContainer){
+            submitChildren((SpeechElementContainer) component);
+        }
+        enqueue(component);
+    }
+
+    private void submitChildren(SpeechElementContainer container) throws InterruptedException, IOException {
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent child = container.getComponent(i);
+            if (child instanceof SpeechElementContainer){
+                SpeechElementContainer childContainer = (SpeechElementContainer) child;
+                if (childContainer.isModified()){
+                    submit(childContainer);
+                }else{
+                    // an unmodified container may still hold modified children
+                    submitChildren(childContainer);
+                }
+            }else if (child instanceof HashIdentifiedSpeechComponent
+                    && ((HashIdentifiedSpeechComponent) child).isModified()){
+                enqueue((HashIdentifiedSpeechComponent) child);
+            }
+        }
+    }
+
+    private synchronized void enqueue(HashIdentifiedSpeechComponent component) throws InterruptedException,
+            IOException {
+        HashKey key = new HashKey(component);
+        while (!closed && !queued.containsKey(key) && capacity == 0){
+            if (failure != null){
+                // the writer holds off until a flush, which this producer may be the one to call
+                throw new IOException("Save pipeline failed to write and is full", failure);
+            }
+            wait();
+        }
+        if (closed){
+            throw new IllegalStateException("Save pipeline is closed");
+        }
+        // an already queued component keeps its place; the writer still takes it only after its children
+        if (queued.put(key, component) == null){
+            capacity--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Blocks until everything submitted so far has been written
+     *
+     * @throws IOException if a write failed; the components it held stay queued and are retried after this call
+     */
+    public synchronized void flush() throws InterruptedException, IOException {
+        while ((!queued.isEmpty() || writing > 0) && failure == null && !closed){
+            wait();
+        }
+        if (failure != null){
+            Exception cause = failure;
+            failure = null;
+            notifyAll();
+            throw new IOException("Save pipeline failed to write " + queued.size() + " components", cause);
+        }
+        if (!queued.isEmpty()){
+            throw new IOException("Save pipeline stopped with " + queued.size() + " components unwritten");
+        }
+    }
+
+    /**
+     * Writes everything still queued, then stops the writer
+     *
+     * @throws IOException if something could not be written; it is left modified on the components
+     */
+    @Override
+    public void close() throws InterruptedException, IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this){
+                closed = true;
+                notifyAll();
+            }
+            writer.join();
+        }
+    }
+
+    private void writeLoop(){
+        List<HashIdentifiedSpeechComponent> batch = new ArrayList<>(batchSize);
+        while (true){
+            synchronized (this){
+                try {
+                    while ((queued.isEmpty() || failure != null) && !closed){
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    // wakes flush, which reports whatever is left unwritten
+                    closed = true;
+                    notifyAll();
+                    return;
+                }
+                if (queued.isEmpty() || failure != null){
+                    return;
+                }
+                Iterator<Map.Entry<HashKey, HashIdentifiedSpeechComponent>> iterator = queued.entrySet().iterator();
+                while (iterator.hasNext() && batch.size() < batchSize){
+                    HashIdentifiedSpeechComponent component = iterator.next().getValue();
+                    if (hasQueuedChild(component)){
+                        // a child was queued after it, such as one added before the container was submitted again
+                        continue;
+                    }
+                    iterator.remove();
+                    // cleared before writing, so edits made during the write mark it modified again
+                    component.markSaved();
+                    batch.add(component);
+                }
+                writing = batch.size();
+            }
+            long start = Metrics.startTimer();
+            Exception error = null;
+            try {
+                storage.storeSpeechComponents(batch);
+            } catch (IOException | RuntimeException e) {
+                Metrics.increment(WRITE_ERRORS);
+                e.printStackTrace();
+                error = e;
+            }
+            Metrics.stopTimer(FLUSH_LATENCY, start);
+            Metrics.recordValue(BATCH_SIZE, batch.size());
+            synchronized (this){
+                if (error == null){
+                    capacity += batch.size();
+                }else{
+                    requeue(batch);
+                    failure = error;
+                }
+                writing = 0;
+                notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    // children taken into the current batch are no longer queued, and are written first
+    private boolean hasQueuedChild(HashIdentifiedSpeechComponent component){
+        if (!(component instanceof SpeechElementContainer)){
+            return false;
+        }
+        SpeechElementContainer container = (SpeechElementContainer) component;
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent child = container.getComponent(i);
+            if (child instanceof HashIdentifiedSpeechComponent
+                    && queued.containsKey(new HashKey((HashIdentifiedSpeechComponent) child))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts a failed batch back at the front of the queue, still holding its slots. A component submitted again
+     * during the write keeps its place from the failed batch and gives back the extra slot.
+     */
+    private void requeue(List<HashIdentifiedSpeechComponent> batch){
+        LinkedHashMap<HashKey, HashIdentifiedSpeechComponent> pending = new LinkedHashMap<>(queued);
+        queued.clear();
+        for (HashIdentifiedSpeechComponent component : batch){
+            component.markUnsaved();
+            queued.put(new HashKey(component), component);
+        }
+        for (Map.Entry<HashKey, HashIdentifiedSpeechComponent> entry : pending.entrySet()){
+            if (queued.put(entry.getKey(), entry.getValue()) != null){
+                capacity++;
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.storage.AuditReport.Problem;
+import org.debatetool.core.storage.AuditReport.ProblemType;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks every card in a storage context: that its content still hashes to the hash it is stored under, that its text
+ * is clean, and that its overlays are well formed and fit its text.
+ * <p>
+ * Hashes are streamed from {@link StorageContext#forEachCardHash(java.util.function.Consumer)} in chunks, and each
+ * chunk is checked as a task on a fork-join pool. Only a bounded number of chunks are queued at once, so memory stays
+ * flat however large the library is.
+ */
+public class StorageAuditor {
+    private static final int CHUNK_SIZE = 1024;
+
+    private final StorageContext storage;
+    private final ForkJoinPool pool;
+    private final boolean checkCleanText;
+
+    /**
+     * @param pool the pool to check cards on, or null for one of the audit's own
+     * @param checkCleanText whether to report cards whose text {@link Card#cleanForCard(String)} would change
+     */
+    public StorageAuditor(StorageContext storage, ForkJoinPool pool, boolean checkCleanText) {
+        this.storage = storage;
+        this.pool = pool;
+        this.checkCleanText = checkCleanText;
+    }
+
+    /**
+     * Checks cards on a pool created for each audit, since checking blocks on storage and would starve the common pool
+     */
+    public StorageAuditor(StorageContext storage) {
+        this(storage, null, true);
+    }
+
+    public AuditReport audit() throws IOException {
+        if (this.pool != null){
+            return audit(this.pool);
+        }
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return audit(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private AuditReport audit(ForkJoinPool pool) throws IOException {
+        long start = System.currentTimeMillis();
+        ConcurrentLinkedQueue<Problem> problems = new ConcurrentLinkedQueue<>();
+        LongAdder cards = new LongAdder();
+        LongAdder overlays = new LongAdder();
+        ArrayDeque<ForkJoinTask<?>> running = new ArrayDeque<>();
+        int maxRunning = pool.getParallelism() * 4;
+        List<byte[]> chunk = new ArrayList<>(CHUNK_SIZE);
+        storage.forEachCardHash(hash -> {
+            chunk.add(hash);
+            if (chunk.size() == CHUNK_SIZE){
+                submit(pool, new ArrayList<>(chunk), problems, cards, overlays, running, maxRunning);
+                chunk.clear();
+            }
+        });
+        if (!chunk.isEmpty()){
+            submit(pool, chunk, problems, cards, overlays, running, maxRunning);
+        }
+        while (!running.isEmpty()){
+            running.poll().join();
+        }
+        return new AuditReport(cards.sum(), overlays.sum(), System.currentTimeMillis() - start,
+                new ArrayList<>(problems));
+    }
+
+    private void submit(ForkJoinPool pool, List<byte[]> chunk, ConcurrentLinkedQueue<Problem> problems,
+                        LongAdder cards, LongAdder overlays, ArrayDeque<ForkJoinTask<?>> running, int maxRunning){
+        // wait for the oldest chunk rather than let the queue grow with the library
+        while (running.size() >= maxRunning){
+            running.poll().join();
+        }
+        running.add(pool.submit(() -> {
+            for (byte[] hash:chunk){
+                try {
+                    checkCard(hash, problems, overlays);
+                } catch (RuntimeException e) {
+                    // one bad card must not abort the rest of the audit through join
+                    problems.add(new Problem(hash, ProblemType.UNREADABLE, e.toString()));
+                }
+                cards.increment();
+            }
+        }));
+    }
+
+    private void checkCard(byte[] hash, ConcurrentLinkedQueue<Problem> problems, LongAdder overlayCount){
+        Card card;
+        try {
+            HashIdentifiedSpeechComponent component = storage.retrieveSpeechComponent(hash);
+            if (!(component instanceof Card)){
+                problems.add(new Problem(hash, ProblemType.UNREADABLE, "Not a card: " + component));
+                return;
+            }
+            card = (Card) component;
+        } catch (IOException | RuntimeException e) {
+            problems.add(new Problem(hash, ProblemType.UNREADABLE, e.toString()));
+            return;
+        }
+        String text = card.getText();
+        if (card.identifyHashScheme() == null){
+            problems.add(new Problem(hash, ProblemType.HASH_MISMATCH, "Content hashes differently under every scheme"));
+        }
+        if (checkCleanText && !text.equals(Card.cleanForCard(text))){
+            problems.add(new Problem(hash, ProblemType.UNCLEAN_TEXT, "Text contains characters removed from cards"));
+        }
+        HashMap<String, List<CardOverlay>> overlayMap;
+        try {
+            overlayMap = storage.getOverlays(hash);
+        } catch (RuntimeException e) {
+            problems.add(new Problem(hash, ProblemType.UNREADABLE, "Overlays unreadable: " + e));
+            return;
+        }
+        if (overlayMap == null){
+            return;
+        }
+        for (Map.Entry<String, List<CardOverlay>> entry:overlayMap.entrySet()){
+            for (CardOverlay overlay:entry.getValue()){
+                overlayCount.increment();
+                checkOverlay(hash, entry.getKey(), overlay, text.length(), problems);
+            }
+        }
+    }
+
+    private static void checkOverlay(byte[] hash, String type, CardOverlay overlay, int textLength,
+                                     ConcurrentLinkedQueue<Problem> problems){
+        int positions = overlay.getOverlayPositions().size();
+        // the lengths of the stored blobs, since parsing the positions drops an odd last byte
+        int positionBytes = positions * 2 + (overlay.hasStrayPositionByte() ? 1 : 0);
+        int typeBytes = overlay.getOverlayTypes().size();
+        if (positionBytes % 2 != 0 || positionBytes != typeBytes * 2){
+            problems.add(new Problem(hash, ProblemType.OVERLAY_LENGTH_MISMATCH, type + " overlay " + overlay.getName()
+                    + " has " + positionBytes + " bytes of positions for " + typeBytes + " types"));
+        }
+        long length = 0;
+        for (int i = 0; i < positions; i++){
+            length += Short.toUnsignedInt(overlay.getOverlayPositions().get(i));
+        }
+        if (length > textLength){
+            problems.add(new Problem(hash, ProblemType.OVERLAY_OVERRUN, type + " overlay " + overlay.getName()
+                    + " covers " + length + " characters of " + textLength));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+
+package org.debatetool.core.storage;
+
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The storage backend that components load themselves from and are saved to. Unless another context has been
+ * installed with {@link #setStorageContext(StorageContext)}, everything goes through the global IOController.
+ */
+public abstract class StorageContext {
+    private static volatile StorageContext storageContext = null;
+    private static volatile Executor ioExecutor = null;
+
+    public static StorageContext getStorageContext() {
+        StorageContext context = storageContext;
+        if (context == null){
+            return IOControllerStorageContext.INSTANCE;
+        }
+        return context;
+    }
+
+    /**
+     * Installs the context used by all components from now on
+     * @param context the new context, or null to go back to the IOController
+     */
+    public static void setStorageContext(StorageContext context) {
+        storageContext = context;
+    }
+
+    /**
+     * @return the executor that storage access runs on when the caller doesn't give one. Unless replaced, this is a
+     * bounded pool of daemon threads kept apart from the common pool, so that threads blocked on storage never
+     * starve computation running there.
+     */
+    public static Executor getIOExecutor() {
+        Executor executor = ioExecutor;
+        if (executor == null){
+            return DefaultIOExecutor.INSTANCE;
+        }
+        return executor;
+    }
+
+    /**
+     * @param executor the executor for storage access, or null to go back to the default pool
+     */
+    public static void setIOExecutor(Executor executor) {
+        ioExecutor = executor;
+    }
+
+    public abstract HashIdentifiedSpeechComponent retrieveSpeechComponent(byte[] hash) throws IOException;
+
+    public abstract void storeSpeechComponent(HashIdentifiedSpeechComponent component) throws IOException;
+
+    /**
+     * Stores the components in order. Backends able to write several records at once should override this.
+     */
+    public void storeSpeechComponents(List<HashIdentifiedSpeechComponent> components) throws IOException {
+        for (HashIdentifiedSpeechComponent component:components){
+            storeSpeechComponent(component);
+        }
+    }
+
+    /**
+     * Stores a record as {@link HashIdentifiedSpeechComponent#toLabelledLists()} gave it, for callers such as journals
+     * that hold records rather than components. By default the component is rebuilt and stored, which re-imports any
+     * containers it holds through the global context, so backends able to write the lists directly should override
+     * this.
+     */
+    public void storeLabelledLists(byte[] hash, String type, List<String> labels, List<String> values)
+            throws IOException {
+        storeSpeechComponent(HashIdentifiedSpeechComponent.createFromLabelledLists(type, labels, values, hash));
+    }
+
+    /**
+     * Loads every component in the container
+     */
+    public abstract void loadAll(SpeechElementContainer container) throws IOException;
+
+    /**
+     * @return the overlays of the card with the given hash, keyed by overlay type (IE "Underline")
+     */
+    public abstract HashMap<String, List<CardOverlay>> getOverlays(byte[] hash);
+
+    public abstract void saveOverlays(byte[] hash, List<CardOverlay> overlays, String type) throws IOException;
+
+    /**
+     * Backends that can check for a record without reading it should override this. By default a failed read counts
+     * as absent, since backends differ in how they report a missing hash and callers deduplicating writes would
+     * rather write a card twice than lose it.
+     */
+    public boolean containsSpeechComponent(byte[] hash) throws IOException {
+        try {
+            return retrieveSpeechComponent(hash) != null;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether {@link #deleteSpeechComponent(byte[])} and {@link #deleteOverlays(byte[])} are supported
+     */
+    public boolean supportsDeletion() {
+        return false;
+    }
+
+    public void deleteSpeechComponent(byte[] hash) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Deletes every overlay of every type stored for the card with the given hash
+     */
+    public void deleteOverlays(byte[] hash) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Passes the hash of every stored card to the consumer, for tools that walk the whole library
+     */
+    public void forEachCardHash(Consumer<byte[]> consumer) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    // created on first use only
+    private static final class DefaultIOExecutor {
+        private static final ThreadPoolExecutor INSTANCE;
+
+        static {
+            AtomicInteger count = new AtomicInteger();
+            int threads = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+            INSTANCE = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "Storage I/O " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            INSTANCE.allowCoreThreadTimeOut(true);
+        }
+    }
+}
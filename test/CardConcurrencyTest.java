@@ -0,0 +1,92 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardConcurrencyTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    @Test
+    public void snapshotKeepsOverlaysAtTheTimeItWasTaken() throws Exception {
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "the quick brown fox");
+        CardOverlay highlight = new CardOverlay("h");
+        highlight.updateOverlay(0, 9, CardOverlay.HIGHLIGHT);
+        storage.saveOverlays(card.getHash(), Collections.singletonList(highlight), "Highlight");
+        String before = card.getDisplayContent();
+
+        Card snapshot = card.snapshot();
+        card.getHighlighting().get(0).updateOverlay(0, 19, CardOverlay.HIGHLIGHT);
+
+        assertTrue(snapshot.isImmutable());
+        assertEquals(before, snapshot.getDisplayContent());
+    }
+
+    @Test
+    public void snapshotRejectsChanges() {
+        Card snapshot = new Card(new Cite("Smith", "2019", "Journal"), "text").snapshot();
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.assignOverlaysFromMap(new HashMap<>()));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.setTagIndex(0));
+    }
+
+    @Test
+    public void concurrentAddsKeepEveryComponent() throws Exception {
+        Block block = new Block("block");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++){
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++){
+                        block.addComponent(new Analytic("analytic " + i));
+                    }
+                }));
+            }
+            for (Future<?> future:futures){
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4000, block.size());
+    }
+}
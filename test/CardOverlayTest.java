@@ -0,0 +1,99 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardOverlayTest {
+    private static CardOverlay randomOverlay(Random random, int length) {
+        CardOverlay overlay = new CardOverlay("random");
+        int position = 0;
+        while (position < length){
+            int run = Math.min(length - position, 1 + random.nextInt(8));
+            byte type = random.nextInt(3) == 0 ? 0 : (byte) (1 << random.nextInt(2));
+            overlay.updateOverlay(position, position + run, type);
+            position += run;
+        }
+        return overlay;
+    }
+
+    // the way overlays were combined before composing them in one pass
+    private static CardOverlay replay(CardOverlay... overlays) {
+        CardOverlay combined = new CardOverlay("");
+        for (CardOverlay overlay:overlays){
+            int position = 0;
+            for (int i = 0; i < overlay.getOverlayPositions().size(); i++){
+                int run = Short.toUnsignedInt(overlay.getOverlayPositions().get(i));
+                combined.updateOverlay(position, position + run, overlay.getOverlayTypes().get(i));
+                position += run;
+            }
+        }
+        return combined;
+    }
+
+    @Test
+    public void composingMatchesReplayingRuns() {
+        Random random = new Random(4);
+        String text = new String(new char[50]).replace('\0', 'a');
+        for (int trial = 0; trial < 200; trial++){
+            CardOverlay[] overlays = {randomOverlay(random, 50), randomOverlay(random, 50), randomOverlay(random, 50)};
+            CardOverlay expected = replay(overlays);
+            CardOverlay combined = CardOverlay.combineOverlays(overlays);
+            assertArrayEquals(expected.getOverlayPositions().toArray(), combined.getOverlayPositions().toArray());
+            assertArrayEquals(expected.getOverlayTypes().toArray(), combined.getOverlayTypes().toArray());
+            assertEquals(expected.generateHTML(text), combined.generateHTML(text));
+        }
+    }
+
+    @Test
+    public void composingSkipsMissingOverlays() {
+        CardOverlay underline = new CardOverlay("u");
+        underline.updateOverlay(2, 6, CardOverlay.UNDERLINE);
+        CardOverlay combined = CardOverlay.combineOverlays(null, underline, null);
+        assertArrayEquals(underline.getOverlayPositions().toArray(), combined.getOverlayPositions().toArray());
+        assertArrayEquals(underline.getOverlayTypes().toArray(), combined.getOverlayTypes().toArray());
+        assertEquals(0, CardOverlay.combineOverlays().getOverlayPositions().size());
+    }
+
+    @Test
+    public void layerBitsReplaceTypes() {
+        CardOverlay first = new CardOverlay("first");
+        first.updateOverlay(0, 4, CardOverlay.UNDERLINE);
+        CardOverlay second = new CardOverlay("second");
+        second.updateOverlay(2, 6, CardOverlay.UNDERLINE);
+        CardOverlay combined = CardOverlay.composeOverlays(new CardOverlay[]{first, second},
+                new byte[]{0, CardOverlay.HIGHLIGHT});
+        CardOverlay expected = new CardOverlay("expected");
+        expected.updateOverlay(0, 4, CardOverlay.UNDERLINE);
+        expected.updateOverlay(2, 6, CardOverlay.HIGHLIGHT);
+        String text = "abcdefgh";
+        assertEquals(expected.generateHTML(text), combined.generateHTML(text));
+    }
+
+    @Test
+    public void addRunSplitsLongRuns() {
+        CardOverlay overlay = new CardOverlay("long");
+        overlay.addRun(3, CardOverlay.UNDERLINE);
+        overlay.addRun(Short.MAX_VALUE + 10, CardOverlay.HIGHLIGHT);
+        overlay.addRun(0, CardOverlay.UNDERLINE);
+        assertArrayEquals(new short[]{3, Short.MAX_VALUE, 10}, overlay.getOverlayPositions().toArray());
+        assertArrayEquals(new byte[]{CardOverlay.UNDERLINE, CardOverlay.HIGHLIGHT, CardOverlay.HIGHLIGHT},
+                overlay.getOverlayTypes().toArray());
+    }
+}
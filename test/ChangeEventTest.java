@@ -0,0 +1,149 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeEventTest {
+    private StorageContext previous;
+    private final List<ChangeListener> globalListeners = new ArrayList<>();
+    private Block block;
+    private Card card;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        StorageContext.setStorageContext(new InMemoryStorageContext());
+        block = new Block("advantage");
+        card = new Card(new Cite("Smith", "2019", "Journal"), "the quick brown fox");
+        block.addComponent(card);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (ChangeListener listener : globalListeners){
+            HashIdentifiedSpeechComponent.removeGlobalChangeListener(listener);
+        }
+        StorageContext.setStorageContext(previous);
+    }
+
+    private void addGlobal(ChangeListener listener){
+        globalListeners.add(listener);
+        HashIdentifiedSpeechComponent.addGlobalChangeListener(listener);
+    }
+
+    @Test
+    public void listenersHearTheirComponent() {
+        List<ChangeEvent> cardEvents = new ArrayList<>();
+        List<ChangeEvent> globalEvents = new ArrayList<>();
+        card.addChangeListener(cardEvents::add);
+        addGlobal(globalEvents::add);
+
+        card.addTag("tag");
+        block.setName("renamed");
+        block.addComponent(new Analytic("analytic"));
+
+        assertEquals(1, cardEvents.size());
+        assertSame(card, cardEvents.get(0).getSource());
+        assertEquals(EnumSet.of(ChangeType.TAGS), cardEvents.get(0).getTypes());
+        assertEquals(3, globalEvents.size());
+        assertTrue(globalEvents.get(1).contains(ChangeType.NAME));
+        assertSame(block, globalEvents.get(2).getSource());
+        assertEquals(ChangeType.CHILDREN.getMask(), globalEvents.get(2).getChanges());
+    }
+
+    @Test
+    public void removedListenersHearNothing() {
+        List<ChangeEvent> events = new ArrayList<>();
+        ChangeListener local = events::add;
+        ChangeListener global = events::add;
+        block.addChangeListener(local);
+        addGlobal(global);
+        block.setName("first");
+        assertEquals(2, events.size());
+
+        block.removeChangeListener(local);
+        HashIdentifiedSpeechComponent.removeGlobalChangeListener(global);
+        block.setName("second");
+        block.clearContents();
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void failingListenerDoesNotStopOthers() {
+        List<ChangeEvent> events = new ArrayList<>();
+        card.addChangeListener(event -> {
+            throw new RuntimeException("expected by the test");
+        });
+        card.addChangeListener(events::add);
+        addGlobal(events::add);
+        card.addTag("tag");
+        assertEquals(2, events.size());
+        assertTrue(card.getTags().contains("tag"));
+    }
+
+    @Test
+    public void batchesCoalescePerComponent() {
+        List<ChangeEvent> events = new ArrayList<>();
+        addGlobal(events::add);
+        try (ChangeBatch batch = ChangeBatch.begin()){
+            assertTrue(ChangeBatch.isActive());
+            card.addTag("one");
+            block.setName("renamed");
+            card.setPreferredUnderlineIndex(0);
+            try (ChangeBatch inner = ChangeBatch.begin()){
+                assertSame(batch, inner);
+                card.addTag("two");
+                block.addComponent(new Analytic("analytic"));
+            }
+            // closing the inner batch delivers nothing until the outer one closes
+            assertTrue(events.isEmpty());
+        }
+        assertFalse(ChangeBatch.isActive());
+        assertEquals(2, events.size());
+        assertSame(card, events.get(0).getSource());
+        assertEquals(EnumSet.of(ChangeType.TAGS, ChangeType.SELECTION), events.get(0).getTypes());
+        assertSame(block, events.get(1).getSource());
+        assertEquals(EnumSet.of(ChangeType.NAME, ChangeType.CHILDREN), events.get(1).getTypes());
+    }
+
+    @Test
+    public void batchesCloseOnceOnTheirThread() throws Exception {
+        ChangeBatch batch = ChangeBatch.begin();
+        Throwable[] thrown = new Throwable[1];
+        Thread other = new Thread(() -> {
+            try {
+                batch.close();
+            } catch (Throwable e) {
+                thrown[0] = e;
+            }
+        });
+        other.start();
+        other.join();
+        assertTrue(thrown[0] instanceof IllegalStateException);
+        batch.close();
+        assertThrows(IllegalStateException.class, batch::close);
+    }
+}
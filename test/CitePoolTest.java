@@ -0,0 +1,98 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CitePoolTest {
+    private HashScheme previousScheme;
+
+    @BeforeEach
+    public void setUp() {
+        previousScheme = HashScheme.getDefault();
+        HashScheme.setDefault(HashScheme.MD5);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        HashScheme.setDefault(previousScheme);
+    }
+
+    @Test
+    public void equalCitesShareOneInstance() {
+        CitePool pool = new CitePool();
+        Cite given = new Cite("Smith", "19", "info");
+        Cite canonical = pool.intern(given);
+        assertNotSame(given, canonical);
+        assertEquals(given, canonical);
+        assertSame(canonical, pool.intern("Smith", "19", "info"));
+        assertSame(canonical, pool.intern(canonical));
+        assertNotSame(canonical, pool.intern("Jones", "19", "info"));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void sharedCitesRejectModification() throws Exception {
+        Cite given = new Cite("Smith", "19", "info");
+        Cite canonical = new CitePool().intern(given);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Cite("Jones", "20", "other").writeToOutput(new DataOutputStream(bytes));
+        assertThrows(UnsupportedOperationException.class, () -> canonical.loadFromInput(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        // the cite that was interned stays private to its owner
+        given.loadFromInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals("Jones", given.getAuthor());
+        assertEquals("Smith", canonical.getAuthor());
+    }
+
+    @Test
+    public void cardsShareCitesWithoutChangingHashes() throws Exception {
+        Card first = new Card(new Cite("Smith", "19", "info"), "text one");
+        Card second = new Card(new Cite("Smith", "19", "info"), "text two");
+        assertSame(first.getCite(), second.getCite());
+        byte[] expected = MessageDigest.getInstance("MD5").digest(
+                ("text one" + "Smith19info").getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(expected, first.getHash());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        first.writeToOutput(new DataOutputStream(bytes));
+        Card loaded = Card.loadFromInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), true);
+        assertSame(first.getCite(), loaded.getCite());
+    }
+
+    @Test
+    public void unreferencedCitesAreDropped() throws Exception {
+        CitePool pool = new CitePool();
+        for (int i = 0; i < 100; i++){
+            pool.intern("Author " + i, "19", "info");
+        }
+        for (int attempt = 0; attempt < 50 && pool.size() > 0; attempt++){
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(0, pool.size());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContainerRenderingTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    @Test
+    public void outlineShowsPlaceholdersUntilLoaded() throws Exception {
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "body");
+        card.addTag("<script>x</script>");
+        storage.storeSpeechComponent(card);
+        Block block = new Block("<b>");
+        block.addComponent(new Card(card.getHash()));
+        block.addComponent(new Analytic("analytic"));
+        Speech speech = new Speech("speech");
+        speech.addComponent(block);
+
+        String outline = speech.getOutlineDisplayContent();
+        assertTrue(outline.contains("<n>&lt;b&gt;</n>"));
+        assertTrue(outline.contains("<n>" + SpeechElementContainer.OUTLINE_PLACEHOLDER + "</n>"));
+        assertTrue(outline.contains("analytic"));
+        assertFalse(block.getComponent(0).isLoaded());
+
+        speech.loadAsync(ForkJoinPool.commonPool()).join();
+        outline = speech.getOutlineDisplayContent();
+        assertFalse(outline.contains(SpeechElementContainer.OUTLINE_PLACEHOLDER));
+        assertTrue(outline.contains("<n>&lt;script&gt;x&lt;/script&gt;</n>"));
+        assertFalse(outline.contains("body"));
+    }
+
+    @Test
+    public void rendersRanges() {
+        Block block = new Block("block");
+        for (int i = 0; i < 5; i++){
+            block.addComponent(new Analytic("analytic " + i));
+        }
+        String part = block.getDisplayContent(1, 3);
+        assertFalse(part.contains("analytic 0"));
+        assertTrue(part.contains("analytic 1"));
+        assertTrue(part.contains("analytic 2"));
+        assertFalse(part.contains("analytic 3"));
+        assertEquals(block.getDisplayContent(), block.getDisplayContent(0, Integer.MAX_VALUE));
+        assertTrue(block.getDisplayContent(5, 9).isEmpty());
+        assertTrue(block.getDisplayContent(2, 2).isEmpty());
+    }
+
+    @Test
+    public void rejectsInvalidRanges() {
+        Block block = new Block("block");
+        block.addComponent(new Analytic("analytic"));
+        assertThrows(IllegalArgumentException.class, () -> block.getDisplayContent(-1, 2));
+        assertThrows(IllegalArgumentException.class, () -> block.getDisplayContent(2, 1));
+        assertThrows(IllegalArgumentException.class, () -> block.loadRangeAsync(-1, 1, ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void loadsRanges() throws Exception {
+        Card first = new Card(new Cite("Smith", "2019", "Journal"), "first");
+        Card second = new Card(new Cite("Smith", "2019", "Journal"), "second");
+        storage.storeSpeechComponent(first);
+        storage.storeSpeechComponent(second);
+        Block block = new Block("block");
+        block.addComponent(new Card(first.getHash()));
+        block.addComponent(new Card(second.getHash()));
+
+        block.loadRangeAsync(1, 10, ForkJoinPool.commonPool()).join();
+        assertFalse(block.getComponent(0).isLoaded());
+        assertTrue(block.getComponent(1).isLoaded());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentDigestTreeTest {
+    private StorageContext previous;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        StorageContext.setStorageContext(new InMemoryStorageContext());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    private static Card card(String text) {
+        return new Card(new Cite("Smith", "2019", "Journal"), text);
+    }
+
+    @Test
+    public void incrementalDigestMatchesFreshTree() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 50; trial++){
+            Block block = new Block("block");
+            block.getContentDigest();
+            for (int op = 0; op < 30; op++){
+                int kind = random.nextInt(3);
+                if (kind == 0 || block.size() == 0){
+                    block.addComponent(card("text " + random.nextInt(40)));
+                }else if (kind == 1){
+                    block.removeComponent(random.nextInt(block.size()));
+                }else {
+                    block.insertComponentAbove(block.getComponent(random.nextInt(block.size())),
+                            new Analytic("analytic " + op));
+                }
+                if (random.nextInt(4) == 0){
+                    block.getContentDigest();
+                }
+            }
+            Block fresh = new Block("block");
+            for (int i = 0; i < block.size(); i++){
+                fresh.addComponent(block.getComponent(i));
+            }
+            assertArrayEquals(fresh.getContentDigest(), block.getContentDigest(), "trial " + trial);
+        }
+    }
+
+    @Test
+    public void digestFollowsChangesInNestedComponents() {
+        Speech speech = new Speech("speech");
+        Block block = new Block("block");
+        Card card = card("text");
+        block.addComponent(card);
+        speech.addComponent(block);
+        speech.addComponent(card);
+        byte[] before = speech.getContentDigest();
+        assertArrayEquals(before, speech.getContentDigest());
+
+        card.setPreferredHighlightIndex(2);
+        byte[] after = speech.getContentDigest();
+        assertFalse(Arrays.equals(before, after));
+        assertArrayEquals(new ContentDigestTree(Arrays.asList(block, card)).getRoot(),
+                speech.getContentDigestTree().getRoot());
+
+        block.addComponent(card("other"));
+        assertFalse(Arrays.equals(after, speech.getContentDigest()));
+        assertArrayEquals(new ContentDigestTree(Arrays.asList(block, card)).getRoot(),
+                speech.getContentDigestTree().getRoot());
+    }
+
+    @Test
+    public void findsDifferingLeaves() {
+        List<SpeechComponent> left = new ArrayList<>();
+        List<SpeechComponent> right = new ArrayList<>();
+        for (int i = 0; i < 10; i++){
+            Card card = card("text " + i);
+            left.add(card);
+            right.add(card.clone());
+        }
+        ((Card) right.get(3)).setPreferredHighlightIndex(1);
+        right.add(new Analytic("extra"));
+        ContentDigestTree leftTree = new ContentDigestTree(left);
+        ContentDigestTree rightTree = new ContentDigestTree(right);
+        assertEquals(Arrays.asList(3, 10), leftTree.differingLeaves(rightTree));
+        assertEquals(11, rightTree.getLeafCount());
+
+        assertTrue(leftTree.differingLeaves(new ContentDigestTree(new ArrayList<>(left))).isEmpty());
+        leftTree.dispose();
+        rightTree.dispose();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashSchemeTest {
+    private HashScheme previous;
+
+    @BeforeEach
+    public void setUp() {
+        previous = HashScheme.getDefault();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        HashScheme.setDefault(previous);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b:bytes){
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void murmur3MatchesReferenceVectors() {
+        assertEquals("00000000000000000000000000000000", hex(HashScheme.murmur3(new byte[0], 0)));
+        assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", hex(HashScheme.murmur3(
+                "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8), 0)));
+    }
+
+    @Test
+    public void murmur3CoversEveryTailLength() {
+        // prefixes of the same data, ending at each kind of block and tail boundary
+        String[] expected = {
+                "4d3587739b033682204996d8879336c3",
+                "5123bfc0f6d52da6f04c547c0cf5cc4f",
+                "a7d14acf946de04bda08a7635c5bc387",
+                "42056e1a0c7828b8b2e9a71391732239",
+                "f7f1edc0ce5c282f0ba5de7463d605c4"};
+        int[] lengths = {8, 15, 16, 31, 32};
+        byte[] data = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < lengths.length; i++){
+            assertEquals(expected[i], hex(HashScheme.murmur3(Arrays.copyOf(data, lengths[i]), 0)));
+        }
+        Set<String> hashes = new HashSet<>();
+        for (int length = 0; length <= data.length; length++){
+            hashes.add(hex(HashScheme.murmur3(Arrays.copyOf(data, length), 0)));
+        }
+        assertEquals(data.length + 1, hashes.size());
+    }
+
+    @Test
+    public void identifiesSchemeByRecomputing() {
+        byte[] data = "content".getBytes(StandardCharsets.UTF_8);
+        byte[] md5 = HashScheme.MD5.hash(data);
+        byte[] murmur = HashScheme.MURMUR3_128.hash(data);
+        assertEquals(HashScheme.HASH_LENGTH, md5.length);
+        assertEquals((byte) 0xA3, murmur[0]);
+        assertEquals(HashScheme.MD5, HashScheme.identify(md5, data));
+        assertEquals(HashScheme.MURMUR3_128, HashScheme.identify(murmur, data));
+        assertNull(HashScheme.identify(murmur, "other".getBytes(StandardCharsets.UTF_8)));
+        assertThrows(IllegalArgumentException.class, () -> HashScheme.setDefault(null));
+    }
+
+    @Test
+    public void cardsKeepTheirSchemeAfterTheDefaultChanges() throws Exception {
+        HashScheme.setDefault(HashScheme.MD5);
+        Card old = new Card(new Cite("Smith", "2019", "Journal"), "old card");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        old.writeToOutput(new DataOutputStream(bytes));
+
+        HashScheme.setDefault(HashScheme.MURMUR3_128);
+        Card fresh = new Card(new Cite("Smith", "2019", "Journal"), "old card");
+        assertEquals(HashScheme.MURMUR3_128, fresh.identifyHashScheme());
+        assertArrayEquals(old.computeContentHash(HashScheme.MURMUR3_128), fresh.getHash());
+
+        Card loaded = Card.loadFromInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), true);
+        assertArrayEquals(old.getHash(), loaded.getHash());
+        assertEquals(HashScheme.MD5, loaded.identifyHashScheme());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadAsyncTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    @Test
+    public void loadsContainerCardsAndTheirOverlays() throws Exception {
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "Some card text here");
+        storage.storeSpeechComponent(card);
+        CardOverlay underline = new CardOverlay("u");
+        underline.updateOverlay(0, 4, CardOverlay.UNDERLINE);
+        storage.saveOverlays(card.getHash(), Collections.singletonList(underline), "Underline");
+        Block block = new Block("block");
+        block.addComponent(new Card(card.getHash()));
+        block.addComponent(new Analytic("analytic"));
+        storage.storeSpeechComponent(block);
+
+        Block retrieved = (Block) storage.retrieveSpeechComponent(block.getHash());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            retrieved.loadAsync(executor).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(retrieved.isLoaded());
+        Card retrievedCard = (Card) retrieved.getComponent(0);
+        assertTrue(retrievedCard.isLoaded());
+        assertEquals("Some card text here", retrievedCard.getText());
+        assertTrue(retrievedCard.getDisplayContent().contains("<u>Some</u>"));
+    }
+
+    @Test
+    public void failedLoadCompletesExceptionally() {
+        Card missing = new Card(new byte[16]);
+        assertThrows(Exception.class, () -> missing.loadAsync().get(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.debatetool.core.crdt.ContentsOperation;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergeableContentsTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    private static List<String> contents(SpeechElementContainer container){
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < container.size(); i++){
+            contents.add(container.getComponent(i).getStorageString());
+        }
+        return contents;
+    }
+
+    private static List<ContentsOperation> roundTrip(List<ContentsOperation> operations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ContentsOperation.writeToOutput(operations, new DataOutputStream(bytes));
+        return ContentsOperation.loadFromInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static void exchange(Block from, Block to){
+        to.mergeContentsOperations(from.getContentsOperationsSince(to.getContentsVersionVector()));
+    }
+
+    @Test
+    public void concurrentBlockEditsConverge() throws IOException {
+        Block a = new Block("b");
+        for (String text : new String[]{"a", "b", "c"}){
+            a.addComponent(new Analytic(text));
+        }
+        assertFalse(a.isMergeableContentsEnabled());
+        a.enableMergeableContents(1);
+        assertTrue(a.isMergeableContentsEnabled());
+        Block b = new Block("b");
+        b.enableMergeableContents(2, roundTrip(a.getContentsOperationsSince(Collections.emptyMap())));
+        assertEquals(contents(a), contents(b));
+
+        a.insertComponentAbove(a.getComponent(1), new Analytic("x"));
+        a.removeComponent(3);
+        b.insertComponentAbove(b.getComponent(1), new Analytic("y"));
+        b.removeComponent(2);
+        b.addComponent(new Analytic("z"));
+
+        List<ContentsOperation> fromA = roundTrip(a.getContentsOperationsSince(b.getContentsVersionVector()));
+        List<ContentsOperation> fromB = roundTrip(b.getContentsOperationsSince(a.getContentsVersionVector()));
+        Collections.reverse(fromB);
+        assertTrue(a.mergeContentsOperations(fromB));
+        assertTrue(b.mergeContentsOperations(fromA));
+        assertEquals(contents(a), contents(b));
+        assertEquals(4, a.size());
+        assertArrayEquals(a.getContentDigest(), b.getContentDigest());
+
+        assertFalse(a.mergeContentsOperations(fromB));
+        assertEquals(a.getContentsVersionVector(), b.getContentsVersionVector());
+    }
+
+    @Test
+    public void randomBlockEditsConverge() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++){
+            Block x = new Block("x");
+            for (int i = 0; i < 5; i++){
+                x.addComponent(new Analytic("s" + i));
+            }
+            x.enableMergeableContents(1);
+            Block y = new Block("x");
+            y.enableMergeableContents(2, x.getContentsOperationsSince(Collections.emptyMap()));
+            Block z = new Block("x");
+            z.enableMergeableContents(3, x.getContentsOperationsSince(Collections.emptyMap()));
+            Block[] replicas = {x, y, z};
+            for (int step = 0; step < 100; step++){
+                Block block = replicas[random.nextInt(3)];
+                int choice = random.nextInt(10);
+                if (block.size() > 0 && choice < 4){
+                    block.insertComponentAbove(block.getComponent(random.nextInt(block.size())),
+                            new Analytic("v" + step));
+                } else if (block.size() > 0 && choice < 6){
+                    block.removeComponent(random.nextInt(block.size()));
+                } else if (choice == 9 && random.nextInt(10) == 0){
+                    block.clearContents();
+                } else {
+                    block.addComponent(new Analytic("a" + step));
+                }
+                if (random.nextInt(5) == 0){
+                    Block from = replicas[random.nextInt(3)];
+                    Block to = replicas[random.nextInt(3)];
+                    List<ContentsOperation> operations =
+                            new ArrayList<>(from.getContentsOperationsSince(to.getContentsVersionVector()));
+                    Collections.shuffle(operations, random);
+                    to.mergeContentsOperations(operations);
+                }
+            }
+            for (Block from : replicas){
+                for (Block to : replicas){
+                    exchange(from, to);
+                }
+            }
+            assertEquals(contents(x), contents(y), "round " + round);
+            assertEquals(contents(y), contents(z), "round " + round);
+
+            // merged edits keep the digest tree in step with the contents
+            Block fresh = new Block("x");
+            for (int i = 0; i < x.size(); i++){
+                fresh.addComponent(x.getComponent(i));
+            }
+            assertArrayEquals(fresh.getContentDigest(), x.getContentDigest());
+        }
+    }
+
+    @Test
+    public void storedHistoryLetsLoadedCopiesMerge() throws IOException {
+        Block block = new Block("p");
+        for (int i = 0; i < 4; i++){
+            block.addComponent(new Analytic("s" + i));
+        }
+        block.enableMergeableContents(1);
+        block.removeComponent(1);
+        storage.storeSpeechComponent(block);
+
+        Block first = (Block) storage.retrieveSpeechComponent(block.getHash());
+        Block second = (Block) storage.retrieveSpeechComponent(block.getHash());
+        first.enableMergeableContents(5);
+        second.enableMergeableContents(6);
+        first.addComponent(new Analytic("from5"));
+        second.insertComponentAbove(second.getComponent(0), new Analytic("from6"));
+        exchange(second, first);
+        exchange(first, second);
+        assertEquals(contents(first), contents(second));
+        assertEquals(5, first.size());
+        assertFalse(contents(first).contains("s1"));
+
+        storage.storeSpeechComponent(first);
+        List<String> before = contents(first);
+        assertThrows(IllegalStateException.class, first::reload);
+        first.reload(7);
+        assertTrue(first.isMergeableContentsEnabled());
+        assertEquals(before, contents(first));
+        // the reloaded history still merges with the other copy
+        second.addComponent(new Analytic("later"));
+        exchange(second, first);
+        assertEquals(contents(second), contents(first));
+    }
+
+    @Test
+    public void reloadContinuesAsANewReplica() throws IOException {
+        Block block = new Block("p");
+        block.addComponent(new Analytic("saved"));
+        block.enableMergeableContents(1);
+        storage.storeSpeechComponent(block);
+        Block other = (Block) storage.retrieveSpeechComponent(block.getHash());
+        other.enableMergeableContents(2);
+
+        // sent to the other copy, then lost locally by reloading the older save
+        block.addComponent(new Analytic("unsaved"));
+        exchange(block, other);
+        block.reload(3);
+        assertEquals(Collections.singletonList("saved"), contents(block));
+
+        block.addComponent(new Analytic("after reload"));
+        exchange(block, other);
+        exchange(other, block);
+        assertEquals(contents(other), contents(block));
+        assertEquals(3, block.size());
+        assertTrue(contents(block).contains("after reload"));
+        assertTrue(contents(block).contains("unsaved"));
+    }
+
+    @Test
+    public void mismatchedHistoryIsReported() throws IOException {
+        Block kept = new Block("kept");
+        Block nested = new Block("nested");
+        storage.storeSpeechComponents(Arrays.asList(kept, nested));
+        Speech speech = new Speech("1AC");
+        speech.addComponent(kept);
+        speech.addComponent(nested);
+        speech.enableMergeableContents(1);
+        storage.storeSpeechComponent(speech);
+        Speech loaded = (Speech) storage.retrieveSpeechComponent(speech.getHash());
+        loaded.enableMergeableContents(2);
+
+        // the nested block no longer loads, so the stored contents fall short of the history
+        storage.deleteSpeechComponent(nested.getHash());
+        assertThrows(IOException.class, () -> loaded.reload(4));
+        assertTrue(loaded.isMergeableContentsEnabled());
+        assertEquals(2, loaded.size());
+
+        Speech broken = (Speech) storage.retrieveSpeechComponent(speech.getHash());
+        assertEquals(1, broken.size());
+        assertThrows(IllegalStateException.class, () -> broken.enableMergeableContents(3));
+        assertFalse(broken.isMergeableContentsEnabled());
+        // can still join the history of a copy that loaded fully
+        storage.storeSpeechComponent(nested);
+        broken.enableMergeableContents(3, speech.getContentsOperationsSince(Collections.emptyMap()));
+        assertTrue(broken.isMergeableContentsEnabled());
+        assertEquals(2, broken.size());
+    }
+}
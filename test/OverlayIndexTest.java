@@ -0,0 +1,103 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OverlayIndexTest {
+    private static final String TEXT = "hello world foo";
+
+    private static CardOverlay overlay(int[][] runs) {
+        CardOverlay overlay = new CardOverlay("o");
+        for (int[] run:runs){
+            overlay.updateOverlay(run[0], run[1], (byte) run[2]);
+        }
+        return overlay;
+    }
+
+    @Test
+    public void answersPositionQueries() {
+        CardOverlay overlay = overlay(new int[][]{{0, 5, CardOverlay.UNDERLINE}, {6, 11, CardOverlay.HIGHLIGHT},
+                {11, 20, 0}});
+        OverlayIndex index = new OverlayIndex(overlay, TEXT);
+        assertEquals(CardOverlay.UNDERLINE, index.typeAt(0));
+        assertEquals(0, index.typeAt(5));
+        assertEquals(CardOverlay.HIGHLIGHT, index.typeAt(10));
+        assertEquals(0, index.typeAt(14));
+        assertEquals(0, index.typeAt(-1));
+        assertEquals(0, index.typeAt(100));
+
+        List<int[]> ranges = index.getRanges((byte) (CardOverlay.UNDERLINE | CardOverlay.HIGHLIGHT));
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new int[]{0, 5}, ranges.get(0));
+        assertArrayEquals(new int[]{6, 11}, ranges.get(1));
+        assertEquals(10, index.countCharacters((byte) (CardOverlay.UNDERLINE | CardOverlay.HIGHLIGHT)));
+        assertEquals(5, index.countCharacters(CardOverlay.HIGHLIGHT));
+        assertEquals(3, index.countWords());
+    }
+
+    @Test
+    public void countsSplitWordsOnce() {
+        // "he" and "lo wo" both cover part of "hello"
+        CardOverlay split = overlay(new int[][]{{0, 2, 1}, {2, 3, 0}, {3, 8, 1}, {8, 15, 0}});
+        assertEquals(2, new OverlayIndex(split, TEXT).countWords((byte) 1));
+        // "hel" and "rld foo" are in different words
+        CardOverlay separate = overlay(new int[][]{{0, 3, 1}, {3, 7, 0}, {7, 15, 1}});
+        assertEquals(3, new OverlayIndex(separate, TEXT).countWords((byte) 1));
+        // neighbouring runs of different types covered by one mask
+        CardOverlay neighbours = overlay(new int[][]{{0, 3, CardOverlay.UNDERLINE}, {3, 5, CardOverlay.HIGHLIGHT}});
+        assertEquals(1, new OverlayIndex(neighbours, TEXT).countWords((byte) 3));
+    }
+
+    @Test
+    public void countsMatchCharacterScan() {
+        Random random = new Random(2);
+        String text = "the quick brown fox jumps over the lazy dog and keeps running";
+        for (int trial = 0; trial < 200; trial++){
+            CardOverlay overlay = new CardOverlay("o");
+            int position = 0;
+            while (position < text.length()){
+                int run = 1 + random.nextInt(6);
+                overlay.updateOverlay(position, position + run, (byte) random.nextInt(2));
+                position += run;
+            }
+            OverlayIndex index = new OverlayIndex(overlay, text);
+            int characters = 0;
+            int words = 0;
+            boolean counted = false;
+            for (int i = 0; i < text.length(); i++){
+                if (Character.isWhitespace(text.charAt(i))){
+                    counted = false;
+                }else if (index.typeAt(i) != 0){
+                    characters++;
+                    if (!counted){
+                        words++;
+                        counted = true;
+                    }
+                }
+                if (index.typeAt(i) != 0 && Character.isWhitespace(text.charAt(i))){
+                    characters++;
+                }
+            }
+            assertEquals(characters, index.countCharacters((byte) 1));
+            assertEquals(words, index.countWords((byte) 1), "trial " + trial);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentOverlayTest {
+    private static final int LENGTH = 200;
+
+    private static void assertMatches(byte[] expected, int expectedLength, PersistentOverlay overlay) {
+        assertEquals(expectedLength, overlay.getLength());
+        for (int i = 0; i < LENGTH; i++){
+            assertEquals(i < expectedLength ? expected[i] : 0, overlay.typeAt(i), "position " + i);
+        }
+    }
+
+    @Test
+    public void everyVersionKeepsItsState() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 50; trial++){
+            byte[] reference = new byte[LENGTH];
+            int referenceLength = 0;
+            PersistentOverlay overlay = PersistentOverlay.empty();
+            List<PersistentOverlay> versions = new ArrayList<>();
+            List<byte[]> references = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            for (int edit = 0; edit < 30; edit++){
+                int start = random.nextInt(LENGTH - 1);
+                int end = start + 1 + random.nextInt(LENGTH - start - 1);
+                byte type = (byte) (1 << random.nextInt(3));
+                for (int i = start; i < end; i++){
+                    reference[i] |= type;
+                }
+                referenceLength = Math.max(referenceLength, end);
+                overlay = overlay.apply(start, end, type);
+                versions.add(overlay);
+                references.add(reference.clone());
+                lengths.add(referenceLength);
+            }
+            for (int v = 0; v < versions.size(); v++){
+                PersistentOverlay version = versions.get(v);
+                assertMatches(references.get(v), lengths.get(v), version);
+                assertMatches(references.get(v), lengths.get(v), PersistentOverlay.of(version.toCardOverlay("copy")));
+            }
+        }
+    }
+
+    @Test
+    public void rendersLikeMutableOverlay() {
+        String text = "abcdefghijklmnopqrstuvwxyz0123456789";
+        CardOverlay mutable = new CardOverlay("mutable");
+        PersistentOverlay persistent = PersistentOverlay.empty();
+        int[][] edits = {{2, 5, CardOverlay.HIGHLIGHT}, {4, 10, CardOverlay.UNDERLINE}, {0, 3, CardOverlay.UNDERLINE},
+                {20, 30, CardOverlay.HIGHLIGHT}};
+        for (int[] edit:edits){
+            mutable.updateOverlay(edit[0], edit[1], (byte) edit[2]);
+            persistent = persistent.apply(edit[0], edit[1], (byte) edit[2]);
+        }
+        assertEquals(mutable.generateHTML(text), persistent.toCardOverlay("persistent").generateHTML(text));
+        assertSame(persistent, persistent.apply(3, 3, CardOverlay.UNDERLINE));
+        PersistentOverlay last = persistent;
+        assertThrows(IllegalArgumentException.class, () -> last.apply(5, 4, CardOverlay.UNDERLINE));
+        assertEquals(0, PersistentOverlay.empty().getRunCount());
+    }
+
+    @Test
+    public void historyUndoesAndRedoes() {
+        OverlayHistory history = new OverlayHistory();
+        assertFalse(history.canUndo());
+        history.apply(0, 5, CardOverlay.HIGHLIGHT);
+        history.apply(3, 8, CardOverlay.UNDERLINE);
+        assertEquals(CardOverlay.HIGHLIGHT | CardOverlay.UNDERLINE, history.getCurrent().typeAt(4));
+
+        history.undo();
+        assertEquals(CardOverlay.HIGHLIGHT, history.getCurrent().typeAt(4));
+        assertTrue(history.canRedo());
+        history.redo();
+        assertEquals(2, history.getCurrentVersion());
+        history.undo();
+
+        // a new edit drops the undone version
+        history.apply(1, 2, CardOverlay.UNDERLINE);
+        assertFalse(history.canRedo());
+        assertEquals(3, history.getVersionCount());
+        assertEquals(0, history.getVersion(0).getLength());
+        assertThrows(IllegalStateException.class, history::redo);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.compress;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionTest {
+    private static final String BOILERPLATE = "The United States federal government should substantially increase its"
+            + " investment in renewable energy infrastructure, because the status quo risks catastrophic warming. ";
+
+    private static List<String> samples() {
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++){
+            samples.add("Smith " + i + ", Professor of Policy. " + BOILERPLATE + "Sample number " + i);
+        }
+        return samples;
+    }
+
+    private static byte[] write(Card card, CompressionDictionary dictionary) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        card.writeCompressedToOutput(new DataOutputStream(bytes), dictionary);
+        return bytes.toByteArray();
+    }
+
+    private static Card read(byte[] record) throws Exception {
+        return Card.loadFromInput(new DataInputStream(new ByteArrayInputStream(record)), true);
+    }
+
+    @Test
+    public void codecRoundTrips() {
+        CompressionDictionary dictionary = CompressionDictionary.train(samples(), 4096);
+        byte[] data = (BOILERPLATE + BOILERPLATE + "tail").getBytes(StandardCharsets.UTF_8);
+        for (CompressionDictionary used:new CompressionDictionary[]{null, dictionary}){
+            byte[] compressed = CardTextCodec.compress(data, used);
+            assertTrue(compressed.length < data.length);
+            assertArrayEquals(data, CardTextCodec.decompress(compressed, data.length, used));
+        }
+        assertArrayEquals(new byte[0], CardTextCodec.decompress(CardTextCodec.compress(new byte[0], null), 0, null));
+    }
+
+    @Test
+    public void compressedCardsRoundTrip() throws Exception {
+        CompressionDictionary dictionary = CompressionDictionary.train(samples(), 4096);
+        CompressionDictionary.register(dictionary);
+        assertSame(dictionary, CompressionDictionary.forId(dictionary.getId()));
+
+        Card card = new Card(new Cite("Jones", "2020", "Policy Review"), BOILERPLATE + "A new card");
+        byte[] plain = write(card, null);
+        byte[] primed = write(card, dictionary);
+        assertTrue(primed.length < plain.length);
+        for (byte[] record:new byte[][]{plain, primed}){
+            Card loaded = read(record);
+            assertEquals(card, loaded);
+            assertEquals(card.getText(), loaded.getText());
+            assertEquals(card.getTimeStamp(), loaded.getTimeStamp());
+        }
+    }
+
+    @Test
+    public void trainedDictionaryRespectsSize() throws Exception {
+        assertTrue(CompressionDictionary.train(samples(), 512).getBytes().length <= 512);
+        assertTrue(CompressionDictionary.train(samples(), 1 << 20).getBytes().length
+                <= CompressionDictionary.MAX_SIZE);
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompressionDictionary(new byte[CompressionDictionary.MAX_SIZE + 1]));
+
+        CompressionDictionary dictionary = CompressionDictionary.train(samples(), 1024);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        dictionary.writeToOutput(new DataOutputStream(bytes));
+        CompressionDictionary loaded = CompressionDictionary.loadFromInput(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(dictionary.getId(), loaded.getId());
+        assertArrayEquals(dictionary.getBytes(), loaded.getBytes());
+    }
+
+    @Test
+    public void rejectsCollidingDictionaries() {
+        // find two small dictionaries whose ids collide
+        HashMap<Integer, byte[]> seen = new HashMap<>();
+        Random random = new Random(1);
+        byte[] first = null;
+        byte[] second = null;
+        while (first == null){
+            byte[] bytes = new byte[8];
+            random.nextBytes(bytes);
+            byte[] previous = seen.put(new CompressionDictionary(bytes).getId(), bytes);
+            if (previous != null && !Arrays.equals(previous, bytes)){
+                first = previous;
+                second = bytes;
+            }
+        }
+        CompressionDictionary.register(new CompressionDictionary(first));
+        // registering the same bytes again is fine
+        CompressionDictionary.register(new CompressionDictionary(first.clone()));
+        CompressionDictionary colliding = new CompressionDictionary(second);
+        assertThrows(IllegalArgumentException.class, () -> CompressionDictionary.register(colliding));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.crdt;
+
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Card;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentsSequenceTest {
+    private static ContentsOperation insert(ContentsSequence<String> sequence, int index, String value){
+        return sequence.insert(index, value, Analytic.class.getName(), value, null);
+    }
+
+    private static List<ContentsOperation> roundTrip(List<ContentsOperation> operations) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ContentsOperation.writeToOutput(operations, new DataOutputStream(bytes));
+        return ContentsOperation.loadFromInput(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void replicaIdsMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ContentsSequence<String>(0));
+        assertThrows(IllegalArgumentException.class, () -> new ContentsSequence<String>(-1));
+    }
+
+    @Test
+    public void concurrentEditsConverge() {
+        ContentsSequence<String> a = new ContentsSequence<>(1);
+        for (String value : new String[]{"a", "b", "c"}){
+            insert(a, a.size(), value);
+        }
+        ContentsSequence<String> b = new ContentsSequence<>(2);
+        b.merge(a.getOperations(), ContentsOperation::getStorageString);
+        assertEquals(Arrays.asList("a", "b", "c"), b.getValues());
+
+        insert(a, 1, "x");
+        a.delete(3);
+        insert(b, 1, "y");
+        b.delete(2);
+        insert(b, b.size(), "z");
+
+        List<ContentsOperation> fromA = a.getOperationsSince(b.getVersionVector());
+        List<ContentsOperation> fromB = new ArrayList<>(b.getOperationsSince(a.getVersionVector()));
+        // out of order delivery is buffered until the operations it depends on arrive
+        Collections.reverse(fromB);
+        assertTrue(a.merge(fromB, ContentsOperation::getStorageString));
+        assertTrue(b.merge(fromA, ContentsOperation::getStorageString));
+        assertEquals(0, a.getPendingCount());
+        assertEquals(a.getValues(), b.getValues());
+        assertFalse(a.getValues().contains("b"));
+        assertFalse(a.getValues().contains("c"));
+        assertEquals(a.getVersionVector(), b.getVersionVector());
+
+        // applying the same operations again changes nothing
+        assertFalse(a.merge(fromB, ContentsOperation::getStorageString));
+        assertEquals(b.getValues(), a.getValues());
+    }
+
+    @Test
+    public void randomEditsConverge() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 100; trial++){
+            List<ContentsSequence<String>> replicas = new ArrayList<>();
+            for (int i = 1; i <= 3; i++){
+                replicas.add(new ContentsSequence<>(i));
+            }
+            for (int round = 0; round < 10; round++){
+                for (ContentsSequence<String> replica : replicas){
+                    for (int k = 0; k < 4; k++){
+                        if (replica.size() > 0 && random.nextInt(3) == 0){
+                            replica.delete(random.nextInt(replica.size()));
+                        } else {
+                            insert(replica, random.nextInt(replica.size() + 1), "v" + random.nextInt(1000));
+                        }
+                    }
+                }
+                ContentsSequence<String> from = replicas.get(random.nextInt(3));
+                ContentsSequence<String> to = replicas.get(random.nextInt(3));
+                List<ContentsOperation> operations = new ArrayList<>(from.getOperationsSince(to.getVersionVector()));
+                Collections.shuffle(operations, random);
+                to.merge(operations, ContentsOperation::getStorageString);
+            }
+            for (ContentsSequence<String> from : replicas){
+                for (ContentsSequence<String> to : replicas){
+                    to.merge(from.getOperationsSince(to.getVersionVector()), ContentsOperation::getStorageString);
+                }
+            }
+            for (ContentsSequence<String> replica : replicas){
+                assertEquals(0, replica.getPendingCount());
+                assertEquals(replicas.get(0).getValues(), replica.getValues(), "trial " + trial);
+            }
+        }
+    }
+
+    @Test
+    public void listenerMirrorsMergedValues() {
+        Random random = new Random(3);
+        ContentsSequence<String> source = new ContentsSequence<>(1);
+        ContentsSequence<String> target = new ContentsSequence<>(2);
+        List<String> mirror = new ArrayList<>();
+        ContentsSequence.Listener<String> listener = new ContentsSequence.Listener<String>() {
+            @Override
+            public void inserted(int index, String value) {
+                mirror.add(index, value);
+            }
+
+            @Override
+            public void removed(int index) {
+                mirror.remove(index);
+            }
+        };
+        for (int step = 0; step < 300; step++){
+            if (source.size() == 0 || random.nextInt(3) > 0){
+                insert(source, random.nextInt(source.size() + 1), "e" + step);
+            } else {
+                source.delete(random.nextInt(source.size()));
+            }
+            if (random.nextInt(4) == 0){
+                List<ContentsOperation> operations = new ArrayList<>(source.getOperationsSince(target.getVersionVector()));
+                Collections.shuffle(operations, random);
+                target.merge(operations, ContentsOperation::getStorageString, listener);
+                assertEquals(target.getValues(), mirror);
+            }
+        }
+    }
+
+    @Test
+    public void materializerCanLeaveValuesOut() {
+        ContentsSequence<String> a = new ContentsSequence<>(1);
+        insert(a, 0, "keep");
+        insert(a, 1, "skip");
+        insert(a, 2, "keep too");
+        ContentsSequence<String> b = new ContentsSequence<>(2);
+        b.merge(a.getOperations(), op -> op.getStorageString().equals("skip") ? null : op.getStorageString());
+        assertEquals(Arrays.asList("keep", "keep too"), b.getValues());
+    }
+
+    @Test
+    public void operationsSurviveSerialization() throws IOException {
+        ContentsSequence<String> a = new ContentsSequence<>(1);
+        insert(a, 0, "analytic");
+        a.insert(1, "card", Card.class.getName(), "hash", "state");
+        a.insert(2, "other", "some.other.Type", "other", null);
+        a.delete(0);
+        List<ContentsOperation> operations = a.getOperations();
+        List<ContentsOperation> loaded = roundTrip(operations);
+        assertEquals(operations.size(), loaded.size());
+        for (int i = 0; i < operations.size(); i++){
+            ContentsOperation expected = operations.get(i);
+            ContentsOperation actual = loaded.get(i);
+            assertEquals(expected.isInsert(), actual.isInsert());
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getTarget(), actual.getTarget());
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getStorageString(), actual.getStorageString());
+            assertEquals(expected.getState(), actual.getState());
+        }
+        ContentsSequence<String> b = new ContentsSequence<>(2);
+        b.merge(loaded, ContentsOperation::getStorageString);
+        assertEquals(Arrays.asList("hash", "other"), b.getValues());
+    }
+
+    @Test
+    public void restoreKeepsSavedValues() {
+        ContentsSequence<String> a = new ContentsSequence<>(1);
+        insert(a, 0, "a");
+        insert(a, 1, "b");
+        insert(a, 2, "c");
+        a.delete(1);
+        ContentsSequence<String> restored = ContentsSequence.restore(1, a.getOperations(), Arrays.asList("A", "C"));
+        assertEquals(Arrays.asList("A", "C"), restored.getValues());
+        assertEquals(a.getVersionVector(), restored.getVersionVector());
+
+        // new edits continue the replica's clock rather than reusing ids
+        ContentsOperation next = insert(restored, 2, "d");
+        assertFalse(a.getOperations().stream().anyMatch(op -> op.getId().equals(next.getId())));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ContentsSequence.restore(1, a.getOperations(), Arrays.asList("A")));
+    }
+
+    @Test
+    public void deleteAllEmptiesEveryReplica() {
+        ContentsSequence<String> a = new ContentsSequence<>(1);
+        for (int i = 0; i < 50; i++){
+            insert(a, a.size(), "v" + i);
+        }
+        ContentsSequence<String> b = new ContentsSequence<>(2);
+        b.merge(a.getOperations(), ContentsOperation::getStorageString);
+        List<ContentsOperation> deletes = a.deleteAll();
+        assertEquals(50, deletes.size());
+        assertEquals(0, a.size());
+        assertTrue(b.merge(deletes, ContentsOperation::getStorageString));
+        assertTrue(b.getValues().isEmpty());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.export;
+
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.Speech;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocxExporterTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    private static Map<String, String> export(Speech speech, boolean includeAnalytics) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DocxExporter(includeAnalytics).export(speech, bytes);
+        Map<String, String> entries = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null){
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = zip.read(buffer)) > 0){
+                    content.write(buffer, 0, length);
+                }
+                entries.put(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    private static Document parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Speech speech() throws Exception {
+        Speech speech = new Speech("1AC & <friends>");
+        Block block = new Block("Advantage");
+        block.addComponent(new Analytic("an analytic"));
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "underlined then plain");
+        card.addTag("the tag");
+        CardOverlay overlay = new CardOverlay("u");
+        overlay.updateOverlay(0, 10, CardOverlay.UNDERLINE);
+        storage.saveOverlays(card.getHash(), Collections.singletonList(overlay), "Underline");
+        block.addComponent(card);
+        speech.addComponent(block);
+        return speech;
+    }
+
+    @Test
+    public void writesWellFormedPackage() throws Exception {
+        Map<String, String> entries = export(speech(), true);
+        for (String name:new String[]{"[Content_Types].xml", "_rels/.rels", "word/_rels/document.xml.rels",
+                "word/styles.xml", "word/document.xml"}){
+            assertTrue(entries.containsKey(name), name);
+            parse(entries.get(name));
+        }
+        String document = entries.get("word/document.xml");
+        assertTrue(document.contains("1AC &amp; &lt;friends&gt;"));
+        assertTrue(document.contains("an analytic"));
+        assertTrue(document.contains("the tag"));
+        assertTrue(document.contains("<w:b/></w:rPr><w:t xml:space=\"preserve\">Smith 2019</w:t>"));
+        assertTrue(document.contains("<w:u w:val=\"single\"/></w:rPr><w:t xml:space=\"preserve\">underlined</w:t>"));
+        assertTrue(document.contains("<w:t xml:space=\"preserve\"> then plain</w:t>"));
+    }
+
+    @Test
+    public void leavesOutAnalyticsWhenAsked() throws Exception {
+        String document = export(speech(), false).get("word/document.xml");
+        assertFalse(document.contains("an analytic"));
+        assertTrue(document.contains("the tag"));
+    }
+
+    @Test
+    public void loadsCardsFromStorage() throws Exception {
+        Speech speech = speech();
+        Block block = (Block) speech.getComponent(0);
+        Card card = (Card) block.getComponent(1);
+        storage.storeSpeechComponent(card);
+        storage.storeSpeechComponent(block);
+        storage.storeSpeechComponent(speech);
+        Speech stored = (Speech) storage.retrieveSpeechComponent(speech.getHash());
+        assertFalse(((Block) stored.getComponent(0)).getComponent(1).isLoaded());
+
+        String document = export(stored, true).get("word/document.xml");
+        assertTrue(document.contains(">underlined</w:t>"));
+        assertFalse(((Block) stored.getComponent(0)).getComponent(1).isLoaded());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.index;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CiteIndexTest {
+    private static Card card(String author, String date, String info) {
+        return new Card(new Cite(author, date, info), author + " " + date + " " + info);
+    }
+
+    private static void assertCards(List<byte[]> hashes, Card... cards) {
+        assertEquals(cards.length, hashes.size());
+        for (int i = 0; i < cards.length; i++){
+            assertArrayEquals(cards[i].getHash(), hashes.get(i));
+        }
+    }
+
+    @Test
+    public void parsesCommonDateForms() {
+        assertEquals(20190314, CiteIndex.parseDate("March 14, 2019"));
+        assertEquals(20190314, CiteIndex.parseDate("3/14/19"));
+        assertEquals(20190314, CiteIndex.parseDate("2019-03-14"));
+        assertEquals(20180000, CiteIndex.parseDate("2018"));
+        assertEquals(20140000, CiteIndex.parseDate("'14"));
+        assertEquals(20140000, CiteIndex.parseDate("Spring 14"));
+        assertEquals(19980100, CiteIndex.parseDate("Jan '98"));
+        assertEquals(20201203, CiteIndex.parseDate("Dec 3 '20"));
+        assertEquals(19990000, CiteIndex.parseDate("winter 99"));
+    }
+
+    @Test
+    public void daysAfterMonthsAreNotYears() {
+        assertEquals(CiteIndex.UNKNOWN_DATE, CiteIndex.parseDate("March 14"));
+        assertEquals(CiteIndex.UNKNOWN_DATE, CiteIndex.parseDate("Mar. 14"));
+        assertEquals(CiteIndex.UNKNOWN_DATE, CiteIndex.parseDate("14 March"));
+        assertEquals(CiteIndex.UNKNOWN_DATE, CiteIndex.parseDate("no date"));
+        assertEquals(CiteIndex.UNKNOWN_DATE, CiteIndex.parseDate(null));
+        assertEquals(CiteIndex.UNKNOWN_DATE, CiteIndex.parseDate(""));
+    }
+
+    @Test
+    public void monthsMatchWholeWords() {
+        assertEquals(20190000, CiteIndex.parseDate("Marshall 2019"));
+        assertEquals(20190000, CiteIndex.parseDate("mayor's office, 2019"));
+        assertEquals(20190000, CiteIndex.parseDate("Decatur 19"));
+        assertEquals(20190903, CiteIndex.parseDate("Sept. 3, 2019"));
+        assertEquals(20190500, CiteIndex.parseDate("Mayor Smith, May 2019"));
+        assertEquals(CiteIndex.UNKNOWN_DATE, CiteIndex.parseDate("September 19"));
+    }
+
+    @Test
+    public void twoDigitYearsFollowThePivot() {
+        assertEquals(20300000, CiteIndex.parseDate("'30"));
+        assertEquals(19500000, CiteIndex.parseDate("'50"));
+        assertEquals(20490000, CiteIndex.parseDate("'49"));
+        assertEquals(19300000, CiteIndex.parseDate("'30", 2020));
+        assertEquals(20200000, CiteIndex.parseDate("'20", 2020));
+        assertEquals(20300000, CiteIndex.parseDate("2030", 2020));
+    }
+
+    @Test
+    public void normalizesAuthorsAndSources() {
+        assertEquals("muller", CiteIndex.normalizeAuthor("M\u00fcller et al."));
+        assertEquals("smith jones", CiteIndex.normalizeAuthor("  Smith & Jones "));
+        assertEquals("foreign affairs", CiteIndex.normalizeSource("Foreign Affairs, Professor at Yale"));
+        assertEquals("", CiteIndex.normalizeSource(null));
+    }
+
+    @Test
+    public void queriesByAuthorAndSource() {
+        CiteIndex index = new CiteIndex();
+        Card old = card("Smith", "2015", "Foreign Affairs, vol 1");
+        Card recent = card("Smith et al", "March 2019", "Foreign Affairs, vol 2");
+        Card newest = card("Smithson", "2020", "Nature");
+        Card undated = card("Smith", "n.d.", "Nature");
+        for (Card card:Arrays.asList(recent, newest, undated, old)){
+            index.add(card);
+        }
+
+        assertCards(index.getCardsByAuthor("smith", 0, Integer.MAX_VALUE), undated, old, recent);
+        assertCards(index.getCardsByAuthorSince("Smith", CiteIndex.dateKey(2018, 0, 0)), recent);
+        assertCards(index.getCardsByAuthor("Smith", CiteIndex.dateKey(2015, 0, 0), CiteIndex.dateKey(2015, 12, 31)), old);
+        assertCards(index.getCardsByAuthorPrefix("smi", CiteIndex.dateKey(2019, 0, 0), Integer.MAX_VALUE),
+                recent, newest);
+        assertEquals(Arrays.asList("smith", "smithson"), index.getAuthorsByPrefix("Smi"));
+
+        assertCards(index.getMostRecentBySource("foreign affairs", 10), recent, old);
+        assertCards(index.getMostRecentBySource("Nature", 1), newest);
+        assertArrayEquals(newest.getHash(), index.getMostRecentPerSource().get("nature"));
+
+        index.remove(recent.getHash());
+        assertCards(index.getCardsByAuthorSince("Smith", CiteIndex.dateKey(2018, 0, 0)));
+        index.cardDeleted(newest.getHash());
+        assertTrue(index.getAuthorsByPrefix("smiths").isEmpty());
+    }
+}
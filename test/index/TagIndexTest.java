@@ -0,0 +1,131 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.index;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.debatetool.core.storage.CardStore;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TagIndexTest {
+    private TagIndex previous;
+    private TagIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        previous = TagIndex.getLibraryIndex();
+        index = new TagIndex();
+        TagIndex.setLibraryIndex(index);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TagIndex.setLibraryIndex(previous);
+    }
+
+    private static Card card(String text) {
+        return new Card(new Cite("Smith", "2019", "Journal"), text);
+    }
+
+    private static boolean contains(List<byte[]> hashes, Card card) {
+        for (byte[] hash:hashes){
+            if (Arrays.equals(hash, card.getHash())){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void cardsReportTagChanges() {
+        Card first = card("first");
+        first.addTag("econ");
+        first.addTag("heg");
+        Card second = card("second");
+        second.addTag("econ");
+
+        assertEquals(2, index.getCardsWithTag("econ").size());
+        List<byte[]> both = index.getCardsWithAllTags(Arrays.asList("econ", "heg"));
+        assertEquals(1, both.size());
+        assertTrue(contains(both, first));
+
+        first.setTags(Arrays.asList("warming"));
+        assertTrue(index.getCardsWithTag("heg").isEmpty());
+        assertEquals(1, index.countCardsWithTag("econ"));
+        assertArrayEquals(new int[]{index.getDictionary().getId("warming")}, index.getTagIds(first.getHash()));
+    }
+
+    @Test
+    public void cardsLoadedFromStorageAreIndexed() throws Exception {
+        InMemoryStorageContext storage = new InMemoryStorageContext();
+        Card card = card("stored");
+        card.addTag("econ");
+        storage.storeSpeechComponent(card);
+        index.remove(card.getHash());
+        assertTrue(index.getCardsWithTag("econ").isEmpty());
+
+        storage.retrieveSpeechComponent(card.getHash());
+        assertTrue(contains(index.getCardsWithTag("econ"), card));
+
+        index.remove(card.getHash());
+        StorageContext previousStorage = StorageContext.getStorageContext();
+        StorageContext.setStorageContext(storage);
+        try {
+            Card stub = new Card(card.getHash());
+            stub.load();
+            assertTrue(contains(index.getCardsWithTag("econ"), card));
+        } finally {
+            StorageContext.setStorageContext(previousStorage);
+        }
+    }
+
+    @Test
+    public void unknownTagsMatchNothing() {
+        card("text").addTag("econ");
+        assertTrue(index.getCardsWithTag("never used").isEmpty());
+        assertTrue(index.getCardsWithAllTags(Arrays.asList("econ", "never used")).isEmpty());
+        assertEquals(0, index.countCardsWithTag("never used"));
+        assertEquals(TagDictionary.NO_TAG, index.getDictionary().getId("never used"));
+        assertArrayEquals(new int[0], index.getTagIds(card("not indexed").getHash()));
+    }
+
+    @Test
+    public void followsCardStore() throws Exception {
+        TagIndex.setLibraryIndex(null);
+        InMemoryStorageContext storage = new InMemoryStorageContext();
+        CardStore store = new CardStore(storage, 0, TimeUnit.MILLISECONDS);
+        store.addListener(index);
+        Card card = card("text");
+        card.addTag("econ");
+        assertEquals(0, index.countCardsWithTag("econ"));
+
+        store.storeCard(card);
+        assertTrue(contains(index.getCardsWithTag("econ"), card));
+
+        index.cardDeleted(card.getHash());
+        assertEquals(0, index.countCardsWithTag("econ"));
+        assertArrayEquals(new int[0], index.getTagIds(card.getHash()));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.ingest;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EvidenceIngesterTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    private static IngestResult ingest(IngestionSink sink, String source, EvidenceIngester.Format format)
+            throws IOException {
+        return new EvidenceIngester(sink, ForkJoinPool.commonPool(), 2, 2).ingest(
+                Channels.newChannel(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8))),
+                StandardCharsets.UTF_8, format);
+    }
+
+    // the stored cards by their first tag
+    private Map<String, Card> cardsByTag() throws IOException {
+        List<byte[]> hashes = new ArrayList<>();
+        storage.forEachCardHash(hashes::add);
+        Map<String, Card> cards = new HashMap<>();
+        for (byte[] hash:hashes){
+            Card card = (Card) storage.retrieveSpeechComponent(hash);
+            cards.put(card.getTags().get(0), card);
+        }
+        return cards;
+    }
+
+    private static String render(Card card) {
+        return card.getCombinedOverlay().generateHTML(card.getText());
+    }
+
+    @Test
+    public void readsHtmlStructure() throws Exception {
+        String html = "<html><head><style>p{color:red}</style></head><body><!-- a -- comment -->"
+                + "<h1>1AC</h1><h3>Inherency</h3><p>They say &amp; stuff</p>"
+                + "<h4>Tag one &mdash; good</h4><p>Smith 19 (John Smith, Professor, &quot;Title&quot;)</p>"
+                + "<p>The <u>quick <span style=\"background:yellow\">brown</span> fox</u> jumps.</p>"
+                + "<p>Second <mark>para</mark></p>"
+                + "<h4>No cite</h4>"
+                + "<h3>Plan</h3><h4>Tag two</h4><p>Jones 2020 [web]</p><p>Body <b>two</b></p></body></html>";
+        IngestResult result = ingest(EvidenceIngester.storageSink(storage), html, EvidenceIngester.Format.HTML);
+        assertEquals(2, result.getCards());
+        assertEquals(1, result.getSkippedCards());
+        assertEquals(1, result.getAnalytics());
+        assertEquals(2, result.getBlocks());
+        assertEquals(1, result.getSpeeches());
+        assertEquals(5, storage.size());
+
+        Map<String, Card> cards = cardsByTag();
+        Card first = cards.get("Tag one \u2014 good");
+        assertEquals("Smith", first.getCite().getAuthor());
+        assertEquals("19", first.getCite().getDate());
+        assertEquals("John Smith, Professor, \"Title\"", first.getCite().getAdditionalInfo());
+        assertEquals("The quick brown fox jumps. Second para", first.getText());
+        assertEquals("The <u>quick </u><h><u>brown</u></h><u> fox</u> jumps. Second <h>para</h>", render(first));
+
+        Card second = cards.get("Tag two");
+        assertEquals("Jones", second.getCite().getAuthor());
+        assertEquals("2020", second.getCite().getDate());
+        assertEquals("Body two", render(second));
+    }
+
+    @Test
+    public void readsStylesDeclarationByDeclaration() throws Exception {
+        String html = "<h4>styles</h4><p>A 1 (x)</p><p>"
+                + "<span style='text-decoration: underline'>one</span> "
+                + "<span style=\"background-color: rgb(255, 255, 255)\">two</span> "
+                + "<span style=\"background: WHITE url(x.png)\">three</span> "
+                + "<span style=\"mso-highlight:yellow\">four</span> "
+                + "<span class=StyleUnderline>five</span> "
+                + "<span style=\"color: red; text-decoration: none\">six</span></p>";
+        ingest(EvidenceIngester.storageSink(storage), html, EvidenceIngester.Format.HTML);
+        assertEquals("<u>one</u> two three <h>four</h> <u>five</u> six", render(cardsByTag().get("styles")));
+    }
+
+    @Test
+    public void formattingEndsWithItsParagraph() throws Exception {
+        String html = "<h4>unclosed</h4><p>A 1 (x)</p><p>one <u>two</p><p>three <mark>four</p>"
+                + "<h4>void</h4><p>B 2 (y)</p><p>five <col style=\"background:yellow\">six "
+                + "<wbr class=underline>seven <embed style=\"text-decoration:underline\">eight</p>";
+        ingest(EvidenceIngester.storageSink(storage), html, EvidenceIngester.Format.HTML);
+        Map<String, Card> cards = cardsByTag();
+        assertEquals("one <u>two</u> three <h>four</h>", render(cards.get("unclosed")));
+        assertEquals("five six seven eight", render(cards.get("void")));
+    }
+
+    @Test
+    public void readsPlainText() throws Exception {
+        String text = "# 1NC\n\n## T\n\nanalytic line\n#### Tag x\nDoe 21 (info)\n\nline one\nline two\n\npara two\n";
+        IngestResult result = ingest(EvidenceIngester.storageSink(storage), text, EvidenceIngester.Format.TEXT);
+        assertEquals(1, result.getCards());
+        assertEquals(1, result.getAnalytics());
+        assertEquals(1, result.getBlocks());
+        assertEquals(1, result.getSpeeches());
+        Card card = cardsByTag().get("Tag x");
+        assertEquals("Doe", card.getCite().getAuthor());
+        assertEquals("info", card.getCite().getAdditionalInfo());
+        assertEquals("line one line two para two", card.getText());
+    }
+
+    @Test
+    public void deliversContainersAfterTheirContents() throws Exception {
+        StringBuilder html = new StringBuilder("<h1>Speech</h1>");
+        for (int i = 0; i < 3000; i++){
+            if (i % 50 == 0){
+                html.append("<h3>Block ").append(i).append("</h3>");
+            }
+            html.append("<h4>tag ").append(i).append("</h4><p>A 1 (x)</p><p>text <u>").append(i)
+                    .append("</u> more</p>");
+        }
+        IngestionSink stored = EvidenceIngester.storageSink(storage);
+        List<String> containers = Collections.synchronizedList(new ArrayList<>());
+        IngestionSink checking = new IngestionSink() {
+            @Override
+            public void acceptCards(IngestBatch batch) throws IOException {
+                stored.acceptCards(batch);
+            }
+
+            @Override
+            public void acceptContainer(SpeechElementContainer container) throws IOException {
+                for (int i = 0; i < container.size(); i++){
+                    SpeechComponent child = container.getComponent(i);
+                    assertTrue(storage.containsSpeechComponent(((HashIdentifiedSpeechComponent) child).getHash()));
+                }
+                stored.acceptContainer(container);
+                containers.add(container.getClass().getSimpleName());
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            IngestResult result = new EvidenceIngester(checking, executor, 64, 4).ingest(
+                    Channels.newChannel(new ByteArrayInputStream(html.toString().getBytes(StandardCharsets.UTF_8))),
+                    StandardCharsets.UTF_8, EvidenceIngester.Format.HTML);
+            assertEquals(3000, result.getCards());
+            assertEquals(60, result.getBlocks());
+            assertEquals(3061, storage.size());
+            assertEquals(61, containers.size());
+            assertEquals("Speech", containers.get(containers.size() - 1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void sinkFailuresStopTheIngest() {
+        StringBuilder html = new StringBuilder("<h3>Block</h3>");
+        for (int i = 0; i < 100; i++){
+            html.append("<h4>tag ").append(i).append("</h4><p>A 1 (x)</p><p>text ").append(i).append("</p>");
+        }
+        List<SpeechElementContainer> containers = Collections.synchronizedList(new ArrayList<>());
+        IngestionSink failing = new IngestionSink() {
+            @Override
+            public void acceptCards(IngestBatch batch) throws IOException {
+                throw new IOException("Sink failed on purpose");
+            }
+
+            @Override
+            public void acceptContainer(SpeechElementContainer container) {
+                containers.add(container);
+            }
+        };
+        IOException failure = assertThrows(IOException.class,
+                () -> ingest(failing, html.toString(), EvidenceIngester.Format.HTML));
+        assertEquals("Sink failed on purpose", failure.getMessage());
+        assertTrue(containers.isEmpty());
+    }
+
+    @Test
+    public void picksFormatFromExtension() {
+        assertEquals(EvidenceIngester.Format.HTML, EvidenceIngester.Format.forPath(Paths.get("file.HTML")));
+        assertEquals(EvidenceIngester.Format.HTML, EvidenceIngester.Format.forPath(Paths.get("dir/file.htm")));
+        assertEquals(EvidenceIngester.Format.TEXT, EvidenceIngester.Format.forPath(Paths.get("file.txt")));
+        assertThrows(IllegalArgumentException.class,
+                () -> new EvidenceIngester(EvidenceIngester.storageSink(storage), ForkJoinPool.commonPool(), 0, 1));
+    }
+}
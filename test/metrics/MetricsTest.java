@@ -0,0 +1,102 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.metrics;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+    private MetricsRecorder previous;
+    private SimpleMetricsRecorder recorder;
+
+    @BeforeEach
+    public void setUp() {
+        previous = Metrics.getRecorder();
+        recorder = new SimpleMetricsRecorder();
+        Metrics.setRecorder(recorder);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Metrics.setRecorder(previous);
+    }
+
+    @Test
+    public void countsAndRecordsValues() {
+        Metrics.increment("counter");
+        Metrics.increment("counter", 4);
+        Metrics.recordValue("values", 1);
+        Metrics.recordValue("values", 3);
+        Metrics.recordValue("values", 1000);
+
+        assertEquals(5, recorder.getCounter("counter"));
+        assertEquals(0, recorder.getCounter("missing"));
+        SimpleMetricsRecorder.Histogram histogram = recorder.getHistogram("values");
+        assertEquals(3, histogram.getCount());
+        assertEquals(1004 / 3.0, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getPercentile(30));
+        assertEquals(3, histogram.getPercentile(60));
+        assertEquals(1023, histogram.getPercentile(100));
+
+        recorder.reset();
+        assertEquals(0, recorder.getCounter("counter"));
+        assertNull(recorder.getHistogram("values"));
+    }
+
+    @Test
+    public void spansAndTimersRecordLatency() {
+        try (Span span = Metrics.startSpan("span")) {
+            assertNull(recorder.getHistogram("span"));
+        }
+        assertEquals(1, recorder.getHistogram("span").getCount());
+
+        long start = Metrics.startTimer();
+        assertNotEquals(0, start);
+        Metrics.stopTimer("timer", start);
+        assertEquals(1, recorder.getHistogram("timer").getCount());
+    }
+
+    @Test
+    public void disabledRecorderSkipsMeasurements() {
+        Metrics.setRecorder(null);
+        assertSame(NoOpMetricsRecorder.INSTANCE, Metrics.getRecorder());
+        assertFalse(Metrics.isEnabled());
+        assertEquals(0, Metrics.startTimer());
+        Metrics.increment("counter");
+        Metrics.stopTimer("timer", 0);
+        assertEquals(0, recorder.getCounter("counter"));
+        assertNull(recorder.getHistogram("timer"));
+    }
+
+    @Test
+    public void recordsCardRendering() {
+        StorageContext previousStorage = StorageContext.getStorageContext();
+        StorageContext.setStorageContext(new InMemoryStorageContext());
+        try {
+            Card card = new Card(new Cite("Smith", "2019", "Journal"), "Some card text");
+            card.getDisplayContent();
+            assertEquals(1, recorder.getHistogram(Metrics.CARD_RENDER).getCount());
+        } finally {
+            StorageContext.setStorageContext(previousStorage);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.readtime;
+
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.ChangeBatch;
+import org.debatetool.core.Cite;
+import org.debatetool.core.Speech;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadTimeEngineTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+    private Speech speech;
+    private Block block;
+    private Card card;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+
+        speech = new Speech("1AC");
+        block = new Block("advantage");
+        speech.addComponent(block);
+        block.addComponent(new Analytic("next off is the kritik"));
+        card = new Card(new Cite("Smith", "2019", "Journal"), "the quick brown fox jumps over the lazy dog");
+        block.addComponent(card);
+        CardOverlay some = new CardOverlay("some");
+        some.updateOverlay(0, 9, CardOverlay.HIGHLIGHT);
+        CardOverlay all = new CardOverlay("all");
+        all.updateOverlay(0, 43, CardOverlay.HIGHLIGHT);
+        storage.saveOverlays(card.getHash(), Arrays.asList(some, all), "Highlight");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    @Test
+    public void countsHighlightedWordsAndAnalytics() throws Exception {
+        ReadTimeEngine engine = new ReadTimeEngine(60);
+        engine.track(speech);
+        assertEquals(new WordCounts(7, 2, 0, 14), engine.getCounts(speech));
+        assertEquals(7.0, engine.getReadTimeSeconds(speech), 1e-9);
+        assertEquals(new WordCounts(2, 2, 0, 9), engine.getCounts(card));
+        engine.setWordsPerMinute(120);
+        assertEquals(3.5, engine.getReadTimeSeconds(speech), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> engine.setWordsPerMinute(0));
+    }
+
+    @Test
+    public void updatesTotalsIncrementally() throws Exception {
+        ReadTimeEngine engine = new ReadTimeEngine(60);
+        engine.track(speech);
+
+        card.setPreferredHighlightIndex(1);
+        engine.cardChanged(card);
+        assertEquals(new WordCounts(14, 9, 0, 14), engine.getCounts(speech));
+        assertEquals(engine.getCounts(speech), engine.getCounts(block));
+
+        block.addComponent(new Card(new Cite("Jones", "2020", "Review"), "one two three"));
+        engine.containerChanged(block);
+        assertEquals(new WordCounts(14, 9, 0, 17), engine.getCounts(speech));
+
+        block.removeComponent(0);
+        engine.containerChanged(block);
+        assertEquals(new WordCounts(9, 9, 0, 12), engine.getCounts(speech));
+    }
+
+    @Test
+    public void sharedCardsUpdateEveryPlace() throws Exception {
+        Block other = new Block("other");
+        other.addComponent(card);
+        speech.addComponent(other);
+        ReadTimeEngine engine = new ReadTimeEngine(60);
+        engine.track(speech);
+        assertEquals(new WordCounts(9, 4, 0, 23), engine.getCounts(speech));
+
+        card.setPreferredHighlightIndex(1);
+        engine.cardChanged(card);
+        assertEquals(new WordCounts(23, 18, 0, 23), engine.getCounts(speech));
+        assertEquals(new WordCounts(9, 9, 0, 9), engine.getCounts(other));
+    }
+
+    @Test
+    public void untrackedContainersAreCountedDirectly() throws Exception {
+        ReadTimeEngine engine = new ReadTimeEngine(60);
+        assertEquals(WordCounts.ZERO, engine.getCounts(new Speech("empty")));
+        WordCounts direct = engine.getCounts(speech);
+        engine.track(speech);
+        assertEquals(direct, engine.getCounts(speech));
+
+        engine.untrack(speech);
+        block.addComponent(new Analytic("two words"));
+        assertEquals(direct.plus(new WordCounts(2, 0, 0, 2)), engine.getCounts(speech));
+    }
+
+    @Test
+    public void fetchesOverlaysOutsideTheLock() throws Exception {
+        ReadTimeEngine engine = new ReadTimeEngine(60);
+        AtomicBoolean fetchedUnderLock = new AtomicBoolean();
+        StorageContext.setStorageContext(new InMemoryStorageContext() {
+            @Override
+            public HashMap<String, List<CardOverlay>> getOverlays(byte[] hash) {
+                fetchedUnderLock.compareAndSet(false, Thread.holdsLock(engine));
+                return storage.getOverlays(hash);
+            }
+        });
+        engine.track(speech);
+        Card added = new Card(new Cite("Jones", "2020", "Review"), "one two three");
+        block.addComponent(added);
+        engine.containerChanged(block);
+        assertEquals(new WordCounts(7, 2, 0, 17), engine.getCounts(speech));
+        assertFalse(fetchedUnderLock.get());
+    }
+
+    @Test
+    public void untrackDropsCachedCounts() throws Exception {
+        ReadTimeEngine engine = new ReadTimeEngine(60);
+        engine.countCard(card);
+        assertEquals(0, engine.getCachedCardCount());
+
+        Block other = new Block("other");
+        other.addComponent(card);
+        engine.track(speech);
+        engine.track(other);
+        assertEquals(1, engine.getCachedCardCount());
+        engine.untrack(speech);
+        assertEquals(1, engine.getCachedCardCount());
+        engine.untrack(other);
+        assertEquals(0, engine.getCachedCardCount());
+        assertEquals(new WordCounts(2, 2, 0, 9), engine.countCard(card));
+    }
+
+    @Test
+    public void followsChangeEventsWhileListening() throws Exception {
+        ReadTimeEngine engine = new ReadTimeEngine(60);
+        engine.track(speech);
+        engine.listenForChanges();
+        try {
+            card.setPreferredHighlightIndex(1);
+            engine.awaitChanges();
+            assertEquals(new WordCounts(14, 9, 0, 14), engine.getCounts(speech));
+
+            try (ChangeBatch batch = ChangeBatch.begin()){
+                card.setPreferredHighlightIndex(0);
+                block.addComponent(new Analytic("one two"));
+            }
+            engine.awaitChanges();
+            assertEquals(new WordCounts(9, 2, 0, 16), engine.getCounts(speech));
+        } finally {
+            engine.stopListeningForChanges();
+        }
+
+        block.clearContents();
+        engine.awaitChanges();
+        assertEquals(new WordCounts(9, 2, 0, 16), engine.getCounts(speech));
+    }
+}
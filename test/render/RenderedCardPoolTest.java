@@ -0,0 +1,161 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.render;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.OverlaySelectionKey;
+import org.debatetool.core.storage.InMemoryStorageContext;
+import org.debatetool.core.storage.StorageContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RenderedCardPoolTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        RenderedCardPool.setDefault(null);
+        StorageContext.setStorageContext(previous);
+    }
+
+    private static OverlaySelectionKey key(int card) {
+        return new OverlaySelectionKey(new byte[]{(byte) card}, 0, 0);
+    }
+
+    @Test
+    public void poolingIsOffByDefault() {
+        assertNull(RenderedCardPool.getDefault());
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "text");
+        assertEquals(card.getDisplayContent(), card.getDisplayContent());
+    }
+
+    @Test
+    public void rendersOncePerSelection() {
+        RenderedCardPool pool = new RenderedCardPool(10, 1000, true);
+        AtomicInteger renders = new AtomicInteger();
+        Supplier<String> renderer = () -> {
+            renders.incrementAndGet();
+            return "body";
+        };
+        assertEquals("body", pool.get(key(1), renderer));
+        assertEquals("body", pool.get(key(1), renderer));
+        assertEquals(1, renders.get());
+        assertEquals(1, pool.size());
+        assertEquals(4, pool.getCharacters());
+
+        pool.get(new OverlaySelectionKey(new byte[]{1}, 0, 1), () -> "second");
+        assertEquals(2, pool.size());
+        pool.invalidate(new byte[]{1});
+        assertEquals(0, pool.size());
+        assertEquals(0, pool.getCharacters());
+    }
+
+    @Test
+    public void evictsByEntriesAndCharacters() {
+        RenderedCardPool pool = new RenderedCardPool(2, 10, true);
+        pool.get(key(1), () -> "aaaa");
+        pool.get(key(2), () -> "bbbb");
+        // touch the first so the second is least recently used
+        pool.get(key(1), () -> "xxxx");
+        pool.get(key(3), () -> "cccc");
+        assertEquals(2, pool.size());
+        assertEquals("aaaa", pool.get(key(1), () -> "miss"));
+        assertEquals("miss", pool.get(key(2), () -> "miss"));
+
+        pool.clear();
+        pool.get(key(1), () -> "aaaaaa");
+        pool.get(key(2), () -> "bbbbbb");
+        assertEquals(1, pool.size());
+        assertTrue(pool.getCharacters() <= 10);
+        // bodies larger than the whole pool are not kept
+        pool.get(key(3), () -> "cccccccccccc");
+        assertEquals("miss", pool.get(key(3), () -> "miss"));
+    }
+
+    @Test
+    public void installedPoolDropsChangedCards() throws Exception {
+        RenderedCardPool pool = new RenderedCardPool(100, 1 << 20, true);
+        RenderedCardPool.setDefault(pool);
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "the quick brown fox");
+        CardOverlay highlight = new CardOverlay("h");
+        highlight.updateOverlay(0, 3, CardOverlay.HIGHLIGHT);
+        storage.saveOverlays(card.getHash(), Collections.singletonList(highlight), "Highlight");
+        String before = card.getDisplayContent();
+        assertEquals(1, pool.size());
+        assertEquals(before, card.getDisplayContent());
+
+        card.getHighlighting().get(0).updateOverlay(0, 9, CardOverlay.HIGHLIGHT);
+        storage.saveOverlays(card.getHash(), card.getHighlighting(), "Highlight");
+        card.setPreferredHighlightIndex(0);
+        assertEquals(0, pool.size());
+        String after = card.getDisplayContent();
+        assertNotEquals(before, after);
+        assertEquals(1, pool.size());
+
+        RenderedCardPool.setDefault(null);
+        card.setPreferredHighlightIndex(0);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void bodiesInvalidatedWhileRenderingAreNotPooled() {
+        RenderedCardPool pool = new RenderedCardPool(10, 1000, true);
+        assertEquals("stale", pool.get(key(1), () -> {
+            pool.invalidate(new byte[]{1});
+            return "stale";
+        }));
+        assertEquals(0, pool.size());
+        assertEquals("fresh", pool.get(key(1), () -> "fresh"));
+        assertEquals("fresh", pool.get(key(1), () -> "again"));
+    }
+
+    @Test
+    public void restoringStubsKeepsPooledBodies() throws Exception {
+        RenderedCardPool pool = new RenderedCardPool(100, 1 << 20, true);
+        RenderedCardPool.setDefault(pool);
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "the quick brown fox");
+        storage.storeSpeechComponent(card);
+        card.getDisplayContent();
+        assertEquals(1, pool.size());
+
+        // what loading a block does for each card it refers to
+        Card stub = new Card(card.getHash());
+        stub.restoreState("0:1:2");
+        assertEquals(1, pool.size());
+
+        // restoring the state a loaded card already has is not a change
+        card.restoreState(card.getStateString());
+        assertEquals(1, pool.size());
+        card.restoreState("0:0:1");
+        assertEquals(0, pool.size());
+    }
+}
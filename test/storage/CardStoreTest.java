@@ -0,0 +1,213 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.Speech;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CardStoreTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    private static Card card(String text) {
+        return new Card(new Cite("Smith", "2019", "Journal"), text);
+    }
+
+    @Test
+    public void skipsCardsAlreadyStored() throws Exception {
+        CardStore store = new CardStore(storage, 0, TimeUnit.MILLISECONDS);
+        List<Card> stored = new ArrayList<>();
+        store.addListener(new CardStoreListener() {
+            @Override
+            public void cardStored(Card card) {
+                stored.add(card);
+            }
+
+            @Override
+            public void cardDeleted(byte[] hash) {
+            }
+        });
+        assertTrue(store.storeCard(card("text")));
+        assertFalse(store.storeCard(card("text")));
+        assertTrue(store.storeCard(card("other text")));
+        assertEquals(2, stored.size());
+        assertArrayEquals(card("text").getHash(), store.findStoredHash(card("text")));
+        assertNull(store.findStoredHash(card("never stored")));
+    }
+
+    @Test
+    public void countsReferencesFromNestedContainers() throws Exception {
+        CardStore store = new CardStore(storage, 0, TimeUnit.MILLISECONDS);
+        Speech speech = new Speech("speech");
+        Block first = new Block("first");
+        Block second = new Block("second");
+        speech.addComponent(first);
+        speech.addComponent(second);
+        Card card = card("text");
+        first.addComponent(card);
+        second.addComponent(card("text"));
+        store.storeContainer(speech);
+
+        assertTrue(storage.containsSpeechComponent(card.getHash()));
+        assertTrue(storage.containsSpeechComponent(speech.getHash()));
+        assertEquals(2, store.getReferenceCount(card.getHash()));
+
+        first.removeComponent(0);
+        store.storeContainer(speech);
+        assertEquals(1, store.getReferenceCount(card.getHash()));
+
+        store.removeContainer(second.getHash());
+        assertEquals(0, store.getReferenceCount(card.getHash()));
+    }
+
+    @Test
+    public void collectsUnreferencedCardsAfterGracePeriod() throws Exception {
+        CardStore store = new CardStore(storage, 0, TimeUnit.MILLISECONDS);
+        List<byte[]> deleted = new ArrayList<>();
+        store.addListener(new CardStoreListener() {
+            @Override
+            public void cardStored(Card card) {
+            }
+
+            @Override
+            public void cardDeleted(byte[] hash) {
+                deleted.add(hash);
+            }
+        });
+        Block block = new Block("block");
+        Card card = card("text");
+        block.addComponent(card);
+        store.storeContainer(block);
+        assertEquals(0, store.collectGarbage());
+
+        block.removeComponent(0);
+        store.storeContainer(block);
+        Thread.sleep(5);
+        assertEquals(1, store.collectGarbage());
+        assertFalse(storage.containsSpeechComponent(card.getHash()));
+        assertEquals(1, deleted.size());
+        assertArrayEquals(card.getHash(), deleted.get(0));
+    }
+
+    @Test
+    public void keepsCardsMovedWithinGracePeriod() throws Exception {
+        CardStore store = new CardStore(storage, 1, TimeUnit.HOURS);
+        Block from = new Block("from");
+        Block to = new Block("to");
+        Card card = card("text");
+        from.addComponent(card);
+        store.storeContainer(from);
+
+        from.removeComponent(0);
+        store.storeContainer(from);
+        assertEquals(0, store.collectGarbage());
+        to.addComponent(card("text"));
+        store.storeContainer(to);
+        assertEquals(1, store.getReferenceCount(card.getHash()));
+        assertTrue(storage.containsSpeechComponent(card.getHash()));
+    }
+
+    @Test
+    public void writesTagEditsToStoredCards() throws Exception {
+        CardStore store = new CardStore(storage, 0, TimeUnit.MILLISECONDS);
+        Card card = card("text");
+        assertTrue(store.storeCard(card));
+        assertFalse(card.isModified());
+        assertFalse(store.storeCard(card));
+
+        card.addTag("new tag");
+        assertTrue(store.storeCard(card));
+        Card stored = (Card) storage.retrieveSpeechComponent(card.getHash());
+        assertEquals(card.getTags(), stored.getTags());
+
+        // a new copy with the same tags is still deduplicated
+        Card copy = card("text");
+        copy.addTag("new tag");
+        assertFalse(store.storeCard(copy));
+    }
+
+    @Test
+    public void collectsCardsOrphanedBeforeTheStoreExisted() throws Exception {
+        Card orphan = card("orphan");
+        Card referenced = card("referenced");
+        storage.storeSpeechComponent(orphan);
+        storage.storeSpeechComponent(referenced);
+        Block block = new Block("block");
+        block.addComponent(referenced);
+        storage.storeSpeechComponent(block);
+
+        CardStore store = new CardStore(storage, 0, TimeUnit.MILLISECONDS);
+        store.registerContainer(block);
+        assertEquals(1, store.addUnreferencedCards());
+        assertEquals(0, store.addUnreferencedCards());
+        Thread.sleep(5);
+        assertEquals(1, store.collectGarbage());
+        assertFalse(storage.containsSpeechComponent(orphan.getHash()));
+        assertTrue(storage.containsSpeechComponent(referenced.getHash()));
+    }
+
+    @Test
+    public void keepsDeduplicatedCardsWhileTheirContainerIsWritten() throws Exception {
+        CardStore[] store = new CardStore[1];
+        int[] collected = new int[1];
+        InMemoryStorageContext collecting = new InMemoryStorageContext() {
+            @Override
+            public void storeSpeechComponent(HashIdentifiedSpeechComponent component) throws IOException {
+                if (component instanceof Block){
+                    collected[0] += store[0].collectGarbage();
+                }
+                super.storeSpeechComponent(component);
+            }
+        };
+        store[0] = new CardStore(collecting, 0, TimeUnit.MILLISECONDS);
+        Card card = card("text");
+        assertTrue(store[0].storeCard(card));
+        store[0].addUnreferencedCards();
+        Thread.sleep(5);
+
+        // an unloaded stub is never written, only referenced
+        Block block = new Block("block");
+        block.addComponent(new Card(card.getHash()));
+        store[0].storeContainer(block);
+        assertEquals(0, collected[0]);
+        assertTrue(collecting.containsSpeechComponent(card.getHash()));
+        assertEquals(1, store[0].getReferenceCount(card.getHash()));
+    }
+}
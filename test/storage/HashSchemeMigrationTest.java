@@ -0,0 +1,186 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.HashScheme;
+import org.debatetool.core.Speech;
+import org.debatetool.core.index.TagIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashSchemeMigrationTest {
+    private HashScheme previousScheme;
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previousScheme = HashScheme.getDefault();
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+        HashScheme.setDefault(HashScheme.MD5);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        HashScheme.setDefault(previousScheme);
+        StorageContext.setStorageContext(previous);
+    }
+
+    private Card storeOld(String text) throws Exception {
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), text);
+        card.addTag("econ");
+        storage.storeSpeechComponent(card);
+        CardOverlay overlay = new CardOverlay("u");
+        overlay.updateOverlay(0, 3, CardOverlay.UNDERLINE);
+        storage.saveOverlays(card.getHash(), Collections.singletonList(overlay), "Underline");
+        return card;
+    }
+
+    @Test
+    public void copiesCardsAndOverlaysToNewHashes() throws Exception {
+        Card old = storeOld("old card");
+        HashScheme.setDefault(HashScheme.MURMUR3_128);
+        Card fresh = new Card(new Cite("Smith", "2019", "Journal"), "new card");
+        storage.storeSpeechComponent(fresh);
+
+        Map<HashKey, HashKey> migrated = new HashSchemeMigration(storage, HashScheme.MURMUR3_128).copyCards();
+        assertEquals(1, migrated.size());
+        byte[] newHash = migrated.get(new HashKey(old.getHash())).getHash();
+        assertArrayEquals(old.computeContentHash(HashScheme.MURMUR3_128), newHash);
+        assertEquals(3, storage.size());
+        Card copy = (Card) storage.retrieveSpeechComponent(newHash);
+        assertEquals("old card", copy.getText());
+        assertEquals(old.getTags(), copy.getTags());
+        assertEquals(HashScheme.MURMUR3_128, copy.identifyHashScheme());
+        assertEquals(1, storage.getOverlays(newHash).get("Underline").size());
+        // the old record stays for containers that still refer to it
+        assertTrue(storage.containsSpeechComponent(old.getHash()));
+
+        // running again maps the old record to the same copy
+        assertEquals(migrated, new HashSchemeMigration(storage, HashScheme.MURMUR3_128).copyCards());
+        assertEquals(3, storage.size());
+    }
+
+    @Test
+    public void copiesLibrariesLargerThanAChunk() throws Exception {
+        for (int i = 0; i < 1500; i++){
+            storage.storeSpeechComponent(new Card(new Cite("Smith", "2019", "Journal"), "card " + i));
+        }
+        Map<HashKey, HashKey> migrated = new HashSchemeMigration(storage, HashScheme.MURMUR3_128).copyCards();
+        assertEquals(1500, migrated.size());
+        assertEquals(3000, storage.size());
+    }
+
+    @Test
+    public void migrateRewritesContainersAndDeletesOldCards() throws Exception {
+        Card nested = storeOld("nested card");
+        Card direct = storeOld("direct card");
+        Block block = new Block("block");
+        block.addComponent(nested);
+        Speech speech = new Speech("1AC");
+        speech.addComponent(block);
+        speech.addComponent(direct);
+        direct.setPreferredUnderlineIndex(0);
+        direct.setTagIndex(0);
+        storage.storeSpeechComponents(Arrays.asList(block, speech));
+        String state = direct.getStateString();
+
+        Map<HashKey, HashKey> migrated = new HashSchemeMigration(storage, HashScheme.MURMUR3_128)
+                .migrateAsync(Collections.singletonList(speech), ForkJoinPool.commonPool()).join();
+        assertEquals(2, migrated.size());
+        for (HashKey old:migrated.keySet()){
+            assertFalse(storage.containsSpeechComponent(old.getHash()));
+            assertTrue(storage.getOverlays(old.getHash()).isEmpty());
+        }
+
+        Speech restored = (Speech) storage.retrieveSpeechComponent(speech.getHash());
+        Block restoredBlock = (Block) restored.getComponent(0);
+        Card restoredNested = (Card) restoredBlock.getComponent(0);
+        Card restoredDirect = (Card) restored.getComponent(1);
+        assertEquals(migrated.get(new HashKey(nested.getHash())), new HashKey(restoredNested.getHash()));
+        assertEquals(migrated.get(new HashKey(direct.getHash())), new HashKey(restoredDirect.getHash()));
+        assertEquals(state, restoredDirect.getStateString());
+        restoredNested.load();
+        assertEquals("nested card", restoredNested.getText());
+        assertEquals(HashScheme.MURMUR3_128, restoredNested.identifyHashScheme());
+        assertEquals(1, storage.getOverlays(restoredNested.getHash()).get("Underline").size());
+    }
+
+    @Test
+    public void cardStoreFindsCopiesUnderOtherSchemes() throws Exception {
+        CardStore store = new CardStore(storage, 1, TimeUnit.HOURS);
+        Card old = storeOld("same text");
+        HashScheme.setDefault(HashScheme.MURMUR3_128);
+        Card fresh = new Card(new Cite("Smith", "2019", "Journal"), "same text");
+        assertArrayEquals(old.getHash(), store.findStoredHash(fresh));
+        assertNull(store.findStoredHash(new Card(new Cite("Smith", "2019", "Journal"), "different text")));
+    }
+
+    @Test
+    public void migratingThroughCardStoreIndexesCopies() throws Exception {
+        CardStore store = new CardStore(storage, 1, TimeUnit.HOURS);
+        TagIndex tags = new TagIndex();
+        store.addListener(tags);
+        storeOld("indexed card");
+        assertEquals(0, tags.countCardsWithTag("econ"));
+
+        Map<HashKey, HashKey> migrated = new HashSchemeMigration(store, HashScheme.MURMUR3_128).copyCards();
+        assertEquals(1, migrated.size());
+        assertEquals(1, tags.countCardsWithTag("econ"));
+        assertArrayEquals(migrated.values().iterator().next().getHash(), tags.getCardsWithTag("econ").get(0));
+    }
+
+    @Test
+    public void migratingThroughCardStoreMovesReferencesAndCollectsOldCards() throws Exception {
+        CardStore store = new CardStore(storage, 0, TimeUnit.MILLISECONDS);
+        Card old = storeOld("referenced card");
+        Card orphan = storeOld("orphaned card");
+        Block block = new Block("block");
+        block.addComponent(old);
+        store.storeContainer(block);
+        assertEquals(1, store.getReferenceCount(old.getHash()));
+
+        Map<HashKey, HashKey> migrated = new HashSchemeMigration(store, HashScheme.MURMUR3_128)
+                .migrate(Collections.singletonList(block));
+        byte[] newHash = migrated.get(new HashKey(old.getHash())).getHash();
+        assertArrayEquals(newHash, ((Card) block.getComponent(0)).getHash());
+        assertEquals(0, store.getReferenceCount(old.getHash()));
+        assertEquals(1, store.getReferenceCount(newHash));
+        // left for the collector rather than deleted directly
+        assertTrue(storage.containsSpeechComponent(old.getHash()));
+
+        Thread.sleep(5);
+        assertEquals(2, store.collectGarbage());
+        assertFalse(storage.containsSpeechComponent(old.getHash()));
+        assertFalse(storage.containsSpeechComponent(orphan.getHash()));
+        assertTrue(storage.containsSpeechComponent(newHash));
+    }
+}
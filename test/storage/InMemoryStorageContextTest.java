@@ -0,0 +1,99 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Analytic;
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.Speech;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryStorageContextTest {
+    private StorageContext previous;
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext();
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    @Test
+    public void roundTripsCardsAndOverlays() throws Exception {
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "Some card text");
+        card.addTag("tag");
+        storage.storeSpeechComponent(card);
+        CardOverlay overlay = new CardOverlay("u");
+        overlay.updateOverlay(0, 4, CardOverlay.UNDERLINE);
+        storage.saveOverlays(card.getHash(), Collections.singletonList(overlay), "Underline");
+
+        Card retrieved = (Card) storage.retrieveSpeechComponent(card.getHash());
+        assertNotSame(card, retrieved);
+        assertEquals("Some card text", retrieved.getText());
+        assertEquals(card.getTags(), retrieved.getTags());
+        assertEquals(1, storage.getOverlays(card.getHash()).get("Underline").size());
+        assertTrue(storage.containsSpeechComponent(card.getHash()));
+    }
+
+    @Test
+    public void roundTripsNestedContainers() throws Exception {
+        Block block = new Block("block");
+        block.addComponent(new Analytic("analytic"));
+        storage.storeSpeechComponent(block);
+        Speech speech = new Speech("speech");
+        speech.addComponent(block);
+        storage.storeSpeechComponent(speech);
+
+        Speech retrieved = (Speech) storage.retrieveSpeechComponent(speech.getHash());
+        assertEquals("speech", retrieved.getName());
+        Block retrievedBlock = (Block) retrieved.getComponent(0);
+        assertArrayEquals(block.getHash(), retrievedBlock.getHash());
+        assertEquals("analytic", retrievedBlock.getComponent(0).getStorageString());
+    }
+
+    @Test
+    public void deletesAndEnumeratesCards() throws Exception {
+        Card first = new Card(new Cite("A", "2019", ""), "first");
+        Card second = new Card(new Cite("B", "2019", ""), "second");
+        storage.storeSpeechComponent(first);
+        storage.storeSpeechComponent(second);
+        storage.storeSpeechComponent(new Block("not a card"));
+
+        List<byte[]> hashes = new ArrayList<>();
+        storage.forEachCardHash(hashes::add);
+        assertEquals(2, hashes.size());
+
+        assertTrue(storage.supportsDeletion());
+        storage.deleteSpeechComponent(first.getHash());
+        assertFalse(storage.containsSpeechComponent(first.getHash()));
+        assertTrue(storage.containsSpeechComponent(second.getHash()));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTest {
+    private Path path;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        path = Files.createTempFile("journal", ".log");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<String> replay() throws Exception {
+        List<String> records = new ArrayList<>();
+        try (Journal journal = new Journal(path)) {
+            journal.replay(record -> records.add(new String(record, StandardCharsets.UTF_8)));
+        }
+        return records;
+    }
+
+    @Test
+    public void replaysAppendedRecordsInOrder() throws Exception {
+        try (Journal journal = new Journal(path)) {
+            assertEquals(0, journal.replay(record -> fail("empty journal")));
+            journal.append(bytes("first"));
+            long position = journal.append(bytes("second"));
+            journal.sync(position);
+            assertEquals(Files.size(path), journal.size());
+        }
+        List<String> records = replay();
+        assertEquals(2, records.size());
+        assertEquals("first", records.get(0));
+        assertEquals("second", records.get(1));
+    }
+
+    @Test
+    public void dropsTornAndCorruptTails() throws Exception {
+        try (Journal journal = new Journal(path)) {
+            journal.append(bytes("kept"));
+            journal.sync();
+        }
+        long intact = Files.size(path);
+        // a header promising more bytes than were written
+        Files.write(path, new byte[]{0, 0, 0, 50, 1, 2}, StandardOpenOption.APPEND);
+        assertEquals(1, replay().size());
+        assertEquals(intact, Files.size(path));
+
+        try (Journal journal = new Journal(path)) {
+            journal.replay(record -> {});
+            journal.append(bytes("damaged"));
+            journal.sync();
+        }
+        byte[] contents = Files.readAllBytes(path);
+        contents[contents.length - 1] ^= 1;
+        Files.write(path, contents);
+        List<String> records = replay();
+        assertEquals(1, records.size());
+        assertEquals("kept", records.get(0));
+        assertEquals(intact, Files.size(path));
+    }
+
+    @Test
+    public void truncateDiscardsRecords() throws Exception {
+        try (Journal journal = new Journal(path)) {
+            journal.append(bytes("gone"));
+            journal.truncate();
+            journal.append(bytes("after"));
+            journal.sync();
+        }
+        List<String> records = replay();
+        assertEquals(1, records.size());
+        assertEquals("after", records.get(0));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.Speech;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournaledStorageContextTest {
+    private StorageContext previous;
+    private Path path;
+    private final AtomicInteger backingWrites = new AtomicInteger();
+    private InMemoryStorageContext backing;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        previous = StorageContext.getStorageContext();
+        path = Files.createTempFile("journal", ".log");
+        backing = new InMemoryStorageContext() {
+            @Override
+            public void storeSpeechComponent(HashIdentifiedSpeechComponent component) throws IOException {
+                backingWrites.incrementAndGet();
+                super.storeSpeechComponent(component);
+            }
+
+            @Override
+            public void storeLabelledLists(byte[] hash, String type, List<String> labels, List<String> values) {
+                backingWrites.incrementAndGet();
+                super.storeLabelledLists(hash, type, labels, values);
+            }
+        };
+        StorageContext.setStorageContext(backing);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        StorageContext.setStorageContext(previous);
+        Files.deleteIfExists(path);
+    }
+
+    private static CardOverlay underline() {
+        CardOverlay overlay = new CardOverlay("u");
+        overlay.updateOverlay(0, 5, CardOverlay.UNDERLINE);
+        return overlay;
+    }
+
+    @Test
+    public void readsSeePendingWrites() throws Exception {
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "hello world");
+        try (JournaledStorageContext context = JournaledStorageContext.open(backing, path)) {
+            context.storeSpeechComponent(card);
+            context.saveOverlays(card.getHash(), Collections.singletonList(underline()), "Underline");
+            assertEquals(2, context.getPendingCount());
+            assertEquals(0, backing.size());
+            assertTrue(context.containsSpeechComponent(card.getHash()));
+            assertEquals("hello world", ((Card) context.retrieveSpeechComponent(card.getHash())).getText());
+            assertEquals(1, context.getOverlays(card.getHash()).get("Underline").size());
+            assertTrue(Files.size(path) > 0);
+        }
+        assertEquals(1, backing.size());
+        assertEquals(0, Files.size(path));
+        assertEquals(1, backing.getOverlays(card.getHash()).get("Underline").size());
+    }
+
+    @Test
+    public void replaysJournalAfterCrash() throws Exception {
+        Card card = new Card(new Cite("Smith", "2019", "Journal"), "hello world");
+        Block block = new Block("block");
+        block.addComponent(card);
+        // left open without a checkpoint, as after a crash
+        JournaledStorageContext crashed = JournaledStorageContext.open(backing, path);
+        crashed.storeSpeechComponent(card);
+        crashed.storeSpeechComponent(block);
+        crashed.saveOverlays(card.getHash(), Collections.singletonList(underline()), "Underline");
+        assertEquals(0, backing.size());
+
+        try (JournaledStorageContext reopened = JournaledStorageContext.open(backing, path)) {
+            assertEquals(0, reopened.getPendingCount());
+            assertEquals(2, backing.size());
+            assertEquals("hello world", ((Card) backing.retrieveSpeechComponent(card.getHash())).getText());
+            Block restored = (Block) backing.retrieveSpeechComponent(block.getHash());
+            assertEquals(1, restored.size());
+            assertEquals(1, backing.getOverlays(card.getHash()).get("Underline").size());
+        }
+    }
+
+    @Test
+    public void replayKeepsBlocksStoredAfterTheirSpeech() throws Exception {
+        Card first = new Card(new Cite("Smith", "2019", "Journal"), "first");
+        Card second = new Card(new Cite("Smith", "2019", "Journal"), "second");
+        Block block = new Block("block");
+        block.addComponent(first);
+        Speech speech = new Speech("1AC");
+        speech.addComponent(block);
+        JournaledStorageContext crashed = JournaledStorageContext.open(backing, path);
+        crashed.storeSpeechComponents(Arrays.asList(first, block, speech));
+        block.addComponent(second);
+        crashed.storeSpeechComponent(second);
+        // the block is now journaled after the speech that holds it
+        crashed.storeSpeechComponent(block);
+
+        try (JournaledStorageContext reopened = JournaledStorageContext.open(backing, path)) {
+            Speech restored = (Speech) backing.retrieveSpeechComponent(speech.getHash());
+            assertEquals(1, restored.size());
+            Block restoredBlock = (Block) restored.getComponent(0);
+            assertArrayEquals(block.getHash(), restoredBlock.getHash());
+            assertEquals(2, restoredBlock.size());
+        }
+    }
+
+    @Test
+    public void checkpointWritesLatestStateOnce() throws Exception {
+        Block block = new Block("block");
+        try (JournaledStorageContext context = JournaledStorageContext.open(backing, path, false)) {
+            for (int i = 0; i < 5; i++){
+                block.addComponent(new Card(new Cite("Smith", "2019", "Journal"), "card " + i));
+                context.storeSpeechComponent(block);
+            }
+            assertEquals(1, context.getPendingCount());
+            context.checkpoint();
+            assertEquals(1, backingWrites.get());
+            assertEquals(5, ((Block) backing.retrieveSpeechComponent(block.getHash())).size());
+
+            context.deleteSpeechComponent(block.getHash());
+            assertFalse(context.containsSpeechComponent(block.getHash()));
+        }
+        assertFalse(backing.containsSpeechComponent(block.getHash()));
+    }
+
+    @Test
+    public void concurrentWritersAllReachBacking() throws Exception {
+        try (JournaledStorageContext context = JournaledStorageContext.open(backing, path)) {
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++){
+                int thread = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 50; i++){
+                            context.storeSpeechComponent(new Card(new Cite("Smith", "2019", "Journal"),
+                                    "card " + thread + " " + i));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread:threads){
+                thread.join();
+            }
+            assertEquals(200, context.getPendingCount());
+        }
+        assertEquals(200, backing.size());
+    }
+}
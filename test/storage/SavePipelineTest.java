@@ -0,0 +1,187 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Block;
+import org.debatetool.core.Card;
+import org.debatetool.core.Cite;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.HashKey;
+import org.debatetool.core.Speech;
+import org.debatetool.core.SpeechComponent;
+import org.debatetool.core.SpeechElementContainer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SavePipelineTest {
+    private StorageContext previous;
+    private final List<HashKey> written = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean failing = new AtomicBoolean();
+    private final Semaphore startedWrites = new Semaphore(0);
+    private final Semaphore failedWrites = new Semaphore(0);
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private InMemoryStorageContext storage;
+
+    @BeforeEach
+    public void setUp() {
+        previous = StorageContext.getStorageContext();
+        storage = new InMemoryStorageContext() {
+            @Override
+            public void storeSpeechComponent(HashIdentifiedSpeechComponent component) throws IOException {
+                startedWrites.release();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                if (failing.get()){
+                    failedWrites.release();
+                    throw new IOException("Write failed on purpose");
+                }
+                written.add(new HashKey(component));
+                super.storeSpeechComponent(component);
+            }
+        };
+        StorageContext.setStorageContext(storage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        StorageContext.setStorageContext(previous);
+    }
+
+    private static Block block(String name, int cards) {
+        Block block = new Block(name);
+        for (int i = 0; i < cards; i++){
+            block.addComponent(new Card(new Cite("Smith", "2019", "Journal"), name + " card " + i));
+        }
+        return block;
+    }
+
+    private void assertWrittenAfterChildren(SpeechElementContainer container) {
+        int position = written.indexOf(new HashKey(container));
+        assertTrue(position >= 0);
+        for (int i = 0; i < container.size(); i++){
+            SpeechComponent child = container.getComponent(i);
+            int childPosition = written.indexOf(new HashKey((HashIdentifiedSpeechComponent) child));
+            assertTrue(childPosition >= 0 && childPosition < position);
+            if (child instanceof SpeechElementContainer){
+                assertWrittenAfterChildren((SpeechElementContainer) child);
+            }
+        }
+    }
+
+    @Test
+    public void writesChildrenBeforeContainers() throws Exception {
+        Speech speech = new Speech("speech");
+        for (int i = 0; i < 5; i++){
+            speech.addComponent(block("block " + i, 6));
+        }
+        // held back until both submissions are queued, so the second can only coalesce with the first
+        gate = new CountDownLatch(1);
+        try (SavePipeline pipeline = new SavePipeline(storage, 64, 4)) {
+            pipeline.submit(speech);
+            pipeline.submit(speech);
+            gate.countDown();
+            pipeline.flush();
+            assertEquals(36, written.size());
+            assertEquals(36, storage.size());
+            assertWrittenAfterChildren(speech);
+            assertFalse(speech.isModified());
+            assertFalse(((Block) speech.getComponent(0)).isModified());
+        }
+    }
+
+    @Test
+    public void leavesFailedWritesModified() throws Exception {
+        Block block = block("block", 3);
+        failing.set(true);
+        SavePipeline pipeline = new SavePipeline(storage, 8, 4);
+        pipeline.submit(block);
+        IOException failure = assertThrows(IOException.class, pipeline::close);
+        assertEquals("Write failed on purpose", failure.getCause().getMessage());
+        assertTrue(block.isModified());
+        assertTrue(((Card) block.getComponent(0)).isModified());
+        assertTrue(written.isEmpty());
+    }
+
+    @Test
+    public void reportsAndRetriesFailedWrites() throws Exception {
+        Block block = block("block", 3);
+        failing.set(true);
+        SavePipeline pipeline = new SavePipeline(storage, 8, 4);
+        pipeline.submit(block);
+        // the writer holds off retrying until the failure is reported, so it can be fixed before flushing
+        failedWrites.acquire();
+        failing.set(false);
+        assertTrue(written.isEmpty());
+        IOException failure = assertThrows(IOException.class, pipeline::flush);
+        assertEquals("Write failed on purpose", failure.getCause().getMessage());
+
+        pipeline.flush();
+        assertEquals(4, written.size());
+        assertWrittenAfterChildren(block);
+        pipeline.close();
+        assertThrows(IllegalStateException.class, () -> pipeline.submit(block));
+    }
+
+    @Test
+    public void writesChildrenAddedToQueuedContainersFirst() throws Exception {
+        Block block = block("block", 2);
+        Card blocker = new Card(new Cite("Smith", "2019", "Journal"), "blocker");
+        gate = new CountDownLatch(1);
+        try (SavePipeline pipeline = new SavePipeline(storage, 16, 16)) {
+            pipeline.submit(blocker);
+            // the writer is now stuck on the blocker, so the block stays queued while it is edited
+            startedWrites.acquire();
+            pipeline.submit(block);
+            Card added = new Card(new Cite("Smith", "2019", "Journal"), "added");
+            block.addComponent(added);
+            pipeline.submit(block);
+            gate.countDown();
+            pipeline.flush();
+            assertEquals(5, written.size());
+            assertWrittenAfterChildren(block);
+        }
+    }
+
+    @Test
+    public void blockedProducersGetTheFailure() throws Exception {
+        failing.set(true);
+        SavePipeline pipeline = new SavePipeline(storage, 1, 1);
+        pipeline.submit(new Card(new Cite("Smith", "2019", "Journal"), "first"));
+        // the failed card keeps the only slot, so this waits until the failure and then reports it
+        IOException failure = assertThrows(IOException.class,
+                () -> pipeline.submit(new Card(new Cite("Smith", "2019", "Journal"), "second")));
+        assertEquals("Write failed on purpose", failure.getCause().getMessage());
+
+        failing.set(false);
+        assertThrows(IOException.class, pipeline::flush);
+        pipeline.submit(new Card(new Cite("Smith", "2019", "Journal"), "second"));
+        pipeline.close();
+        assertEquals(2, written.size());
+    }
+}
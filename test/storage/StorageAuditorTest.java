@@ -0,0 +1,166 @@
+/*
+ *                               This program is free software: you can redistribute it and/or modify
+ *                                it under the terms of the GNU General Public License as published by
+ *                                the Free Software Foundation, version 3 of the License.
+ *
+ *                                This program is distributed in the hope that it will be useful,
+ *                                but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *                                MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *                                GNU General Public License for more details.
+ *
+ *                                You should have received a copy of the GNU General Public License
+ *                                along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *                                Copyright (c) 2019 Colin Redman
+ */
+package org.debatetool.core.storage;
+
+import org.debatetool.core.Card;
+import org.debatetool.core.CardOverlay;
+import org.debatetool.core.Cite;
+import org.debatetool.core.HashIdentifiedSpeechComponent;
+import org.debatetool.core.storage.AuditReport.Problem;
+import org.debatetool.core.storage.AuditReport.ProblemType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageAuditorTest {
+    private static Card card(int i) {
+        return new Card(new Cite("Smith", "2019", "Journal"), "text number " + i);
+    }
+
+    private static void store(InMemoryStorageContext storage, Card card, int overlayLength) throws IOException {
+        storage.storeSpeechComponent(card);
+        CardOverlay overlay = new CardOverlay("u");
+        overlay.updateOverlay(0, overlayLength, CardOverlay.UNDERLINE);
+        storage.saveOverlays(card.getHash(), Collections.singletonList(overlay), "Underline");
+    }
+
+    private static Set<ProblemType> problemsOf(AuditReport report, byte[] hash) {
+        Set<ProblemType> types = EnumSet.noneOf(ProblemType.class);
+        for (Problem problem:report.getProblems()){
+            if (Arrays.equals(hash, problem.getHash())){
+                types.add(problem.getType());
+            }
+        }
+        return types;
+    }
+
+    @Test
+    public void cleanLibraryPasses() throws Exception {
+        InMemoryStorageContext storage = new InMemoryStorageContext();
+        // more than one chunk
+        for (int i = 0; i < 2500; i++){
+            store(storage, card(i), 5);
+        }
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            AuditReport report = new StorageAuditor(storage, pool, true).audit();
+            assertTrue(report.isClean(), report.toString());
+            assertEquals(2500, report.getCardsChecked());
+            assertEquals(2500, report.getOverlaysChecked());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void reportsBrokenCardsAndOverlays() throws Exception {
+        InMemoryStorageContext storage = new InMemoryStorageContext();
+        for (int i = 0; i < 10; i++){
+            store(storage, card(i), 5);
+        }
+        Card overrun = card(100);
+        store(storage, overrun, 100);
+        Card mismatched = card(101);
+        storage.storeSpeechComponent(mismatched);
+        storage.saveOverlays(mismatched.getHash(), Collections.singletonList(
+                new CardOverlay("bad", new byte[]{0, 1, 0, 1}, new byte[]{1})), "Highlight");
+
+        // content changed after hashing, so it no longer hashes to where it is stored
+        Card original = card(102);
+        Card drifted = new Card(original.getHash());
+        List<String> values = original.toLabelledLists()[1];
+        drifted.importFromLabelledLists(null, Arrays.asList(values.get(0), values.get(1), values.get(2), "changed\0",
+                values.get(4)));
+        storage.storeSpeechComponent(drifted);
+
+        AuditReport report = new StorageAuditor(storage).audit();
+        assertEquals(13, report.getCardsChecked());
+        assertEquals(EnumSet.of(ProblemType.OVERLAY_OVERRUN), problemsOf(report, overrun.getHash()));
+        assertEquals(EnumSet.of(ProblemType.OVERLAY_LENGTH_MISMATCH), problemsOf(report, mismatched.getHash()));
+        assertEquals(EnumSet.of(ProblemType.HASH_MISMATCH, ProblemType.UNCLEAN_TEXT),
+                problemsOf(report, original.getHash()));
+        Map<ProblemType, Integer> counts = report.countByType();
+        assertEquals(4, report.getProblems().size());
+        assertEquals(Integer.valueOf(1), counts.get(ProblemType.OVERLAY_OVERRUN));
+
+        AuditReport lenient = new StorageAuditor(storage, null, false).audit();
+        assertEquals(EnumSet.of(ProblemType.HASH_MISMATCH), problemsOf(lenient, original.getHash()));
+    }
+
+    @Test
+    public void reportsOddPositionBytes() throws Exception {
+        Card odd = card(1);
+        Card fine = card(2);
+        InMemoryStorageContext storage = new InMemoryStorageContext() {
+            @Override
+            public HashMap<String, List<CardOverlay>> getOverlays(byte[] hash) {
+                HashMap<String, List<CardOverlay>> overlays = new HashMap<>();
+                // one whole position and a stray byte, as parsed from a truncated blob
+                byte[] positions = Arrays.equals(hash, odd.getHash()) ? new byte[]{0, 5, 0} : new byte[]{0, 5};
+                overlays.put("Underline", Collections.singletonList(
+                        new CardOverlay("u", positions, new byte[]{CardOverlay.UNDERLINE})));
+                return overlays;
+            }
+        };
+        storage.storeSpeechComponent(odd);
+        storage.storeSpeechComponent(fine);
+        AuditReport report = new StorageAuditor(storage).audit();
+        assertEquals(EnumSet.of(ProblemType.OVERLAY_LENGTH_MISMATCH), problemsOf(report, odd.getHash()));
+        assertTrue(problemsOf(report, fine.getHash()).isEmpty());
+    }
+
+    @Test
+    public void unreadableCardsDoNotAbortTheAudit() throws Exception {
+        Card unreadable = card(1);
+        Card badOverlays = card(2);
+        Card fine = card(3);
+        InMemoryStorageContext storage = new InMemoryStorageContext() {
+            @Override
+            public HashIdentifiedSpeechComponent retrieveSpeechComponent(byte[] hash) throws IOException {
+                if (Arrays.equals(hash, unreadable.getHash())){
+                    throw new IOException("Unreadable on purpose");
+                }
+                return super.retrieveSpeechComponent(hash);
+            }
+
+            @Override
+            public HashMap<String, List<CardOverlay>> getOverlays(byte[] hash) {
+                if (Arrays.equals(hash, badOverlays.getHash())){
+                    throw new IllegalStateException("Overlays unreadable on purpose");
+                }
+                return super.getOverlays(hash);
+            }
+        };
+        for (Card card:new Card[]{unreadable, badOverlays, fine}){
+            store(storage, card, 5);
+        }
+        AuditReport report = new StorageAuditor(storage).audit();
+        assertEquals(3, report.getCardsChecked());
+        assertEquals(EnumSet.of(ProblemType.UNREADABLE), problemsOf(report, unreadable.getHash()));
+        assertEquals(EnumSet.of(ProblemType.UNREADABLE), problemsOf(report, badOverlays.getHash()));
+        assertTrue(problemsOf(report, fine.getHash()).isEmpty());
+        assertEquals(1, report.getOverlaysChecked());
+    }
+}